@@ -16,9 +16,12 @@
  */
 package de.pskiwi.avrremote;
 
+import java.io.File;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.net.CookieHandler;
 import java.net.CookieManager;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.Activity;
@@ -32,16 +35,21 @@ import android.content.DialogInterface.OnDismissListener;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.Network;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
 import android.util.Log;
+import android.view.Choreographer;
 import de.pskiwi.avrremote.EnableManager.StatusFlag;
 import de.pskiwi.avrremote.core.AVRState;
+import de.pskiwi.avrremote.core.BackgroundTasks;
+import de.pskiwi.avrremote.core.ChangeBatcher;
 import de.pskiwi.avrremote.core.IGUIExecutor;
 import de.pskiwi.avrremote.core.MacroManager;
 import de.pskiwi.avrremote.core.RenameService;
 import de.pskiwi.avrremote.core.ResilentConnector;
 import de.pskiwi.avrremote.core.SenderBridge;
+import de.pskiwi.avrremote.core.StateSnapshot;
 import de.pskiwi.avrremote.core.Zone;
 import de.pskiwi.avrremote.core.ZoneState.MuteState;
 import de.pskiwi.avrremote.core.ZoneState.Volume;
@@ -54,6 +62,7 @@ import de.pskiwi.avrremote.log.LogMode;
 import de.pskiwi.avrremote.log.Logger;
 import de.pskiwi.avrremote.log.SDLogger;
 import de.pskiwi.avrremote.models.ModelConfigurator;
+import de.pskiwi.avrremote.scan.DiscoveryCache;
 import de.pskiwi.avrremote.scan.WiFiInfo;
 
 /** Global State */
@@ -66,6 +75,10 @@ public final class AVRApplication extends Application {
 			final boolean newConnected = WiFiInfo
 					.isWiFiConnected(connectivityManager);
 			enableManager.setStatus(StatusFlag.WLAN, newConnected);
+			if (newConnected) {
+				discoveryCache.setNetwork(new WiFiInfo(context)
+						.getFingerprint());
+			}
 			Logger.info("AVRApplication.Wifi connected:" + newConnected + " "
 					+ activeHandler + " " + enableManager);
 
@@ -77,6 +90,11 @@ public final class AVRApplication extends Application {
 					if (connected) {
 						connector.triggerReconnect();
 					}
+				} else if (newConnected) {
+					// WLAN war schon da, hat sich aber geändert (Roaming,
+					// neue Adresse) - ein wartender Reconnector muss das
+					// nicht aussitzen
+					connector.linkChanged();
 				}
 			}
 		}
@@ -84,6 +102,20 @@ public final class AVRApplication extends Application {
 		private boolean connected;
 	};
 
+	// Wechsel des Default-Netzes sieht der WLAN-Broadcast nicht, z.B. wenn
+	// ein WLAN ohne Internet neben Mobilfunk zum Default wird. Kommt auf
+	// einem Thread von ConnectivityManager.
+	private final ConnectivityManager.NetworkCallback defaultNetworkCallback = new ConnectivityManager.NetworkCallback() {
+
+		@Override
+		public void onAvailable(Network network) {
+			Logger.info("AVRApplication.default network available " + network);
+			if (activeHandler.isActive()) {
+				connector.linkChanged();
+			}
+		}
+	};
+
 	@Override
 	public void onCreate() {
 		super.onCreate();
@@ -97,7 +129,6 @@ public final class AVRApplication extends Application {
 		// das folgende d_option1.asp ausliest.
 		CookieHandler.setDefault(new CookieManager());
 
-		final Handler handler = new Handler();
 		final UncaughtExceptionHandler defaultUncaughtExceptionHandler = Thread
 				.getDefaultUncaughtExceptionHandler();
 		Thread.setDefaultUncaughtExceptionHandler(new UncaughtExceptionHandler() {
@@ -135,16 +166,17 @@ public final class AVRApplication extends Application {
 		final SenderBridge senderBridge = new SenderBridge();
 		Logger.info("init state ...");
 		displayManager = new DisplayManager();
-		avrState = new AVRState(senderBridge, enableManager,
-				new IGUIExecutor() {
-					public void execute(Runnable r) {
-						handler.post(r);
-					}
-				}, displayManager, modelConfigurator);
+		avrState = new AVRState(senderBridge, enableManager, changeBatcher,
+				displayManager, modelConfigurator);
 		avrState.setActiveZoneCount(getModelConfigurator().getZoneCount());
+		loadSnapshot();
 
+		discoveryCache = new DiscoveryCache(
+				DiscoveryCache.getFile(getFilesDir()));
+		discoveryCache.load();
+		discoveryCache.setNetwork(new WiFiInfo(this).getFingerprint());
 		connector = new ResilentConnector(enableManager, avrState,
-				modelConfigurator);
+				modelConfigurator, discoveryCache);
 		senderBridge.setDelegate(connector);
 		displayManager.setAvrState(avrState);
 
@@ -154,6 +186,7 @@ public final class AVRApplication extends Application {
 		filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
 		filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
 		registerReceiver(wifiEventReceiver, filter);
+		connectivityManager.registerDefaultNetworkCallback(defaultNetworkCallback);
 
 		statusbarManager = new StatusbarManager(this);
 
@@ -195,6 +228,11 @@ public final class AVRApplication extends Application {
 
 	public void reconfigure() {
 		Logger.info("reconfigure ...");
+		if (modelConfigurator.getCurrentReceiver() != snapshotReceiver) {
+			// anderer Receiver: dessen Werte, nicht die des vorigen
+			saveSnapshot();
+			loadSnapshot();
+		}
 		modelConfigurator.update();
 		connector.reconfigure(this);
 		enableManager.reinitListener();
@@ -218,6 +256,35 @@ public final class AVRApplication extends Application {
 
 	public void activityPaused(Context context) {
 		activeHandler.contextPaused(context);
+		saveSnapshot();
+		BackgroundTasks.io("DiscoveryCacheWriter", new Runnable() {
+			public void run() {
+				discoveryCache.save();
+			}
+		});
+	}
+
+	/** Werte hier abgreifen, schreiben im Hintergrund. */
+	private void saveSnapshot() {
+		final File file = StateSnapshot.getFile(getFilesDir(),
+				snapshotReceiver);
+		final Map<Zone, List<String>> snapshot = avrState.getSnapshot();
+		BackgroundTasks.io("StateSnapshotWriter", new Runnable() {
+			public void run() {
+				StateSnapshot.save(file, snapshot);
+			}
+		});
+	}
+
+	/** Zuletzt bekannte Werte des aktuellen Receivers sofort anzeigen. */
+	private void loadSnapshot() {
+		snapshotReceiver = modelConfigurator.getCurrentReceiver();
+		avrState.setSnapshot(StateSnapshot.load(StateSnapshot.getFile(
+				getFilesDir(), snapshotReceiver)));
+	}
+
+	public DiscoveryCache getDiscoveryCache() {
+		return discoveryCache;
 	}
 
 	public EnableManager getEnableManager() {
@@ -327,11 +394,46 @@ public final class AVRApplication extends Application {
 	private DisplayManager displayManager;
 	private RenameService renameService;
 	private LogMode debugMode;
+	// Zustands-Änderungen einmal pro Frame statt einzeln an den Handler.
+	// Choreographer und Handler werden hier auf dem Main-Thread geholt,
+	// postFrameCallback() und postDelayed() darf dann jeder Thread. Ohne
+	// sichtbares Fenster oder bei ausgeschaltetem Display kommt kein Frame,
+	// dann liefert der Handler nach FRAME_FALLBACK aus.
+	private final ChangeBatcher changeBatcher = new ChangeBatcher(
+			new IGUIExecutor() {
+				private final Choreographer choreographer = Choreographer
+						.getInstance();
+				private final Handler handler = new Handler();
+
+				public void execute(final Runnable r) {
+					final AtomicBoolean done = new AtomicBoolean();
+					final Runnable once = new Runnable() {
+						public void run() {
+							if (done.compareAndSet(false, true)) {
+								r.run();
+							}
+						}
+					};
+					choreographer
+							.postFrameCallback(new Choreographer.FrameCallback() {
+								public void doFrame(long frameTimeNanos) {
+									handler.removeCallbacks(once);
+									once.run();
+								}
+							});
+					handler.postDelayed(once, FRAME_FALLBACK);
+				}
+			});
 	private EnableManager enableManager = new EnableManager();
 	private ActiveHandler activeHandler;
+	// Receiver-Slot, zu dem die Werte in avrState gehören
+	private int snapshotReceiver;
 	private AVRState avrState;
 	private ConnectivityManager connectivityManager;
 	private ResilentConnector connector;
+	private DiscoveryCache discoveryCache;
 	private ModelConfigurator modelConfigurator;
+	// gut sechs Frames; länger wartet eine Anzeige nur ohne Frames
+	private static final long FRAME_FALLBACK = 100;
 
 }
@@ -515,7 +515,7 @@ public final class AVRRemote extends TabActivity implements IActivityShowing,
 		return view;
 	}
 
-	public static void initVolumeButtons(Context ctx, ZoneState zone,
+	public static void initVolumeButtons(Context ctx, final ZoneState zone,
 			final StatusFlag flag, final View view, ViewList viewList,
 			final boolean small, AVRTheme avrTheme) {
 		final VolumeDisplay volumeDisplay = AVRSettings.getVolumeDisplay(ctx);
@@ -547,6 +547,8 @@ public final class AVRRemote extends TabActivity implements IActivityShowing,
 			public void changedState(Volume state) {
 				lblVolume.setText(state
 						.getPrintableVolume(volumeDisplay, small));
+				// Wert aus dem Snapshot, noch nicht vom Receiver bestätigt
+				lblVolume.setAlpha(zone.isStale(state) ? STALE_ALPHA : 1f);
 			}
 		}, Volume.class);
 	}
@@ -600,5 +602,6 @@ public final class AVRRemote extends TabActivity implements IActivityShowing,
 	// Achtung, kann "null" sein
 	private ZoneState currentZoneState;
 	private static final String CURRENT_TAB = "CURRENT_TAB";
+	private static final float STALE_ALPHA = 0.5f;
 
 }
\ No newline at end of file
@@ -37,6 +37,7 @@ import android.preference.Preference;
 import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.core.ConnectionConfiguration;
 import de.pskiwi.avrremote.log.LogMode;
 import de.pskiwi.avrremote.log.Logger;
@@ -185,7 +186,8 @@ public final class AVRSettings extends PreferenceActivity implements
 				}
 
 			};
-			asyncTask.execute();
+			asyncTask.executeOnExecutor(BackgroundTasks
+					.blockingExecutor("CheckAddress"));
 
 		}
 	}
@@ -371,6 +373,17 @@ public final class AVRSettings extends PreferenceActivity implements
 						model.trim()).commit();
 	}
 
+	public static int getSendDelay(Context ctx, int receiverNr) {
+		return PreferenceManager.getDefaultSharedPreferences(ctx).getInt(
+				SEND_DELAY + receiverSuffix(receiverNr), 0);
+	}
+
+	public static void setSendDelay(Context ctx, int receiverNr, int delay) {
+		PreferenceManager.getDefaultSharedPreferences(ctx).edit()
+				.putInt(SEND_DELAY + receiverSuffix(receiverNr), delay)
+				.commit();
+	}
+
 	public static void setLevelPreset(Context ctx,
 			Map<String, Integer> presets, int receiverNr, int presetNr) {
 		StringBuilder b = new StringBuilder();
@@ -441,6 +454,7 @@ public final class AVRSettings extends PreferenceActivity implements
 	private static final String AVR_INDEX = "AVRIndex";
 	private static final String AVR_BACKGROUND = "AVRBackground";
 	private static final String LEVEL_PRESET = "LevelPreset";
+	private static final String SEND_DELAY = "SendDelay";
 	private final static String AVRIP = "avrip";
 	private final static String AVRMACRO = "avrmacro_";
 	private final static String NOTIFICATION_KEY = "AVRNotification";
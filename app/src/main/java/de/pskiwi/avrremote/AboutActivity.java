@@ -16,16 +16,23 @@
  */
 package de.pskiwi.avrremote;
 
+import android.app.AlertDialog;
 import android.app.TabActivity;
 import android.content.Intent;
+import android.graphics.Typeface;
 import android.os.Bundle;
+import android.util.TypedValue;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.View.OnLongClickListener;
 import android.webkit.WebView;
 import android.webkit.WebViewDatabase;
 import android.widget.Button;
+import android.widget.ScrollView;
 import android.widget.TabHost;
+import android.widget.TextView;
 import android.widget.Toast;
+import de.pskiwi.avrremote.core.ConnectionMetrics;
 import de.pskiwi.avrremote.log.Logger;
 
 public final class AboutActivity extends TabActivity {
@@ -47,6 +54,13 @@ public final class AboutActivity extends TabActivity {
 				finish();
 			}
 		});	
+		// versteckt: Verbindungs-Kennzahlen, siehe ConnectionMetrics
+		btnOk.setOnLongClickListener(new OnLongClickListener() {
+			public boolean onLongClick(View v) {
+				showDiagnostics();
+				return true;
+			}
+		});
 
 		// Whatsnew nach vorne
 		final Bundle extras = getIntent().getExtras();
@@ -80,6 +94,20 @@ public final class AboutActivity extends TabActivity {
 
 	}
 
+	private void showDiagnostics() {
+		final TextView text = new TextView(this);
+		text.setTypeface(Typeface.MONOSPACE);
+		text.setTextSize(TypedValue.COMPLEX_UNIT_SP, 11);
+		text.setText(ConnectionMetrics.get().dump());
+		text.setTextIsSelectable(true);
+		final int pad = (int) (8 * getResources().getDisplayMetrics().density);
+		text.setPadding(pad, pad, pad, pad);
+		final ScrollView scroll = new ScrollView(this);
+		scroll.addView(text);
+		new AlertDialog.Builder(this).setTitle("Diagnostics").setView(scroll)
+				.setPositiveButton(R.string.OK, null).show();
+	}
+
 	private AVRApplication getApp() {
 		return (AVRApplication) getApplication();
 	}
@@ -16,19 +16,18 @@
  */
 package de.pskiwi.avrremote;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 import android.content.Context;
 import android.os.SystemClock;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.core.ResilentConnector;
 import de.pskiwi.avrremote.log.Logger;
 
 /** Wie lange bleibt die Verbindung zum AVR aktiv ? */
 public final class ActiveHandler {
 
-	private final class StopConnectorTask extends TimerTask {
-		@Override
+	private final class StopConnectorTask implements Runnable {
 		public void run() {
 			Logger.info("run stopConnectorRunnable");
 			// Der Task kann durch Doze/App-Standby beliebig verzoegert werden
@@ -97,12 +96,12 @@ public final class ActiveHandler {
 			Logger.info("schedule close");
 			// doppelte vermeiden
 			cancelCurrentTask();
-			task = new StopConnectorTask();
 			final int disconnectTimeout = AVRSettings
 					.getDisconnectTimeout(context);
 			Logger.debug("auto disconnect :" + disconnectTimeout + "sec");
 			pausedAtElapsedRealtime = SystemClock.elapsedRealtime();
-			timer.schedule(task, disconnectTimeout * 1000);
+			task = BackgroundTasks.schedule("StopConnector-Timer",
+					new StopConnectorTask(), disconnectTimeout * 1000L);
 			activeContext = null;
 		}
 	}
@@ -114,7 +113,7 @@ public final class ActiveHandler {
 
 	private void cancelCurrentTask() {
 		if (task != null) {
-			task.cancel();
+			task.cancel(false);
 			task = null;
 		}
 	}
@@ -125,12 +124,11 @@ public final class ActiveHandler {
 	}
 
 	// Die Variable task darf nur im EDT verändert werden !
-	private TimerTask task;
+	private ScheduledFuture<?> task;
 	// -1 = kein Pause-Zeitpunkt gemerkt (z.B. allererstes contextResumed())
 	private long pausedAtElapsedRealtime = -1;
 	// volatile: wird vom Timer-Thread in StopConnectorTask gelesen
 	private volatile Context activeContext;
-	private final Timer timer = new Timer("StopConnector-Timer", true);
 	private final ResilentConnector connector;
 	// so lange darf contextResumed() der bestehenden Verbindung glauben
 	private static final int MAX_QUICK_RETURN_SEC = 60;
@@ -24,8 +24,10 @@ public final class EmulationDetector {
 		return EMULATOR;
 	}
 
-	private final static boolean EMULATOR = Build.PRODUCT.toUpperCase()
-			.contains("SDK")
-			&& Build.DEVICE.equals("generic");
+	// Build.* ist auf einer nackten JVM null - ConnectorTest läuft durch den
+	// Receiver und damit durch InData.toDebugString()
+	private final static boolean EMULATOR = Build.PRODUCT != null
+			&& Build.PRODUCT.toUpperCase().contains("SDK")
+			&& "generic".equals(Build.DEVICE);
 
 }
@@ -158,6 +158,9 @@ public final class EnableManager {
 	}
 
 	private void fireListener() {
+		// Jeder Übergang einzeln und per Handler, nicht über ChangeBatcher:
+		// AVRState hängt den Verbindungsablauf daran, und Frames gibt es bei
+		// ausgeschaltetem Display keine.
 		final ReceiverStatus current = connectionStatus.copy();
 		handler.post(new Runnable() {
 			public void run() {
@@ -39,6 +39,7 @@ import android.widget.Spinner;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.core.Zone;
 import de.pskiwi.avrremote.core.ZoneState;
 import de.pskiwi.avrremote.core.ZoneState.InputSelect;
@@ -182,8 +183,7 @@ public final class ScreenMenu implements IScreenMenu {
 
 	protected void search(final SearchInputType inputType,
 			final SearchType type, final String text) {
-		Thread thread = new Thread("Search") {
-			@Override
+		BackgroundTasks.blocking("Search", new Runnable() {
 			public void run() {
 				Logger.info("Search :" + inputType + "/" + type + " [" + text
 						+ "]");
@@ -196,8 +196,7 @@ public final class ScreenMenu implements IScreenMenu {
 				}
 
 			};
-		};
-		thread.start();
+		});
 	}
 
 	public void doClassicSearch() {
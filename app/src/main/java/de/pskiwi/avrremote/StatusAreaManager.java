@@ -16,11 +16,14 @@
  */
 package de.pskiwi.avrremote;
 
+import java.util.concurrent.ScheduledFuture;
+
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import de.pskiwi.avrremote.EnableManager.IStatusListener;
 import de.pskiwi.avrremote.EnableManager.StatusFlag;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.http.AVRHTTPClient;
 import de.pskiwi.avrremote.http.AVRXMLInfo;
 import de.pskiwi.avrremote.log.Logger;
@@ -102,12 +105,13 @@ public final class StatusAreaManager implements IStatusListener {
 
 	private void loadXMLStatus() {
 		if (System.currentTimeMillis() - lastXMLUpdate < XML_UPDATE_DELAY) {
+			// auch wenn der Timer ein paar ms zu früh kommt, läuft die Kette weiter
+			schedulePoll();
 			return;
 		}
 		// vermeidet Mehrfachanfragen
 		lastXMLUpdate = System.currentTimeMillis();
-		new Thread("LoadXMLStatus") {
-			@Override
+		BackgroundTasks.blocking("LoadXMLStatus", new Runnable() {
 			public void run() {
 				try {
 					final AVRXMLInfo state = new AVRHTTPClient(activity
@@ -122,14 +126,44 @@ public final class StatusAreaManager implements IStatusListener {
 					Logger.error("Read state failed", e);
 				}
 			}
-		}.start();
+		});
+		schedulePoll();
+	}
+
+	/**
+	 * Ohne Statusänderung käme kein neuer Anlass zum Lesen. Solange die
+	 * Activity sichtbar und verbunden ist, nach XML_UPDATE_DELAY nochmal -
+	 * eine Umbenennung am Receiver ist dann nach spätestens einer Minute da.
+	 * Unverändert kostet das nur die Requests, geparst wird nichts
+	 * (ResponseCache).
+	 */
+	private void schedulePoll() {
+		if (poll != null && !poll.isDone()) {
+			return;
+		}
+		poll = BackgroundTasks.schedule("XMLStatus-Timer", new Runnable() {
+			public void run() {
+				activity.runOnUiThread(new Runnable() {
+					public void run() {
+						poll = null;
+						if (activity.isShowing()
+								&& activity.getApp().getEnableManager()
+										.getCurrentStatus()
+										.is(StatusFlag.Connected)) {
+							loadXMLStatus();
+						}
+					}
+				});
+			}
+		}, XML_UPDATE_DELAY);
 	}
 
 	private long lastXMLUpdate = -1;
+	// nur im UI-Thread angefasst
+	private ScheduledFuture<?> poll;
 
 	private final Button infoView;
 	private final AVRRemote activity;
-	// 1h
-	private static final int XML_UPDATE_DELAY = 60 * 60 * 1000;
+	private static final int XML_UPDATE_DELAY = 60 * 1000;
 
 }
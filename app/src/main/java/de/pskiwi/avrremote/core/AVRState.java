@@ -17,9 +17,12 @@
 package de.pskiwi.avrremote.core;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
 import de.pskiwi.avrremote.EnableManager;
@@ -33,25 +36,30 @@ import de.pskiwi.avrremote.models.ModelConfigurator;
 public final class AVRState implements IEventListener {
 
 	public AVRState(final ISender sender, EnableManager enableManager,
-			IGUIExecutor guiExecutor, DisplayManager displayManager,
+			ChangeBatcher changeBatcher, DisplayManager displayManager,
 			ModelConfigurator modelConfigurator) {
 
 		this.modelConfigurator = modelConfigurator;
 		ZoneState mainZone = new ZoneState(sender, Zone.Main, enableManager,
-				guiExecutor, displayManager, modelConfigurator);
+				changeBatcher, displayManager, modelConfigurator);
 		zoneState.put(Zone.Main, mainZone);
 		zoneState.put(Zone.Z2, new ZoneState(sender, Zone.Z2, enableManager,
-				guiExecutor, displayManager, modelConfigurator));
+				changeBatcher, displayManager, modelConfigurator));
 		zoneState.put(Zone.Z3, new ZoneState(sender, Zone.Z3, enableManager,
-				guiExecutor, displayManager, modelConfigurator));
+				changeBatcher, displayManager, modelConfigurator));
 		zoneState.put(Zone.Z4, new ZoneState(sender, Zone.Z4, enableManager,
-				guiExecutor, displayManager, modelConfigurator));
+				changeBatcher, displayManager, modelConfigurator));
 		activeZoneCount = zoneState.size();
-		final AtomicReference<Thread> checkThread = new AtomicReference<Thread>();
+		final AtomicReference<Future<?>> checkThread = new AtomicReference<Future<?>>();
 
 		enableManager.setClassListener(new IStatusListener() {
 			private boolean lastConnected;
 			private boolean lastPower;
+			// wann die Verbindung zuletzt weg war, -1 = noch nie verbunden
+			private long disconnectedAt = -1;
+			private boolean powerBeforeOutage;
+			// nach kurzem Aussetzer: das nächste Power-Flag gehört noch dazu
+			private boolean reconcilePower;
 
 			public void statusChanged(ReceiverStatus currentStatus) {
 				Logger.info("AVRState:zone state update ..." + currentStatus
@@ -63,6 +71,10 @@ public final class AVRState implements IEventListener {
 					for (ZoneState zs : allActive()) {
 						zs.resetState(stateFilter);
 					}
+					if (lastConnected) {
+						disconnectedAt = System.currentTimeMillis();
+						powerBeforeOutage = lastPower;
+					}
 					lastConnected = false;
 					lastPower = false;
 					return;
@@ -72,36 +84,72 @@ public final class AVRState implements IEventListener {
 				// anfragen.
 				if (lastConnected != currentStatus.is(StatusFlag.Connected)
 						|| lastPower != currentStatus.is(StatusFlag.Power)) {
+					final long now = System.currentTimeMillis();
+					final boolean power = currentStatus.is(StatusFlag.Power);
+					final boolean reconcile;
+					if (!lastConnected) {
+						// kurzer Aussetzer (WLAN, Resume) -> nur das Nötige
+						reconcile = disconnectedAt >= 0
+								&& now - disconnectedAt < SHORT_OUTAGE;
+						reconcilePower = reconcile && powerBeforeOutage;
+					} else {
+						// Das Power-Flag kommt oft erst nach dem Verbinden.
+						// War der Receiver vorher schon an, ist das noch der
+						// Aussetzer; jede andere Änderung (Minuten später
+						// eingeschaltet) fragt wieder alles ab.
+						reconcile = reconcilePower && power;
+						reconcilePower = false;
+					}
 					lastConnected = currentStatus.is(StatusFlag.Connected);
-					lastPower = currentStatus.is(StatusFlag.Power);
+					lastPower = power;
 
 					Logger.info("AVRState:zone state update");
 
+					int queries = 0;
 					for (ZoneState zs : allActive()) {
-						zs.initState(stateFilter);
+						queries += reconcile ? zs.reconcileState(stateFilter)
+								: zs.initState(stateFilter);
 					}
-					if (checkThread.get() != null
-							&& checkThread.get().isAlive()) {
-						checkThread.get().interrupt();
+					if (checkThread.get() != null) {
+						checkThread.get().cancel(true);
 					}
 
-					final Thread thread = new Thread("StateCheckThread") {
+					final boolean observedOnly = reconcile;
+					final int initialQueries = queries;
+					final Runnable check = new Runnable() {
 						public void run() {
 							// nochmal checken ob alle Antworten da sind...
-							if (!waitForReplies(sender)) {
+							final int requery = waitForReplies(sender,
+									observedOnly);
+							if (requery < 0) {
 								return;
 							}
+							// Messpunkt für den Vergleich der beiden Wege
+							Logger.info("AVRState:"
+									+ (observedOnly ? "reconcile" : "full")
+									+ " queries:" + initialQueries
+									+ " requeries:" + requery + " idle after "
+									+ (System.currentTimeMillis() - now)
+									+ "ms");
 							// und ein drittes und letztes Mal ..
-							waitForReplies(sender);
+							final int last = waitForReplies(sender,
+									observedOnly);
+							if (last >= 0) {
+								ConnectionMetrics.get().stateComplete(
+										System.currentTimeMillis() - now,
+										requery + last);
+							}
 
 						};
 					};
-					thread.start();
-					checkThread.set(thread);
+					checkThread.set(BackgroundTasks.blocking("StateCheckThread",
+							check));
 				}
 			}
 
-			private boolean waitForReplies(final ISender sender) {
+			/** @return Anzahl erneuter Abfragen, -1 bei Abbruch */
+			private int waitForReplies(final ISender sender,
+					boolean observedOnly) {
 				// max. 5sec warten
 				int count = 0;
 				while (!sender.isQueueEmpty() && count < 20
@@ -110,27 +158,28 @@ public final class AVRState implements IEventListener {
 						Thread.sleep(250);
 					} catch (InterruptedException e) {
 						Logger.info("interrupted state checkthread");
-						return false;
+						return -1;
 					}
 					count++;
 					Logger.info("wait for empty queue " + count + " empty:"
 							+ sender.isQueueEmpty());
 				}
 				if (Thread.currentThread().isInterrupted()) {
-					return false;
+					return -1;
 				}
 				// Auf letzte Antworten warten
 				try {
 					Thread.sleep(250);
 				} catch (InterruptedException e) {
 					Logger.info("interrupted state checkthread");
-					return false;
+					return -1;
 				}
 				// Alle checken,ob Antwort da
+				int requery = 0;
 				for (ZoneState zs : allActive()) {
-					zs.checkDefined(stateFilter);
+					requery += zs.checkDefined(stateFilter, observedOnly);
 				}
-				return true;
+				return requery;
 			}
 		});
 	}
@@ -155,33 +204,15 @@ public final class AVRState implements IEventListener {
 	public void received(InData inData) {
 
 		final Zone zone;
+		String head = "";
 		if (inData.charAt(0) == 'Z' && inData.length() > 1
 				&& Character.isDigit(inData.charAt(1))) {
-			{
-				zone = getZone(inData);
-
-				inData.setOffset(2);
-				String cmd = null;
-				String event = inData.toString();
-				if (inData.isNumber()) {
-					cmd = "MV" + event;
-				} else if ("ON".equals(event) || "OFF".equals(event)) {
-					cmd = "ZM" + event;
-				} else if (event.startsWith("QUICK")) {
-					cmd = "ZM" + event;
-				} else if (event.startsWith("SOURCE")) {
-					cmd = "SRC" + event;
-				} else {
-					if (modelConfigurator.isInput(event)) {
-						cmd = "SI" + event;
-					} else {
-						cmd = event;
-					}
-				}
-				if (cmd != null) {
-					inData = new InData(cmd);
-				}
-			}
+			zone = getZone(inData);
+			// Die Zeile bleibt, wie sie ist: nur der Versatz rückt hinter
+			// "Zn", und head sagt dem PrefixResolver, welches Kommando der
+			// Rest ist ("Z250" -> "MV" + "50").
+			inData.setOffset(2);
+			head = zoneHead(inData);
 		} else {
 			zone = Zone.Main;
 		}
@@ -189,7 +220,32 @@ public final class AVRState implements IEventListener {
 		if (zs == null) {
 			throw new RuntimeException("zone not found " + zone);
 		}
-		zs.update(inData);
+		zs.update(head, inData);
+	}
+
+	/**
+	 * Was hinter "Zn" steht: Zahl = Lautstärke, ON/OFF/QUICKn = Zone, SOURCE,
+	 * ein Eingang - oder ein eigenes Kommando wie "MUON", "CVFL 50".
+	 */
+	private String zoneHead(InData event) {
+		if (event.valueLength() == 0) {
+			return "";
+		}
+		if (event.isNumber()) {
+			return "MV";
+		}
+		if (event.contentEquals("ON") || event.contentEquals("OFF")
+				|| event.startsWith("QUICK")) {
+			return "ZM";
+		}
+		if (event.startsWith("SOURCE")) {
+			return "SRC";
+		}
+		// Erst hier ein String, und nur für die Eingangs-Frage
+		if (modelConfigurator.isInput(event.toString())) {
+			return "SI";
+		}
+		return "";
 	}
 
 	private Zone getZone(InData s) {
@@ -214,6 +270,24 @@ public final class AVRState implements IEventListener {
 
 	}
 
+	/** Die letzten Live-Zeilen aller Zonen, siehe StateSnapshot. */
+	public Map<Zone, List<String>> getSnapshot() {
+		final Map<Zone, List<String>> ret = new EnumMap<Zone, List<String>>(
+				Zone.class);
+		for (Map.Entry<Zone, ZoneState> e : zoneState.entrySet()) {
+			ret.put(e.getKey(), e.getValue().getSnapshot());
+		}
+		return ret;
+	}
+
+	public void setSnapshot(Map<Zone, List<String>> snapshot) {
+		for (Map.Entry<Zone, ZoneState> e : zoneState.entrySet()) {
+			final List<String> lines = snapshot.get(e.getKey());
+			e.getValue().setSnapshot(
+					lines != null ? lines : Collections.<String> emptyList());
+		}
+	}
+
 	public ZoneState getZone(Zone z) {
 		return zoneState.get(z);
 	}
@@ -244,5 +318,7 @@ public final class AVRState implements IEventListener {
 	private int activeZoneCount;
 	private final ModelConfigurator modelConfigurator;
 	private final Map<Zone, ZoneState> zoneState = new LinkedHashMap<Zone, ZoneState>();
+	// bis zu dieser Ausfallzeit (ms) reicht beim Reconnect reconcileState()
+	private static final long SHORT_OUTAGE = 30000;
 
 }
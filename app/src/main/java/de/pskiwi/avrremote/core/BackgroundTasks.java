@@ -0,0 +1,350 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Alle Hintergrundarbeit der App, statt eines neuen Threads pro Aufgabe.
+ *
+ * Früher startete jeder Reconnect vier Threads (Reconnector, Probe,
+ * Receiver, Sender), jeder Resume dazu StateCheckThread und LoadXMLStatus,
+ * und ActiveHandler hielt einen eigenen Timer. Jetzt gibt es drei Pools für
+ * vier Arten von Aufgaben:
+ * <ul>
+ * <li>{@link #io}: kurze Arbeit - Dateien schreiben, die Erreichbarkeits-Probe
+ * beim Reconnect. Begrenzt auf IO_THREADS, der Rest wartet in der Schlange;
+ * deshalb nichts, was Sekunden schläft oder auf Timeouts wartet.</li>
+ * <li>{@link #blocking}: Aufgaben, die die meiste Zeit warten - HTTP an den
+ * Receiver mit Timeouts von Sekunden, StateCheckThread, Makros, Suchlauf.
+ * Unbegrenzt; sie teilen sich die Threads mit loop.</li>
+ * <li>{@link #loop}: Schleifen, die so lange laufen wie eine Verbindung
+ * (Reconnector, Receiver, Sender). Unbegrenzt, weil jede davon einen Thread
+ * blockiert; die Threads werden aber über Reconnects hinweg wiederverwendet.</li>
+ * <li>{@link #schedule}: Verzögerungen, ein Thread. Was dort läuft, muss kurz
+ * sein, länger Dauerndes gibt es an {@link #io} oder {@link #blocking}
+ * weiter.</li>
+ * </ul>
+ *
+ * Jede Aufgabe hat einen Namen. Solange sie läuft, trägt ihr Thread diesen
+ * Namen, im Log steht also weiter "receiver" oder "ResilentThreadHandler-3"
+ * statt "bg-io-2". Wartet eine Aufgabe lange in der Schlange, wird das
+ * geloggt, ebenso eine io-Aufgabe, die nach STUCK_TIME noch läuft - der
+ * Wecker dafür steht nur, solange eine läuft.
+ * {@link #getStats()} liefert die Zähler für das Log.
+ */
+public final class BackgroundTasks {
+
+	private enum Kind {
+		IO, LOOP, TIMER, BLOCKING
+	}
+
+	/** Eine benannte Aufgabe mit ihren Zeitpunkten. */
+	private static final class Task implements Runnable {
+
+		Task(String name, Kind kind, Runnable runnable) {
+			this.name = name;
+			this.kind = kind;
+			this.runnable = runnable;
+		}
+
+		public void run() {
+			final long now = System.currentTimeMillis();
+			final long waited = queuedAt == 0 ? 0 : now - queuedAt;
+			if (kind != Kind.TIMER && waited >= WAIT_LOG) {
+				Logger.info("BackgroundTasks: " + name + " waited " + waited
+						+ "ms, queue " + io.getQueue().size());
+			}
+			final Stats st = stats[kind.ordinal()];
+			st.started(waited);
+			final Thread thread = Thread.currentThread();
+			final String threadName = thread.getName();
+			thread.setName(name);
+			startedAt = now;
+			running.put(this, Boolean.TRUE);
+			// nur solange eine io-Aufgabe läuft, kein Wecker im Leerlauf
+			final ScheduledFuture<?> watchdog = kind == Kind.IO ? timer
+					.schedule(WATCHDOG, STUCK_TIME, TimeUnit.MILLISECONDS)
+					: null;
+			try {
+				runnable.run();
+			} catch (RuntimeException x) {
+				// ein eigener Thread hätte das bis zum
+				// UncaughtExceptionHandler getragen, der Pool verschluckt es
+				Logger.error("BackgroundTasks: " + name + " failed", x);
+				throw x;
+			} catch (Error x) {
+				Logger.error("BackgroundTasks: " + name + " failed", x);
+				throw x;
+			} finally {
+				if (watchdog != null) {
+					watchdog.cancel(false);
+				}
+				running.remove(this);
+				thread.setName(threadName);
+				st.finished();
+			}
+		}
+
+		private final String name;
+		private final Kind kind;
+		private final Runnable runnable;
+		private long queuedAt;
+		private volatile long startedAt;
+		private volatile boolean reported;
+	}
+
+	/** Zähler eines Pools seit dem Start. */
+	private static final class Stats {
+
+		synchronized void submitted(int depth) {
+			submitted++;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+
+		synchronized void started(long waited) {
+			active++;
+			maxWait = Math.max(maxWait, waited);
+		}
+
+		synchronized void finished() {
+			active--;
+			completed++;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "submitted:" + submitted + " completed:" + completed
+					+ " active:" + active + " maxDepth:" + maxDepth
+					+ " maxWait:" + maxWait + "ms";
+		}
+
+		private int submitted;
+		private int completed;
+		private int active;
+		private int maxDepth;
+		private long maxWait;
+	}
+
+	/** Führt die Aufgaben nacheinander auf dem io-Pool aus. */
+	private static final class SerialExecutor implements Executor {
+
+		SerialExecutor(String name) {
+			this.name = name;
+		}
+
+		public synchronized void execute(final Runnable r) {
+			pending.addLast(new Runnable() {
+				public void run() {
+					try {
+						r.run();
+					} finally {
+						next();
+					}
+				}
+			});
+			if (!busy) {
+				next();
+			}
+		}
+
+		private synchronized void next() {
+			final Runnable r = pending.pollFirst();
+			busy = r != null;
+			if (busy) {
+				io(name, r);
+			}
+		}
+
+		private final String name;
+		private final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+		private boolean busy;
+	}
+
+	private static final class NamedFactory implements ThreadFactory {
+
+		NamedFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, prefix + "-"
+					+ created.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+
+		int getCreated() {
+			return created.get();
+		}
+
+		private final String prefix;
+		private final AtomicInteger created = new AtomicInteger();
+	}
+
+	private BackgroundTasks() {
+	}
+
+	/** Kurze Hintergrundarbeit auf dem begrenzten Pool. */
+	public static Future<?> io(String name, Runnable r) {
+		return submit(io, new Task(name, Kind.IO, r));
+	}
+
+	/** Eine Schleife, die so lange läuft wie ihre Verbindung. */
+	public static Future<?> loop(String name, Runnable r) {
+		return submit(loop, new Task(name, Kind.LOOP, r));
+	}
+
+	/** Wartet lange (Sleep, Timeouts), darf io nicht aufhalten. */
+	public static Future<?> blocking(String name, Runnable r) {
+		return submit(loop, new Task(name, Kind.BLOCKING, r));
+	}
+
+	public static ScheduledFuture<?> schedule(String name, Runnable r,
+			long delay) {
+		final Task task = new Task(name, Kind.TIMER, r);
+		stats[Kind.TIMER.ordinal()].submitted(timer.getQueue().size());
+		return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/** Für AsyncTask.executeOnExecutor(): jede Ausführung als io-Aufgabe. */
+	public static Executor executor(final String name) {
+		return new Executor() {
+			public void execute(Runnable r) {
+				io(name, r);
+			}
+		};
+	}
+
+	/** Wie {@link #executor(String)}, aber als {@link #blocking}-Aufgabe. */
+	public static Executor blockingExecutor(final String name) {
+		return new Executor() {
+			public void execute(Runnable r) {
+				blocking(name, r);
+			}
+		};
+	}
+
+	/**
+	 * Wie {@link #executor(String)}, aber immer nur eine Aufgabe zur Zeit, in
+	 * der Reihenfolge der Aufrufe. Ersetzt einen eigenen Thread, der die meiste
+	 * Zeit wartet.
+	 */
+	public static Executor serial(String name) {
+		return new SerialExecutor(name);
+	}
+
+	private static Future<?> submit(ThreadPoolExecutor pool, Task task) {
+		task.queuedAt = System.currentTimeMillis();
+		stats[task.kind.ordinal()].submitted(pool.getQueue().size() + 1);
+		return pool.submit(task);
+	}
+
+	/**
+	 * Loggt io-Aufgaben, die seit STUCK_TIME laufen, je einmal. Schleifen
+	 * laufen absichtlich lange und zählen nicht.
+	 *
+	 * @return Anzahl der gerade hängenden Aufgaben
+	 */
+	static int checkStuck(long now) {
+		int ret = 0;
+		for (Task t : running.keySet()) {
+			if (t.kind != Kind.IO || now - t.startedAt < STUCK_TIME) {
+				continue;
+			}
+			ret++;
+			if (!t.reported) {
+				t.reported = true;
+				stuck.incrementAndGet();
+				Logger.info("BackgroundTasks: " + t.name + " running for "
+						+ (now - t.startedAt) + "ms");
+			}
+		}
+		return ret;
+	}
+
+	/** Zähler aller Pools und die Zahl der je erzeugten Threads. */
+	public static String getStats() {
+		return "io[" + stats[Kind.IO.ordinal()] + " queue:"
+				+ io.getQueue().size() + " threads:" + ioFactory.getCreated()
+				+ "] loop[" + stats[Kind.LOOP.ordinal()] + " threads:"
+				+ loopFactory.getCreated() + "] timer["
+				+ stats[Kind.TIMER.ordinal()] + "] blocking["
+				+ stats[Kind.BLOCKING.ordinal()] + "] stuck:" + stuck.get();
+	}
+
+	// Mehr parallele Verbindungen braucht kein Receiver, und mehr als ein
+	// paar gleichzeitige HTTP-Anfragen beantwortet er ohnehin nicht schneller
+	static final int IO_THREADS = 4;
+	private static final int IO_QUEUE = 64;
+	private static final long KEEP_ALIVE = 30000;
+	static final long STUCK_TIME = 30000;
+	private static final long WAIT_LOG = 500;
+
+	private static final Stats[] stats = { new Stats(), new Stats(),
+			new Stats(), new Stats() };
+	private static final Map<Task, Boolean> running = new ConcurrentHashMap<Task, Boolean>();
+	private static final AtomicInteger stuck = new AtomicInteger();
+	private static final NamedFactory ioFactory = new NamedFactory("bg-io");
+	private static final NamedFactory loopFactory = new NamedFactory("bg-loop");
+	private static final ThreadPoolExecutor io = new ThreadPoolExecutor(
+			IO_THREADS, IO_THREADS, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(IO_QUEUE), ioFactory,
+			new RejectedExecutionHandler() {
+				// Lieber ein Thread zu viel als eine verlorene Aufgabe (z.B.
+				// das Speichern des Zustands)
+				public void rejectedExecution(Runnable r,
+						ThreadPoolExecutor executor) {
+					Logger.error("BackgroundTasks: io queue full, overflow "
+							+ getStats(), null);
+					final Thread t = new Thread(r, "bg-io-overflow");
+					t.setDaemon(true);
+					t.start();
+				}
+			});
+	private static final ThreadPoolExecutor loop = new ThreadPoolExecutor(0,
+			Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+			new SynchronousQueue<Runnable>(), loopFactory);
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+			1, new NamedFactory("bg-timer"));
+	private static final Runnable WATCHDOG = new Runnable() {
+		public void run() {
+			checkStuck(System.currentTimeMillis());
+		}
+	};
+	static {
+		io.allowCoreThreadTimeOut(true);
+		timer.setKeepAliveTime(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+		timer.allowCoreThreadTimeOut(true);
+		timer.setRemoveOnCancelPolicy(true);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.util.Random;
+
+/**
+ * Exponentielles Warten mit Zufallsanteil und Obergrenze.
+ *
+ * Die frühere feste Leiter 2, 4, 8, 16s lief auf allen Geräten im Gleichschritt
+ * - kommt ein Receiver nach einem Stromausfall zurück, klopfen alle Telefone
+ * im Haus in derselben Sekunde an. Jede Stufe liegt jetzt zufällig zwischen
+ * der Hälfte und dem vollen Wert ("equal jitter"): nie ganz ohne Pause, aber
+ * verteilt.
+ *
+ * Zurück auf die erste Stufe geht es nur noch nach einer Verbindung, die
+ * STABLE_TIME gehalten hat. Der Receiver nimmt nur einen Telnet-Client an;
+ * ist der Platz belegt, gelingt der Connect und die Verbindung fällt gleich
+ * wieder - mit dem alten Zurücksetzen bei jedem Connect wurde daraus eine
+ * Schleife im Zwei-Sekunden-Takt.
+ */
+final class BackoffPolicy implements IReconnectPolicy {
+
+	BackoffPolicy(Random random) {
+		this.random = random;
+	}
+
+	public synchronized long nextDelay(long now) {
+		if (connectedAt >= 0 && now - connectedAt >= STABLE_TIME) {
+			attempts = 0;
+		}
+		connectedAt = -1;
+		final long full = maxDelay(attempts);
+		if (full < MAX_DELAY) {
+			attempts++;
+		}
+		final long half = full / 2;
+		return half + (long) (random.nextDouble() * (full - half + 1));
+	}
+
+	public synchronized void connected(long now) {
+		connectedAt = now;
+	}
+
+	public synchronized void reset() {
+		attempts = 0;
+		connectedAt = -1;
+	}
+
+	/** Obergrenze der Wartezeit vor dem Versuch nach attempts Fehlschlägen. */
+	static long maxDelay(int attempts) {
+		return Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempts, 16));
+	}
+
+	private final Random random;
+	private int attempts;
+	private long connectedAt = -1;
+
+	static final long BASE_DELAY = 2000;
+	static final long MAX_DELAY = 16000;
+	// so lange muss eine Verbindung halten, damit sie als Erfolg zählt
+	static final long STABLE_TIME = 10000;
+}
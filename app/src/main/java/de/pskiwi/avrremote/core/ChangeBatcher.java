@@ -0,0 +1,95 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Sammelt Änderungen und liefert sie einmal pro Frame aus.
+ *
+ * Früher ging jede Zustandsänderung als eigenes Runnable an den UI-Handler.
+ * Nach einem Reconnect kommen aus initState() und den Antworten aller Zonen
+ * hunderte davon in einer Sekunde, die Oberfläche ruckelt. Jetzt merkt sich
+ * {@link #mark(Object, Runnable)} nur, dass sich etwas geändert hat; pro
+ * Schlüssel steht höchstens eine Auslieferung an, und die liest beim Laufen
+ * den dann aktuellen Wert. Der frameExecutor (in der App der Choreographer,
+ * ohne Frames nach kurzer Zeit ein Handler) ruft {@link #drain()} beim
+ * nächsten Frame. Was während drain() neu markiert wird, kommt im Frame
+ * danach.
+ *
+ * Nur für Anzeigen, bei denen der letzte Stand reicht. Der Verbindungsstatus
+ * (EnableManager) geht weiter Übergang für Übergang an den Handler.
+ */
+public final class ChangeBatcher {
+
+	public ChangeBatcher(IGUIExecutor frameExecutor) {
+		this.frameExecutor = frameExecutor;
+	}
+
+	/**
+	 * Von jedem Thread.
+	 * 
+	 * @param key
+	 *            z.B. der IAVRState; steht er schon an, passiert nichts
+	 * @param delivery
+	 *            läuft auf dem UI-Thread und holt sich den Wert selbst
+	 */
+	public void mark(Object key, Runnable delivery) {
+		synchronized (this) {
+			if (pending.containsKey(key)) {
+				return;
+			}
+			pending.put(key, delivery);
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+		}
+		frameExecutor.execute(drainTask);
+	}
+
+	/** Alles Angesammelte ausliefern, auf dem UI-Thread. */
+	void drain() {
+		final Map<Object, Runnable> run;
+		synchronized (this) {
+			run = pending;
+			pending = new LinkedHashMap<Object, Runnable>();
+			scheduled = false;
+		}
+		if (run.size() > LOG_BATCH) {
+			Logger.debug("ChangeBatcher delivered " + run.size()
+					+ " changes in one frame");
+		}
+		for (Runnable r : run.values()) {
+			r.run();
+		}
+	}
+
+	private final Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	private final IGUIExecutor frameExecutor;
+	private Map<Object, Runnable> pending = new LinkedHashMap<Object, Runnable>();
+	private boolean scheduled;
+	private static final int LOG_BATCH = 20;
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import de.pskiwi.avrremote.AVRSettings;
+
+/**
+ * Zahlen zum Verbindungsverlauf, pro Receiver-Slot: wie lange ein Connect
+ * dauert, wie lange bis zum vollständigen Zustand nach initState(), wie oft
+ * und warum neu verbunden wird, dazu Sende-Schlange, Befehle und empfangene
+ * Zeilen pro Sekunde und die Nachfragen aus checkDefined().
+ *
+ * Das Log sagt, was passiert ist, aber nicht, wie lange es gedauert hat.
+ * Diese Zahlen gehen in den Feedback-Bericht und in den versteckten
+ * Diagnose-Dialog (langer Druck auf OK in AboutActivity), damit sich die
+ * Wirkung einer Änderung im Feld messen lässt.
+ *
+ * Auf dem Empfangs- und Sendeweg wird nichts allokiert: nur Zähler in
+ * vorab angelegten Arrays, Histogramme mit festen Grenzen, Präfixe als
+ * Index aus den ersten zwei Buchstaben. Synchronisiert wird nicht - jeder
+ * Zähler hat praktisch einen Schreiber, und ein verlorenes Inkrement ist für
+ * eine Diagnose egal, ein Monitor im Empfangsweg nicht. Allokiert wird erst
+ * beim Ausgeben.
+ */
+public final class ConnectionMetrics {
+
+	/** Warum eine Verbindung endete oder nicht zustande kam. */
+	public enum Cause {
+		/** Connect gescheitert */
+		CONNECT_FAILED,
+		/** Receiver hat die Verbindung geschlossen, oder Lesefehler */
+		CLOSED,
+		/** halb offen, siehe LivenessMonitor */
+		LIVENESS,
+		/** von der App geschlossen, z.B. reconnect() */
+		LOCAL,
+		/** Resume nach längerer Pause, forceReconnect() */
+		RESUME,
+		/** WLAN wieder da, triggerReconnect() */
+		WIFI
+	}
+
+	/** Histogramm mit festen Grenzen, dazu Anzahl, Summe und Maximum. */
+	static final class Histogram {
+
+		Histogram(long[] bounds) {
+			this.bounds = bounds;
+			counts = new int[bounds.length + 1];
+		}
+
+		void add(long v) {
+			int i = 0;
+			while (i < bounds.length && v > bounds[i]) {
+				i++;
+			}
+			counts[i]++;
+			count++;
+			sum += v;
+			if (v > max) {
+				max = v;
+			}
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		int getBucket(int i) {
+			return counts[i];
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder ret = new StringBuilder();
+			ret.append("n:").append(count);
+			if (count == 0) {
+				return ret.toString();
+			}
+			ret.append(" avg:").append(sum / count).append(" max:")
+					.append(max).append(" |");
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) {
+					continue;
+				}
+				ret.append(i < bounds.length ? " <=" + bounds[i] : " >"
+						+ bounds[bounds.length - 1]);
+				ret.append(":").append(counts[i]);
+			}
+			return ret.toString();
+		}
+
+		private final long[] bounds;
+		private final int[] counts;
+		private int count;
+		private long sum;
+		private long max;
+	}
+
+	/** Ereignisse pro Sekunde: Summe und die meisten in einer Sekunde. */
+	static final class Rate {
+
+		void add(long now) {
+			final long s = now / 1000;
+			if (s != second) {
+				second = s;
+				inSecond = 0;
+			}
+			if (++inSecond > peak) {
+				peak = inSecond;
+			}
+			total++;
+		}
+
+		long getTotal() {
+			return total;
+		}
+
+		int getPeak() {
+			return peak;
+		}
+
+		String format(long connectedMillis) {
+			return "total:" + total + " avg/s:"
+					+ (connectedMillis < 1000 ? 0 : total * 1000
+							/ connectedMillis) + " peak/s:" + peak;
+		}
+
+		private long second = -1;
+		private int inSecond;
+		private int peak;
+		private long total;
+	}
+
+	/** Alles zu einem Receiver-Slot. */
+	static final class Slot {
+
+		void connected(long now) {
+			establishedAt = now;
+		}
+
+		void disconnected(long now) {
+			if (establishedAt >= 0) {
+				connectedMillis += now - establishedAt;
+				establishedAt = -1;
+			}
+		}
+
+		long getConnectedMillis(long now) {
+			return connectedMillis
+					+ (establishedAt >= 0 ? now - establishedAt : 0);
+		}
+
+		void line(InData line, long now) {
+			lines.add(now);
+			int index = OTHER;
+			if (line.length() >= 2) {
+				final int a = line.charAt(0) - 'A';
+				final int b = line.charAt(1) - 'A';
+				if (a >= 0 && a < 26 && b >= 0 && b < 26) {
+					index = a * 26 + b;
+				}
+			}
+			prefixLines[index]++;
+		}
+
+		void print(PrintWriter out, long now) {
+			final long connected = getConnectedMillis(now);
+			out.println("connect    : " + connect);
+			out.println("state      : " + firstState);
+			out.println("requeries  : " + requeries + " in "
+					+ firstState.getCount() + " state checks");
+			final StringBuilder c = new StringBuilder();
+			for (Cause cause : Cause.values()) {
+				if (causes[cause.ordinal()] > 0) {
+					c.append(" ").append(cause).append(":")
+							.append(causes[cause.ordinal()]);
+				}
+			}
+			out.println("reconnects : " + reconnects + c);
+			out.println("connected  : " + connected / 1000 + "s");
+			out.println("queue      : maxDepth:" + maxQueueDepth + " wait "
+					+ queueWait);
+			out.println("commands   : " + commands.format(connected));
+			out.println("lines      : " + lines.format(connected));
+			out.println("by prefix  : " + topPrefixes(TOP_PREFIXES));
+		}
+
+		/** Die häufigsten Präfixe, nur für die Ausgabe. */
+		private String topPrefixes(int max) {
+			final boolean[] taken = new boolean[prefixLines.length];
+			final StringBuilder ret = new StringBuilder();
+			for (int n = 0; n < max; n++) {
+				int best = -1;
+				for (int i = 0; i < prefixLines.length; i++) {
+					if (!taken[i] && prefixLines[i] > 0
+							&& (best < 0 || prefixLines[i] > prefixLines[best])) {
+						best = i;
+					}
+				}
+				if (best < 0) {
+					break;
+				}
+				taken[best] = true;
+				ret.append(best == OTHER ? "?" : "" + (char) ('A' + best / 26)
+						+ (char) ('A' + best % 26));
+				ret.append(":").append(prefixLines[best]).append(" ");
+			}
+			return ret.toString().trim();
+		}
+
+		boolean isUsed() {
+			return connect.getCount() > 0 || reconnects > 0;
+		}
+
+		final Histogram connect = new Histogram(CONNECT_BOUNDS);
+		final Histogram firstState = new Histogram(STATE_BOUNDS);
+		final Histogram queueWait = new Histogram(WAIT_BOUNDS);
+		final int[] causes = new int[Cause.values().length];
+		final Rate commands = new Rate();
+		final Rate lines = new Rate();
+		final int[] prefixLines = new int[OTHER + 1];
+		int reconnects;
+		int requeries;
+		int maxQueueDepth;
+		private long establishedAt = -1;
+		private long connectedMillis;
+	}
+
+	ConnectionMetrics(int slots) {
+		this.slots = new Slot[slots];
+		for (int i = 0; i < slots; i++) {
+			this.slots[i] = new Slot();
+		}
+		current = this.slots[0];
+	}
+
+	public static ConnectionMetrics get() {
+		return INSTANCE;
+	}
+
+	/** Ab jetzt zählt alles für diesen Receiver-Slot. */
+	public void select(int receiverNr) {
+		if (receiverNr >= 0 && receiverNr < slots.length) {
+			current = slots[receiverNr];
+		}
+	}
+
+	/** Vom Versuch bis zur ersten Antwort des Receivers. */
+	public void connected(long attemptMillis, long now) {
+		current.connect.add(attemptMillis);
+		current.connected(now);
+	}
+
+	/** Verbindung zu oder Versuch gescheitert. */
+	public void reconnect(Cause cause, long now) {
+		final Slot s = current;
+		s.reconnects++;
+		s.causes[cause.ordinal()]++;
+		s.disconnected(now);
+	}
+
+	/** Verbindung bewusst beendet, ohne neuen Versuch (App im Hintergrund). */
+	public void disconnected(long now) {
+		current.disconnected(now);
+	}
+
+	/** Vom Statuswechsel bis alle Abfragen aus initState() beantwortet sind. */
+	public void stateComplete(long millis, int requeries) {
+		current.firstState.add(millis);
+		current.requeries += requeries;
+	}
+
+	public void queued(int depth) {
+		final Slot s = current;
+		if (depth > s.maxQueueDepth) {
+			s.maxQueueDepth = depth;
+		}
+	}
+
+	public void queueWait(long waited) {
+		current.queueWait.add(waited);
+	}
+
+	public void commandSent(long now) {
+		current.commands.add(now);
+	}
+
+	public void lineReceived(InData line, long now) {
+		current.line(line, now);
+	}
+
+	Slot getSlot(int receiverNr) {
+		return slots[receiverNr];
+	}
+
+	/** Alle benutzten Slots als Text, für Diagnose und Feedback. */
+	public String dump() {
+		final long now = System.currentTimeMillis();
+		final StringWriter result = new StringWriter();
+		final PrintWriter out = new PrintWriter(result);
+		out.println("Connection metrics since " + (now - createdAt) / 1000
+				+ "s");
+		for (int i = 0; i < slots.length; i++) {
+			if (!slots[i].isUsed()) {
+				continue;
+			}
+			out.println("-- receiver " + i
+					+ (slots[i] == current ? " (current)" : ""));
+			slots[i].print(out, now);
+		}
+		out.println("threads    : " + BackgroundTasks.getStats());
+		out.close();
+		return result.toString();
+	}
+
+	private final Slot[] slots;
+	// gewechselt vom Reconnect-Thread, gelesen von allen
+	private volatile Slot current;
+	private final long createdAt = System.currentTimeMillis();
+
+	// 26 * 26 Buchstabenpaare, dahinter alles andere
+	private static final int OTHER = 26 * 26;
+	private static final int TOP_PREFIXES = 12;
+	static final long[] CONNECT_BOUNDS = { 50, 100, 250, 500, 1000, 2500,
+			5000 };
+	static final long[] STATE_BOUNDS = { 250, 500, 1000, 2000, 5000, 10000 };
+	static final long[] WAIT_BOUNDS = { 0, 10, 50, 100, 250, 1000 };
+	private static final ConnectionMetrics INSTANCE = new ConnectionMetrics(
+			AVRSettings.MAX_RECEIVERS);
+}
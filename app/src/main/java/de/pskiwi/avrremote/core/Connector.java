@@ -21,82 +21,59 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.Socket;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import de.pskiwi.avrremote.core.ConnectionMetrics.Cause;
 import de.pskiwi.avrremote.log.Logger;
 
 public final class Connector implements ISender, IConnector {
 
-	private final class Receiver implements Runnable {
+	private final class Receiver implements Runnable, IEventListener {
 
-		private boolean detectCR(final char[] data, final int count,
-				final int ch) {
-			// Bei NS[A|E][1-9] das nächste Zeichen ignorieren
-			// Bei IP[A|E][1-9] das nächste Zeichen ignorieren
-			if (count != 4) {
-				return ch == CR;
+		public void received(InData val) {
+			final long now = System.currentTimeMillis();
+			if (readyAt == 0) {
+				readyAt = now;
+				Logger.info("Connector: ready after " + (now - connectedAt)
+						+ "ms");
+				ready.countDown();
 			}
-			if ((data[0] == 'N' && data[1] == 'S')
-					|| (data[0] == 'I' && data[1] == 'P')) {
-				final int nr = data[3] - '0';
-				if (nr == 0) {
-					return ch == CR;
-				}
-				// Steuerzeichen
-				return false;
-
-			}
-			return ch == CR;
-
-		}
-
-		public InData read() throws IOException {
-			final char[] line = new char[MAX_LINE];
-			int ch = in.read();
-			int count;
-			do {
-				count = 0;
-				while (ch != -1 && !detectCR(line, count, ch)
-						&& count < MAX_LINE) {
-					line[count++] = (char) ch;
-					ch = in.read();
-				}
-				if (count == MAX_LINE) {
-					// read garbage
-					// avr braucht restart ???
-					while (ch != -1 && ch != CR) {
-						ch = in.read();
-					}
-					Logger.error("max input size exeeded ! ["
-							+ new String(line, 0, count) + "]", null);
-				}
-			} while (count == MAX_LINE && ch != -1);
-
-			if (ch == -1) {
-				Logger.info("Receiver stream closed bytes:" + count);
-				return null;
+			pacer.received(val, now);
+			liveness.received(now);
+			ConnectionMetrics.get().lineReceived(val, now);
+			Logger.debug("RECEIVED [" + val.toDebugString() + "] "
+					+ (listener != null ? "" : "unregistered"));
+			if (listener != null && !val.isEmpty()) {
+				listener.received(val);
 			}
-
-			return new InData(line, count);
 		}
 
 		public void run() {
+			final LineFramer framer = new LineFramer(this);
+			// Blockweise lesen: ein read() pro Zeichen ging jedes Mal an den
+			// Socket, und bei vollen NET-Seiten kam der Thread nicht hinterher.
+			final byte[] chunk = new byte[READ_CHUNK];
 			while (!Thread.currentThread().isInterrupted()
 					&& !socket.isClosed()) {
 				try {
-					final InData val = read();
-					if (val == null) {
+					final int read = in.read(chunk);
+					if (read == -1) {
+						Logger.info("Receiver stream closed bytes:"
+								+ framer.getPending());
+						setCloseCause(Cause.CLOSED);
 						socket.close();
+						ready.countDown();
 						closeSignal.countDown();
-						Logger.info("receiver socket closed -> return");
+						Logger.info("receiver socket closed -> return "
+								+ liveness);
 						return;
 					}
-					Logger.debug("RECEIVED [" + val.toDebugString() + "] "
-							+ (listener != null ? "" : "unregistered"));
-					if (listener != null && val != null && !val.isEmpty()) {
-						listener.received(val);
-					}
+					framer.feed(chunk, 0, read);
+				} catch (SocketTimeoutException e) {
+					checkLiveness();
 				} catch (IOException e) {
 					Logger.error(
 							"read failed thread:"
@@ -106,24 +83,58 @@ public final class Connector implements ISender, IConnector {
 				}
 			}
 			if (socket.isClosed()) {
+				Logger.info("receiver closed " + liveness);
+				ready.countDown();
 				closeSignal.countDown();
 			}
 		}
 
-		private static final int MAX_LINE = 256;
+		/** Kein Byte seit getCheckInterval(): nachfragen oder aufgeben. */
+		private void checkLiveness() {
+			switch (liveness.check(System.currentTimeMillis())) {
+			case PROBE:
+				sendQueue.addProbe(LIVENESS_PROBE);
+				break;
+			case DEAD:
+				// Der Reconnector wartet in waitUntilClosed() und baut
+				// danach neu auf
+				setCloseCause(Cause.LIVENESS);
+				close();
+				break;
+			default:
+				break;
+			}
+		}
+
+		private static final int READ_CHUNK = 8192;
 	}
 
 	private final class Sender implements Runnable {
 
 		public void run() {
+			try {
+				if (!awaitReady(READY_TIMEOUT)) {
+					Logger.info("Connector: no answer to " + READY_PROBE
+							+ " after " + READY_TIMEOUT + "ms, send anyway");
+				}
+			} catch (InterruptedException x) {
+				Logger.info("sender interrupted return");
+				return;
+			}
 			while (!Thread.currentThread().isInterrupted()
 					&& !socket.isClosed()) {
 				try {
 					final String take = sendQueue.take();
 					out.write(take + CR);
 					out.flush();
+					final long now = System.currentTimeMillis();
+					pacer.sent(take, now);
+					ConnectionMetrics.get().commandSent(now);
 					Logger.info("SEND [" + take + "] ");
-					Thread.sleep(sendDelay);
+					if (sendQueue.isEmpty()) {
+						Logger.debug("SendQueue idle " + sendQueue.drainStats());
+					}
+					Thread.sleep(pacer.getDelay());
 
 				} catch (InterruptedException x) {
 					Logger.info("sender interrupted return");
@@ -143,27 +154,41 @@ public final class Connector implements ISender, IConnector {
 	}
 
 	public Connector(ConnectionConfiguration connectionConfiguration,
-			int sendDelay, IEventListener eventListener) throws Exception {
+			SendPacer pacer, LivenessMonitor liveness,
+			IEventListener eventListener) throws Exception {
 		this.connectionConfiguration = connectionConfiguration;
-		this.sendDelay = sendDelay;
+		this.pacer = pacer;
+		this.liveness = liveness;
 		listener = eventListener;
 		socket = new Socket();
 		socket.setTcpNoDelay(true);
+		// Kostet nichts, greift aber erst nach den Kernel-Vorgaben (Stunden).
+		// Die eigentliche Erkennung macht LivenessMonitor.
+		socket.setKeepAlive(true);
+		final long start = System.currentTimeMillis();
 		socket.connect(connectionConfiguration.getSocketAddress(),
 				AVR_CONNECT_TIMEOUT);
+		connectedAt = System.currentTimeMillis();
+		Logger.info("Connector: connected after " + (connectedAt - start)
+				+ "ms");
 
 		boolean ok = false;
 		try {
+			// read() kehrt so regelmäßig zurück, auch wenn nichts kommt
+			socket.setSoTimeout(liveness.getCheckInterval());
+			liveness.start(connectedAt);
 			in = socket.getInputStream();
 			out = new OutputStreamWriter(socket.getOutputStream());
-			Thread.sleep(1000);
-			readThread = new Thread(new Receiver(), "receiver");
-			readThread.setDaemon(true);
-			readThread.start();
+			// Früher eine feste Sekunde Pause vor allem anderen. Jetzt geht
+			// sofort eine Abfrage raus, und der Sender hält die Schlange
+			// zurück, bis die erste Zeile da ist (awaitReady) - höchstens so
+			// lange wie die alte Pause.
+			out.write(READY_PROBE + CR);
+			out.flush();
+			pacer.sent(READY_PROBE, System.currentTimeMillis());
+			receiverTask = BackgroundTasks.loop("receiver", new Receiver());
 			sender = new Sender();
-			sendThread = new Thread(sender, "sender");
-			sendThread.setDaemon(true);
-			sendThread.start();
+			senderTask = BackgroundTasks.loop("sender", sender);
 			ok = true;
 		} finally {
 			if (!ok) {
@@ -183,14 +208,16 @@ public final class Connector implements ISender, IConnector {
 	 */
 	public void send(String command) {
 		connectorListener.sendData(command);
-		doSend(command);
+		doSend(null, command);
 	}
 
-	private void doSend(String cmd) {
-		// sonst falls voll "IllegalStateException"
-		if (sendQueue.size() < MAX_QUEUE_SIZE) {
-			sendQueue.add(cmd);
-		} else {
+	public void sendLatest(String key, String command) {
+		connectorListener.sendData(command);
+		doSend(key, command);
+	}
+
+	private void doSend(String key, String cmd) {
+		if (!sendQueue.add(key, cmd)) {
 			// hier stimmt was nicht ...
 			Logger.error("Queue overflow. clear", null);
 			sendQueue.clear();
@@ -211,19 +238,53 @@ public final class Connector implements ISender, IConnector {
 		if (!prefix.equals("NSE")) {
 			prefix += "?";
 		}
-		doSend(prefix);
+		// Die Abfrage ist ihr eigener Schlüssel: zweimal dieselbe bringt nichts
+		doSend(prefix, prefix);
 	}
 
 	public void sendCommand(Zone zone, IAVRState s, String cmd) {
 		final String command = zone.getCommandPrefix(s) + cmd;
-		send(command);
+		if (isRelative(cmd)) {
+			send(command);
+		} else {
+			// Zone mit in den Schlüssel: Z2 kodierte Befehle teilen sich sonst
+			// das Präfix "Z2" (Z2ON, Z2DVD)
+			sendLatest(zone + "/" + s.getCommandPrefix(), command);
+		}
+	}
+
+	/** Schritte zählen einzeln und dürfen nicht zusammengefasst werden. */
+	private static boolean isRelative(String cmd) {
+		return "UP".equals(cmd) || "DOWN".equals(cmd);
+	}
+
+	/**
+	 * Wartet auf die erste Zeile vom Receiver.
+	 * 
+	 * @return false nach Ablauf von timeout
+	 */
+	public boolean awaitReady(long timeout) throws InterruptedException {
+		return ready.await(timeout, TimeUnit.MILLISECONDS);
 	}
 
 	public void waitUntilClosed() throws InterruptedException {
 		closeSignal.await();
 	}
 
+	/** Der erste Grund gilt, ein späteres close() ändert ihn nicht mehr. */
+	private synchronized void setCloseCause(Cause cause) {
+		if (closeCause == null) {
+			closeCause = cause;
+		}
+	}
+
+	/** Warum die Verbindung zu ist; ohne eigenen Grund hat der Receiver geschlossen. */
+	public synchronized Cause getCloseCause() {
+		return closeCause == null ? Cause.CLOSED : closeCause;
+	}
+
 	public void close() {
+		setCloseCause(Cause.LOCAL);
 		Logger.info("close socket ...");
 		try {
 			try (socket) {
@@ -235,8 +296,11 @@ public final class Connector implements ISender, IConnector {
 		} catch (IOException e) {
 			Logger.debug("close socket failed " + e);
 		}
-		readThread.interrupt();
-		sendThread.interrupt();
+		receiverTask.cancel(true);
+		senderTask.cancel(true);
+		// Ein abgebrochener Task, der noch nicht lief, meldet das Ende nie
+		ready.countDown();
+		closeSignal.countDown();
 	}
 
 	public boolean isConnected() {
@@ -268,13 +332,23 @@ public final class Connector implements ISender, IConnector {
 	private final static char CR = '\r';
 	private final Socket socket;
 	private final Sender sender;
-	private final Thread readThread;
-	private final Thread sendThread;
+	private final Future<?> receiverTask;
+	private final Future<?> senderTask;
 	private final ConnectionConfiguration connectionConfiguration;
-	private final int sendDelay;
-	private final ArrayBlockingQueue<String> sendQueue = new ArrayBlockingQueue<String>(
-			MAX_QUEUE_SIZE);
+	private final SendPacer pacer;
+	// nur vom Receiver-Thread
+	private final LivenessMonitor liveness;
+	private final SendQueue sendQueue = new SendQueue(MAX_QUEUE_SIZE);
 	private final CountDownLatch closeSignal = new CountDownLatch(1);
+	private final CountDownLatch ready = new CountDownLatch(1);
+	private Cause closeCause;
+	private final long connectedAt;
+	// nur vom Receiver-Thread
+	private long readyAt;
+	// jede Antwort zählt, PW? beantwortet jedes Modell
+	private static final String READY_PROBE = "PW?";
+	private static final String LIVENESS_PROBE = "PW?";
+	static final int READY_TIMEOUT = 1000;
 	private static final int AVR_CONNECT_TIMEOUT = 2500;
 	private final static int MAX_QUEUE_SIZE = 100;
 }
@@ -20,6 +20,8 @@ public interface IConnector {
 
 	void send(String command);
 
+	void sendLatest(String key, String command);
+
 	void query(Zone zone, IAVRState s);
 
 	void sendCommand(Zone zone, IAVRState s, String cmd);
@@ -49,6 +51,9 @@ public interface IConnector {
 		public void send(String command) {
 		}
 
+		public void sendLatest(String key, String command) {
+		}
+
 		public void query(Zone zone, IAVRState s) {
 		}
 
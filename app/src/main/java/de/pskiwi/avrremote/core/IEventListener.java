@@ -18,5 +18,6 @@ package de.pskiwi.avrremote.core;
 
 public interface IEventListener
 {
+	/** s ist nur während des Aufrufs gültig, der Connector füllt sie neu. */
 	void received(InData s);
 }
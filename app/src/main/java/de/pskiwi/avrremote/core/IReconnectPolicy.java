@@ -0,0 +1,35 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+/**
+ * Wie lange der Reconnector nach einem Fehlschlag oder einer geschlossenen
+ * Verbindung wartet. Zeitpunkte kommen von außen, wie bei SendPacer.
+ * Synchronisation ist Sache der Implementierung: gefragt wird aus dem
+ * Reconnect-Thread, zurückgesetzt vom UI-Thread.
+ */
+interface IReconnectPolicy {
+
+	/** Wartezeit in ms vor dem nächsten Versuch, zählt den Versuch mit. */
+	long nextDelay(long now);
+
+	/** Verbindung steht. */
+	void connected(long now);
+
+	/** Netz zurück oder neuer Reconnector: von vorn anfangen. */
+	void reset();
+}
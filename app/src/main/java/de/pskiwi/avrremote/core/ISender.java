@@ -19,6 +19,13 @@ package de.pskiwi.avrremote.core;
 public interface ISender {
 	void send(String command);
 
+	/**
+	 * Wie send(), aber für absolute Werte: ein noch nicht gesendeter Befehl
+	 * mit demselben key wird ersetzt (z.B. key "CVFL" beim Ziehen eines
+	 * Reglers).
+	 */
+	void sendLatest(String key, String command);
+
 	void sendCommand(Zone zone, IAVRState s, String cmd);
 
 	void query(Zone zone, IAVRState s);
@@ -33,6 +40,9 @@ public interface ISender {
 		public void send(String command) {
 		}
 
+		public void sendLatest(String key, String command) {
+		}
+
 		public void query(Zone zone, IAVRState s) {
 		}
 
@@ -19,7 +19,14 @@ package de.pskiwi.avrremote.core;
 import de.pskiwi.avrremote.EmulationDetector;
 import de.pskiwi.avrremote.log.Logger;
 
-/** Eine gelesene Daten-Zeile */
+/**
+ * Eine gelesene Daten-Zeile.
+ * 
+ * Der Connector legt pro Verbindung nur eine Instanz an und füllt deren Puffer
+ * für jede Zeile neu (siehe {@link #reset(int)}). Eine InData gilt deshalb nur
+ * für die Dauer von {@link IEventListener#received(InData)} - wer mehr
+ * braucht, holt sich einen String.
+ */
 public final class InData {
 
 	public InData(char[] data, int count) {
@@ -32,27 +39,63 @@ public final class InData {
 		count = cmd.length();
 	}
 
-	private static boolean isNumber(String s) {
-		final int length = s.length();
-		if (length == 0) {
+	/** Neue Zeile im selben Puffer: Länge setzen, Versatz zurück auf 0. */
+	void reset(int newCount) {
+		this.count = newCount;
+		this.offset = 0;
+	}
+
+	@Override
+	public String toString() {
+		return new String(data, offset, count - offset);
+	}
+
+	/** Die ersten max Zeichen ab dem Versatz, für die Präfix-Suche. */
+	public String prefix(int max) {
+		return new String(data, offset, Math.min(max, count - offset));
+	}
+
+	/** Länge ab dem Versatz, also die von {@link #toString()}. */
+	public int valueLength() {
+		return count - offset;
+	}
+
+	/** Wie toString().equals(s), aber ohne den String zu bauen. */
+	public boolean contentEquals(String s) {
+		if (s.length() != count - offset) {
 			return false;
 		}
-		for (int i = 0; i < length; i++) {
-			char ch = s.charAt(i);
-			if (!Character.isDigit(ch)) {
+		for (int i = offset; i < count; i++) {
+			if (data[i] != s.charAt(i - offset)) {
 				return false;
 			}
 		}
 		return true;
 	}
 
-	@Override
-	public String toString() {
-		return new String(data, offset, count - offset);
+	/** Wie toString().startsWith(s), ohne den String zu bauen. */
+	public boolean startsWith(String s) {
+		if (s.length() > count - offset) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (data[offset + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public boolean isNumber() {
-		return isNumber(toString());
+		if (count - offset == 0) {
+			return false;
+		}
+		for (int i = offset; i < count; i++) {
+			if (!Character.isDigit(data[i])) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public boolean isEmpty() {
@@ -60,6 +103,30 @@ public final class InData {
 	}
 
 	public int asNumber() {
+		// Schneller Weg für den Normalfall "nur Ziffern" (MV, CV, TF...),
+		// Sonderfälle und Fehler laufen wie bisher über den String.
+		int start = offset;
+		int end = count;
+		while (start < end && data[start] <= ' ') {
+			start++;
+		}
+		while (end > start && data[end - 1] <= ' ') {
+			end--;
+		}
+		if (end > start && end - start <= MAX_FAST_DIGITS) {
+			int ret = 0;
+			int i = start;
+			for (; i < end; i++) {
+				final char ch = data[i];
+				if (ch < '0' || ch > '9') {
+					break;
+				}
+				ret = ret * 10 + (ch - '0');
+			}
+			if (i == end) {
+				return ret;
+			}
+		}
 		try {
 			String s = toString().trim();
 			if ("OFF".equals(s)) {
@@ -80,6 +147,10 @@ public final class InData {
 		return count;
 	}
 
+	public int getOffset() {
+		return offset;
+	}
+
 	public void setOffset(int start) {
 		this.offset = start;
 	}
@@ -87,9 +158,11 @@ public final class InData {
 	public String extractLine(int toAdd) {
 		try {
 			final int start = offset + toAdd;
-			final byte[] raw = new byte[data.length - start];
+			// Bis count, nicht bis data.length: hinter count steht im
+			// wiederverwendeten Puffer des Connectors noch die vorige Zeile.
+			final byte[] raw = new byte[Math.max(0, this.count - start)];
 			int count = 0;
-			for (int i = start; i < data.length; i++) {
+			for (int i = start; i < this.count; i++) {
 				// Der Receiver schickt Bytes, die hier je in einem char
 				// stehen. Die Verengung auf byte nimmt die unteren acht Bit -
 				// genau das, was ein früheres "data[i] > 127 ? data[i] - 256"
@@ -156,7 +229,9 @@ public final class InData {
 
 	private int offset;
 	private final char[] data;
-	private final int count;
+	private int count;
 	private final static int MAX_DEBUG = 15;
+	// 9 Stellen passen sicher in ein int
+	private final static int MAX_FAST_DIGITS = 9;
 
 }
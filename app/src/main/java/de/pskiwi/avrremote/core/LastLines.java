@@ -0,0 +1,59 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pro Zeilenart die letzte live empfangene Zeile, für den Snapshot. Die
+ * Reihenfolge ist die des Empfangs: eine neue Zeile wandert ans Ende, damit
+ * beim Wiederherstellen die jüngste zuletzt angewendet wird.
+ */
+final class LastLines {
+
+	/**
+	 * @param prefix
+	 *            Empfangspräfix des Zustands, z.B. "MS" oder "CV"
+	 * @param value
+	 *            Rest der Zeile
+	 * @param subCommand
+	 *            das Wort bis zum ersten Leerzeichen gehört zur Zeilenart
+	 *            ("CVFL 50", "MVMAX 98"). Sonst ist die ganze Zeile Wert, auch
+	 *            mit Leerzeichen ("MSDOLBY DIGITAL").
+	 */
+	synchronized void put(String prefix, String value, boolean subCommand) {
+		final int space = subCommand ? value.indexOf(' ') : -1;
+		final String key = space > 0 ? prefix + value.substring(0, space)
+				: prefix;
+		lines.remove(key);
+		lines.put(key, prefix + value);
+	}
+
+	synchronized List<String> get() {
+		return new ArrayList<String>(lines.values());
+	}
+
+	synchronized void clear() {
+		lines.clear();
+	}
+
+	// Zeilenart -> letzte Zeile
+	private final Map<String, String> lines = new LinkedHashMap<String, String>();
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Zerlegt den Telnet-Strom in Zeilen. Nimmt Blöcke beliebiger Größe, so wie
+ * sie vom Socket kommen, und meldet jede vollständige Zeile an den Listener.
+ * Eine angefangene Zeile wartet auf den nächsten Block.
+ *
+ * Ein Puffer und eine {@link InData} pro Verbindung, die für jede Zeile neu
+ * gefüllt werden: bei einem laufenden NET-Bildschirm kommen neun NSE-Zeilen
+ * pro Seite, mehrmals pro Sekunde.
+ *
+ * Ohne Socket und ohne Thread, damit LineFramerTest und ReceivePathBenchmark
+ * ihn auf einer nackten JVM füttern können.
+ */
+final class LineFramer {
+
+	LineFramer(IEventListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Bei NS[A|E][1-9] und IP[A|E][1-9] ist das nächste Zeichen ein
+	 * Steuerzeichen (Cursor, Playable...) und kann auch ein CR sein. Nur
+	 * Zeile 0 hat keines.
+	 */
+	private boolean isControlCharPosition() {
+		if (count != 4) {
+			return false;
+		}
+		if ((line[0] == 'N' && line[1] == 'S')
+				|| (line[0] == 'I' && line[1] == 'P')) {
+			return line[3] - '0' != 0;
+		}
+		return false;
+	}
+
+	public void feed(byte[] chunk, int off, int len) {
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			// Der Receiver schickt Bytes, je eines pro char (siehe
+			// InData.extractLine)
+			final char ch = (char) (chunk[i] & 0xFF);
+			if (overflow) {
+				// read garbage
+				// avr braucht restart ???
+				if (ch == CR) {
+					overflow = false;
+				}
+			} else if (count == MAX_LINE) {
+				// Zeile verwerfen, auch wenn genau hier das CR kommt
+				overflow = ch != CR;
+				Logger.error("max input size exeeded ! ["
+						+ new String(line, 0, count) + "]", null);
+				count = 0;
+			} else if (ch == CR && !isControlCharPosition()) {
+				current.reset(count);
+				count = 0;
+				listener.received(current);
+			} else {
+				line[count++] = ch;
+			}
+		}
+	}
+
+	/** Zeichen der angefangenen, noch nicht abgeschlossenen Zeile */
+	public int getPending() {
+		return count;
+	}
+
+	private final IEventListener listener;
+	private final char[] line = new char[MAX_LINE];
+	private final InData current = new InData(line, 0);
+	private int count;
+	private boolean overflow;
+
+	private final static char CR = '\r';
+	private static final int MAX_LINE = 256;
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Erkennt eine halb offene Verbindung.
+ *
+ * Nach einem Stromausfall am Receiver oder einem Wechsel des Access Points
+ * kommt weder -1 noch eine Exception: der Socket bleibt minutenlang offen, und
+ * der Receiver-Thread wartet auf Zeilen, die nie kommen. SO_KEEPALIVE hilft
+ * dabei kaum, Android schickt die erste Probe erst nach zwei Stunden. Deshalb
+ * fragt der Connector nach idleTime ohne eine Zeile selbst nach (PW?,
+ * beantwortet jedes Modell, auch im Standby).
+ *
+ * Bleibt die Antwort deadline lang aus, geht ein zweites PW? raus, mit
+ * derselben Frist. Erst wenn auch das ausbleibt, gilt die Verbindung als tot.
+ * Kommt die Antwort in der zweiten Frist, wäre die erste Frist ein Fehlalarm
+ * gewesen - das wird gezählt und mit der Antwortzeit geloggt, damit sich die
+ * Werte pro Modell (IAVRModel.getLivenessDeadline()) einstellen lassen.
+ *
+ * Jede Zeile zählt als Lebenszeichen, nicht nur die Antwort auf PW?.
+ * Zeitpunkte kommen von außen, wie bei SendPacer. Nur vom Receiver-Thread.
+ */
+final class LivenessMonitor {
+
+	enum Action {
+		NONE, PROBE, DEAD
+	}
+
+	LivenessMonitor(long idleTime, long deadline) {
+		this.idleTime = idleTime;
+		this.deadline = deadline;
+	}
+
+	public void start(long now) {
+		lastReceived = now;
+	}
+
+	public void received(long now) {
+		if (probeAt >= 0) {
+			final long latency = now - probeAt;
+			maxLatency = Math.max(maxLatency, latency);
+			if (suspect) {
+				falseAlarms++;
+				Logger.info("Liveness: late answer after " + latency
+						+ "ms, deadline " + deadline + "ms, false alarm #"
+						+ falseAlarms);
+			}
+			probeAt = -1;
+			suspect = false;
+		}
+		lastReceived = now;
+	}
+
+	/** Regelmäßig aufgerufen, auch ohne eingehende Zeilen. */
+	public Action check(long now) {
+		if (probeAt < 0) {
+			if (now - lastReceived < idleTime) {
+				return Action.NONE;
+			}
+			probeAt = now;
+			probes++;
+			return Action.PROBE;
+		}
+		if (!suspect) {
+			if (now - probeAt < deadline) {
+				return Action.NONE;
+			}
+			suspect = true;
+			probes++;
+			Logger.info("Liveness: no answer after " + (now - probeAt)
+					+ "ms, second probe");
+			return Action.PROBE;
+		}
+		if (now - probeAt < 2 * deadline) {
+			return Action.NONE;
+		}
+		Logger.info("Liveness: dead, last line " + (now - lastReceived)
+				+ "ms ago, probe unanswered " + (now - probeAt) + "ms");
+		return Action.DEAD;
+	}
+
+	/** Idle-Zeit, Frist und Zählerstände für das Log beim Schließen. */
+	@Override
+	public String toString() {
+		return "idle:" + idleTime + "ms deadline:" + deadline + "ms probes:"
+				+ probes + " falseAlarms:" + falseAlarms + " maxLatency:"
+				+ maxLatency + "ms";
+	}
+
+	public int getFalseAlarms() {
+		return falseAlarms;
+	}
+
+	public int getProbes() {
+		return probes;
+	}
+
+	/** Abstand, in dem check() aufgerufen werden muss. */
+	public int getCheckInterval() {
+		return (int) Math.max(1, Math.min(MAX_CHECK_INTERVAL, deadline / 2));
+	}
+
+	private final long idleTime;
+	private final long deadline;
+	private long lastReceived;
+	private long probeAt = -1;
+	private boolean suspect;
+	private int probes;
+	private int falseAlarms;
+	private long maxLatency;
+
+	private static final long MAX_CHECK_INTERVAL = 1000;
+}
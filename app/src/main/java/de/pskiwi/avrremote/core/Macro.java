@@ -91,7 +91,7 @@ public final class Macro {
 	}
 
 	public void run(final ResilentConnector connector) {
-		final Thread thread = new Thread("Macro-Runner-" + name) {
+		BackgroundTasks.blocking("Macro-Runner-" + name, new Runnable() {
 			public void run() {
 				try {
 					Logger.info("run macro [" + name + "]");
@@ -103,8 +103,7 @@ public final class Macro {
 					Logger.error("run macro " + name + " failed", x);
 				}
 			};
-		};
-		thread.start();
+		});
 	}
 
 	@Override
@@ -79,7 +79,7 @@ public final class MacroManager {
 			}
 
 		};
-		asyncTask.execute();
+		asyncTask.executeOnExecutor(BackgroundTasks.executor("MacroSave"));
 	}
 
 	private void doSave() {
@@ -16,32 +16,98 @@
  */
 package de.pskiwi.avrremote.core;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
+/**
+ * Findet zu einer empfangenen Zeile den Zustand mit dem längsten passenden
+ * Präfix (getCommandPrefix(), mindestens zwei Zeichen).
+ *
+ * Früher ein HashMap-Lookup für jede Länge von maxPrefix bis 2, mit je einem
+ * substring() - bis zu zehn Strings pro Zeile und Zone. Jetzt ein Zeichen-Baum,
+ * einmal im Konstruktor gebaut; find() läuft die Zeichen der InData ab, ohne
+ * etwas anzulegen. Die Regeln bleiben: der längste Treffer gewinnt, gleiche
+ * Präfixe verhindert ClassMap.checkDuplicatePrefix(), und bei zwei Zuständen
+ * mit demselben Präfix gewinnt wie bei HashMap.put() der spätere.
+ */
 public final class PrefixResolver {
 
+	/** Knoten im Baum; die Kinder linear, mehr als eine Handvoll gibt es nie. */
+	private static final class Node {
+
+		Node child(char ch) {
+			for (int i = 0; i < size; i++) {
+				if (keys[i] == ch) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node addChild(char ch) {
+			Node n = child(ch);
+			if (n != null) {
+				return n;
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				children = Arrays.copyOf(children, size * 2);
+			}
+			n = new Node();
+			keys[size] = ch;
+			children[size] = n;
+			size++;
+			return n;
+		}
+
+		private char[] keys = new char[2];
+		private Node[] children = new Node[2];
+		private int size;
+		private IAVRState state;
+	}
+
 	public PrefixResolver(Collection<IAVRState> allStates) {
 		for (IAVRState s : allStates) {
 			final String commandPrefix = s.getCommandPrefix();
+			if (commandPrefix.length() < MIN_PREFIX) {
+				// wurde auch bisher nie gefunden
+				continue;
+			}
 			maxPrefix = Math.max(maxPrefix, commandPrefix.length());
-			prefixMap.put(commandPrefix, s);
+			Node n = root;
+			for (int i = 0; i < commandPrefix.length(); i++) {
+				n = n.addChild(commandPrefix.charAt(i));
+			}
+			n.state = s;
 		}
 	}
 
-	public IAVRState find(String s) {
-		int max = Math.min(maxPrefix, s.length());
-		for (int i = max; i >= 2; i--) {
-			String p = s.substring(0, i);
-			IAVRState cl = prefixMap.get(p);
-			if (cl != null) {
-				return cl;
+	public IAVRState find(InData data) {
+		return find("", data);
+	}
+
+	/**
+	 * Sucht, als stünde head vor der Zeile. AVRState leitet so "Z250" als
+	 * "MV" + "50" weiter, ohne die Zeile neu zu bauen.
+	 */
+	public IAVRState find(String head, InData data) {
+		final int max = Math.min(maxPrefix, head.length() + data.valueLength());
+		IAVRState ret = null;
+		Node n = root;
+		for (int i = 0; i < max; i++) {
+			n = n.child(i < head.length() ? head.charAt(i) : data.charAt(i
+					- head.length()));
+			if (n == null) {
+				break;
+			}
+			if (n.state != null) {
+				ret = n.state;
 			}
 		}
-		return null;
+		return ret;
 	}
 
 	private int maxPrefix = 0;
-	private final Map<String, IAVRState> prefixMap = new HashMap<String, IAVRState>();
+	private final Node root = new Node();
+	private static final int MIN_PREFIX = 2;
 }
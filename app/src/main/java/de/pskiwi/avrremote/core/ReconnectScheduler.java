@@ -0,0 +1,92 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Das Warten zwischen zwei Verbindungsversuchen, abgebrochen durch
+ * Netz-Ereignisse.
+ *
+ * Das frühere Thread.sleep() ließ sich nur durch interrupt() beenden, also
+ * durch einen ganz neuen Reconnector. Kam das WLAN zurück, ohne dass sich
+ * für AVRApplication am Zustand "verbunden" etwas änderte (Wechsel des
+ * Default-Netzes, Roaming), saß der Thread die Stufe bis zu 16s aus.
+ * {@link #linkChanged()} setzt die Policy zurück und weckt den Wartenden.
+ *
+ * Der Reconnector merkt sich vor jedem Versuch {@link #getLinkEvents()}. Kam
+ * während des Versuchs ein Ereignis, wird danach gar nicht gewartet - der
+ * Versuch lief womöglich noch über das alte Netz.
+ *
+ * Paketprivat, damit ReconnectSchedulerTest ohne Socket drankommt.
+ */
+final class ReconnectScheduler {
+
+	ReconnectScheduler(IReconnectPolicy policy) {
+		this.policy = policy;
+	}
+
+	public synchronized int getLinkEvents() {
+		return linkEvents;
+	}
+
+	public synchronized void linkChanged() {
+		linkEvents++;
+		policy.reset();
+		notifyAll();
+	}
+
+	/** Neuer Reconnector, ohne ein Ereignis zu zählen. */
+	public void reset() {
+		policy.reset();
+	}
+
+	public void connected(long now) {
+		policy.connected(now);
+	}
+
+	/**
+	 * Wartet die Zeit aus der Policy ab, oder bis ein Netz-Ereignis kommt.
+	 *
+	 * @param seenLinkEvents
+	 *            {@link #getLinkEvents()} vor dem letzten Versuch
+	 * @return true, wenn ein Netz-Ereignis das Warten abgekürzt hat
+	 */
+	public synchronized boolean await(int seenLinkEvents, long now)
+			throws InterruptedException {
+		if (linkEvents != seenLinkEvents) {
+			Logger.info("Reconnector:link changed -> reconnect now");
+			return true;
+		}
+		final long delay = policy.nextDelay(now);
+		Logger.info("Reconnector:wait " + delay + " ms for reconnect");
+		final long until = System.nanoTime() + delay * 1000000L;
+		long left = delay;
+		while (left > 0) {
+			wait(left);
+			if (linkEvents != seenLinkEvents) {
+				Logger.info("Reconnector:link changed -> wait cut short");
+				return true;
+			}
+			left = (until - System.nanoTime() + 999999L) / 1000000L;
+		}
+		return false;
+	}
+
+	private final IReconnectPolicy policy;
+	private int linkEvents;
+}
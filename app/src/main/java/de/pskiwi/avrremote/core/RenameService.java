@@ -212,12 +212,11 @@ public final class RenameService {
 		// AsyncTask führt in Hintergrund-Threads zu
 		// --java.lang.RuntimeException: Can't create handler inside thread that
 		// has not called Looper.prepare()
-		final Thread thread = new Thread("RenameThreadSave") {
+		BackgroundTasks.io("RenameThreadSave", new Runnable() {
 			public void run() {
 				doSave();
 			};
-		};
-		thread.start();
+		});
 	}
 
 	private void doSave() {
@@ -18,39 +18,52 @@ package de.pskiwi.avrremote.core;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import de.pskiwi.avrremote.EnableManager;
 import de.pskiwi.avrremote.EnableManager.StatusFlag;
+import de.pskiwi.avrremote.core.ConnectionMetrics.Cause;
 import de.pskiwi.avrremote.log.Logger;
+import de.pskiwi.avrremote.models.IAVRModel;
 import de.pskiwi.avrremote.models.ModelConfigurator;
+import de.pskiwi.avrremote.scan.DiscoveryCache;
 
 /** Hält die Verbindung zum AVR. */
 public final class ResilentConnector implements ISender {
 
-	// Verwaltung des Verbindungsthreads.
+	// Verwaltung des Verbindungsthreads. Der Thread kommt aus
+	// BackgroundTasks.loop(), geführt wird er über sein Future.
 	// Paketprivat statt private, damit ThreadHandlerTest drankommt: der
 	// ResilentConnector selbst ist aus einem JVM-Test nicht zu bauen
 	// (EnableManager, ModelConfigurator, Context), diese Klasse dagegen kennt
-	// nur Thread und Logger. Gleiches Muster wie ModelConfigurator.createModel().
+	// nur BackgroundTasks und Logger. Gleiches Muster wie
+	// ModelConfigurator.createModel().
 	final static class ThreadHandler {
 
-		// isAlive(), nicht nur "!= null": ein gestorbener Thread wuerde
+		// isDone(), nicht nur "!= null": ein gestorbener Thread wuerde
 		// reconfigure() sonst glauben machen, es laufe noch ein Reconnect-Loop,
 		// und der Kurzschluss dort startet dann nie einen neuen. Aktuell kann
 		// das nicht passieren - stop() nullt das Feld - aber die Fehlerklasse
 		// ist genau die, die den Reconnect schon einmal stillschweigend
 		// beerdigt hat.
 		public synchronized boolean isDefined() {
-			return thread != null && thread.isAlive();
+			return task != null && !task.isDone();
 		}
 
 		public synchronized void stop() {
-			if (thread != null) {
+			if (task != null) {
 				Logger.info("stop connector");
-				thread.interrupt();
+				// cancel(true) unterbricht den Thread, wie früher interrupt()
+				task.cancel(true);
 				// Bewusst kein join: der Aufrufer ist ueber forceReconnect()
 				// der UI-Thread, und der Thread, auf den zu warten waere,
 				// steckt typischerweise in checkAddress() - isReachable() und
@@ -62,21 +75,20 @@ public final class ResilentConnector implements ISender {
 				// "detached", nicht "stopped": der Thread laeuft u.U. noch
 				// Sekunden weiter und loggt dabei. Name mitgeben, sonst ist im
 				// Log nicht zu unterscheiden, wer da noch schreibt.
-				Logger.info("Reconnector:connector detached ("
-						+ thread.getName() + ")");
-				thread = null;
+				Logger.info("Reconnector:connector detached (" + name + ")");
+				task = null;
 			}
 		}
 
 		public synchronized void start(Runnable runner, int epoch) {
 			// Epoche im Namen: nach einem stop() koennen kurzzeitig mehrere
 			// Threads leben und ins selbe Log schreiben
-			thread = new Thread(runner, "ResilentThreadHandler-" + epoch);
-			thread.setDaemon(true);
-			thread.start();
+			name = "ResilentThreadHandler-" + epoch;
+			task = BackgroundTasks.loop(name, runner);
 		}
 
-		private Thread thread;
+		private Future<?> task;
+		private String name;
 	}
 
 	private class Reconnector implements Runnable {
@@ -85,6 +97,40 @@ public final class ResilentConnector implements ISender {
 			this.epoch = epoch;
 		}
 
+		/** checkAddress() in einem eigenen Thread, Ergebnis über probeResult(). */
+		private FutureTask<Boolean> startProbe() {
+			final ConnectionConfiguration cfg = connectionConfig;
+			final FutureTask<Boolean> probe = new FutureTask<Boolean>(
+					new Callable<Boolean>() {
+						public Boolean call() throws Exception {
+							final boolean reachable = cfg.checkAddress(false);
+							Logger.debug("Reconnector:reachable " + cfg
+									+ " : " + reachable);
+							return reachable;
+						}
+					});
+			BackgroundTasks.io("ReachabilityProbe-" + epoch, probe);
+			return probe;
+		}
+
+		/**
+		 * @return null ohne Probe oder wenn sie nach PROBE_WAIT noch läuft
+		 */
+		private Boolean probeResult(FutureTask<Boolean> probe)
+				throws InterruptedException {
+			if (probe == null) {
+				return null;
+			}
+			try {
+				return probe.get(PROBE_WAIT, TimeUnit.MILLISECONDS);
+			} catch (ExecutionException x) {
+				Logger.error("Reconnector:probe failed", x.getCause());
+				return null;
+			} catch (TimeoutException x) {
+				return null;
+			}
+		}
+
 		// Ein Thread, der z.B. in einem blockierenden Connect/Ping haengt,
 		// reagiert nicht auf interrupt(). Damit so ein "Zombie"-Thread nach
 		// einem stop()/reconfigure() nicht spaeter doch noch den geteilten
@@ -104,29 +150,57 @@ public final class ResilentConnector implements ISender {
 					}
 					Logger.info("Reconnector:build new connection to ["
 							+ connectionConfig + "]");
-					boolean reachable = connectionConfig.checkAddress(false);
-					Logger.debug("Reconnector:reachable " + connectionConfig
-							+ " : " + reachable);
-					// reachable nicht direkt in Status setzen, um mehrfache
-					// Updates zu vermeiden
-
-					if (!isCurrent()) {
-						return;
+					seenLinkEvents = scheduler.getLinkEvents();
+					// Der Telnet-Connect geht sofort los. checkAddress() (Ping,
+					// Port 80, rund 1sec) lief früher davor und entschied doch
+					// nichts - verbunden wurde "auf jeden Fall". Jetzt läuft
+					// die Probe nebenher und dient nur dazu, einen
+					// Fehlschlag einzuordnen. War der Receiver eben noch
+					// verbunden (DiscoveryCache), entfällt auch das.
+					final long attemptAt = System.currentTimeMillis();
+					final long seenAgo = attemptAt
+							- discoveryCache.getLastSeen(connectionConfig
+									.getIP());
+					final FutureTask<Boolean> probe;
+					if (!mustProbe && seenAgo < LIVE_WINDOW) {
+						Logger.info("Reconnector:no probe, seen " + seenAgo
+								+ "ms ago");
+						probe = null;
+					} else {
+						probe = startProbe();
 					}
-
-					// Auf jeden Fall versuchen, u.U. ist der Test auf manchen
-					// Modellen nicht eindeutig.
-					IConnector newConnector;
+					mustProbe = true;
+
+					// gelernter Sende-Abstand pro Receiver-Slot, siehe SendPacer
+					final int receiverNr = modelConfigurator
+							.getCurrentReceiver();
+					metrics.select(receiverNr);
+					final SendPacer pacer = new SendPacer(
+							modelConfigurator.getSendDelay(receiverNr));
+					final Connector newConnector;
 					try {
-						newConnector = new Connector(connectionConfig,
-								SEND_DELAY, eventListener);
+						final IAVRModel model = modelConfigurator.getModel();
+						newConnector = new Connector(connectionConfig, pacer,
+								new LivenessMonitor(model.getLivenessIdle(),
+										model.getLivenessDeadline()),
+								eventListener);
 					} catch (Throwable x) {
 						// Bei Fehler Reachable setzen, sonst wird Reachable
-						// über "Connected" mit gesetzt
-						if (isCurrent()) {
+						// über "Connected" mit gesetzt. Ohne Probe ist es
+						// unbekannt, der nächste Versuch prüft.
+						final Boolean reachable = probeResult(probe);
+						Logger.info("Reconnector:connect failed after "
+								+ (System.currentTimeMillis() - attemptAt)
+								+ "ms, host "
+								+ (reachable == null ? "not probed"
+										: reachable ? "reachable"
+												: "unreachable"));
+						if (isCurrent() && reachable != null) {
 							enableManager.setStatus(StatusFlag.Reachable,
 									reachable);
 						}
+						metrics.reconnect(Cause.CONNECT_FAILED,
+								System.currentTimeMillis());
 						throw x;
 					}
 
@@ -139,9 +213,22 @@ public final class ResilentConnector implements ISender {
 						return;
 					}
 
-					reconnectDelayIndex = 0;
+					mustProbe = false;
+					// "Connected" erst, wenn der Receiver antwortet - dann
+					// ist die Verbindung wirklich benutzbar
+					final boolean ready = newConnector
+							.awaitReady(Connector.READY_TIMEOUT);
+					final long now = System.currentTimeMillis();
+					discoveryCache.seen(connectionConfig.getIP(), null, now);
+					scheduler.connected(now);
+					metrics.connected(now - attemptAt, now);
 					Logger.info("Reconnector:connection to ["
-							+ connectionConfig + "] established");
+							+ connectionConfig + "] established, attempt "
+							+ (now - attemptAt) + "ms"
+							+ (connections == 0 ? ", since start "
+									+ (now - startedAt) + "ms" : "")
+							+ (ready ? "" : ", no answer yet"));
+					connections++;
 					// ab hier newConnector statt des geteilten Feldes: das kann
 					// ein anderer Thread laengst wieder geleert haben, und
 					// NULL_CONNECTOR.waitUntilClosed() kehrt sofort zurueck -
@@ -157,17 +244,29 @@ public final class ResilentConnector implements ISender {
 					}
 					newConnector.waitUntilClosed();
 					Logger.info("Reconnector:connection to ["
-							+ connectionConfig + "] closed");
+							+ connectionConfig + "] closed delay:"
+							+ pacer.getDelay());
+					modelConfigurator.setSendDelay(receiverNr, pacer.getDelay());
+					Logger.debug("BackgroundTasks " + BackgroundTasks.getStats());
 
 					if (!isCurrent()) {
+						// Grund zählt der, der uns abgelöst hat
 						return;
 					}
+					metrics.reconnect(newConnector.getCloseCause(),
+							System.currentTimeMillis());
 
 					// Reachable-Status direkt aktualisieren, nicht erst 15sec
 					// warten (schnelleres Feedback)
-					reachable = connectionConfig.checkAddress(true);
+					final boolean reachable = connectionConfig
+							.checkAddress(true);
 					Logger.debug("Reconnector:reachable [" + connectionConfig
 							+ "] : " + reachable);
+					if (reachable) {
+						// gerade noch da - der nächste Connect spart die Probe
+						discoveryCache.seen(connectionConfig.getIP(), null,
+								System.currentTimeMillis());
+					}
 					// Nochmal pruefen: checkAddress blockiert hier rund 1sec
 					// (500ms Ping + 500ms Port 80, nicht unterbrechbar). In der
 					// Zeit kann laengst ein neuer Thread verbunden haben, und
@@ -202,13 +301,7 @@ public final class ResilentConnector implements ISender {
 					return;
 				}
 				try {
-					if (reconnectDelayIndex < RECONNECT_DELAY.length - 1) {
-						reconnectDelayIndex++;
-					}
-					Logger.info("Reconnector:wait "
-							+ RECONNECT_DELAY[reconnectDelayIndex]
-							+ " sec. for reconnect");
-					Thread.sleep(RECONNECT_DELAY[reconnectDelayIndex] * 1000);
+					scheduler.await(seenLinkEvents, System.currentTimeMillis());
 				} catch (InterruptedException e) {
 					Logger.info("Reconnector:connector interrupted -> return");
 					return;
@@ -216,16 +309,22 @@ public final class ResilentConnector implements ISender {
 			}
 		}
 
-		private int reconnectDelayIndex = 0;
+		private int seenLinkEvents;
+		private boolean mustProbe = false;
+		private int connections;
+		// Start dieses Reconnectors: Resume, reconfigure() oder WLAN zurück
+		private final long startedAt = System.currentTimeMillis();
 		private final int epoch;
 
 	}
 
 	public ResilentConnector(EnableManager enableManager,
-			IEventListener eventListener, ModelConfigurator modelConfigurator) {
+			IEventListener eventListener, ModelConfigurator modelConfigurator,
+			DiscoveryCache discoveryCache) {
 		this.enableManager = enableManager;
 		this.eventListener = eventListener;
 		this.modelConfigurator = modelConfigurator;
+		this.discoveryCache = discoveryCache;
 	}
 
 	public void reconfigure(Context ctx) {
@@ -257,6 +356,9 @@ public final class ResilentConnector implements ISender {
 		final ConnectionConfiguration newConfig = modelConfigurator
 				.getConnectionConfig();
 		Logger.info("Connector forceReconnect ip: [" + newConfig + "]");
+		if (isRunning()) {
+			metrics.reconnect(Cause.RESUME, System.currentTimeMillis());
+		}
 		clearState();
 		connectionConfig = newConfig;
 		stopConnector();
@@ -269,6 +371,7 @@ public final class ResilentConnector implements ISender {
 		Logger.info("Reconnector:start new connector " + connectionConfig);
 		if (connectionConfig.isDefined()) {
 			final int epoch = generation.incrementAndGet();
+			scheduler.reset();
 			threadHandler.start(new Reconnector(epoch), epoch);
 		} else {
 			Logger.info("startConnector ignored: " + connectionConfig);
@@ -291,10 +394,24 @@ public final class ResilentConnector implements ISender {
 	}
 
 	public void triggerReconnect() {
+		if (isRunning()) {
+			metrics.reconnect(Cause.WIFI, System.currentTimeMillis());
+		}
 		stopConnector();
 		startConnector();
 	}
 
+	/**
+	 * Das Netz hat sich geändert (neues Default-Netz, WLAN wieder da). Eine
+	 * bestehende Verbindung bleibt, ein wartender Reconnector versucht es
+	 * sofort. Anders als {@link #triggerReconnect()} darf das beliebig oft
+	 * kommen.
+	 */
+	public void linkChanged() {
+		Logger.info("Reconnector:link changed");
+		scheduler.linkChanged();
+	}
+
 	public boolean isConnnected() {
 		return connector.isConnected();
 	}
@@ -307,6 +424,10 @@ public final class ResilentConnector implements ISender {
 		connector.send(command);
 	}
 
+	public void sendLatest(String key, String command) {
+		connector.sendLatest(key, command);
+	}
+
 	public void setConnectorListener(IConnectorListener l) {
 		connector.setConnectorListener(l);
 	}
@@ -388,6 +509,7 @@ public final class ResilentConnector implements ISender {
 	}
 
 	public void stop() {
+		metrics.disconnected(System.currentTimeMillis());
 		clearState();
 		fireConnected(connector, false);
 		stopConnector();
@@ -408,6 +530,7 @@ public final class ResilentConnector implements ISender {
 	private final IEventListener eventListener;
 	private final EnableManager enableManager;
 	private final ModelConfigurator modelConfigurator;
+	private final DiscoveryCache discoveryCache;
 	private final List<IConnectionListener> listener = new CopyOnWriteArrayList<IConnectionListener>();;
 	// volatile fuer die vielen ungesicherten Leser (send, query, isRunning,
 	// ...), der Monitor nur fuer die beiden Schreiber publishConnector() und
@@ -420,17 +543,22 @@ public final class ResilentConnector implements ISender {
 	// endet.
 	private volatile ConnectionConfiguration connectionConfig = ConnectionConfiguration.UNDEFINED;
 	private final ThreadHandler threadHandler = new ThreadHandler();
+	private final ConnectionMetrics metrics = ConnectionMetrics.get();
 	private final AtomicInteger generation = new AtomicInteger();
-	private static int[] RECONNECT_DELAY = { 1, 2, 4, 8, 16 };
-	// totale Wartezeit für einen Connect-Test
+	private final ReconnectScheduler scheduler = new ReconnectScheduler(
+			new BackoffPolicy(new Random()));
+	// so lange gilt ein gesehener Receiver als sicher erreichbar
+	private static final long LIVE_WINDOW = 30000;
+	// Ping 250ms und Port 80 500ms, mit Luft
+	private static final long PROBE_WAIT = 1500;
+	// totale Wartezeit für einen Connect-Test: die ersten vier Wartezeiten
+	// im ungünstigsten Fall, wie früher mit der festen Leiter
 	public final static int RECONNECT_WAIT_TIME;
 	static {
-		int sum = 0;
-		for (int i = 0; i < RECONNECT_DELAY.length; i++) {
-			sum += RECONNECT_DELAY[i];
+		long sum = 0;
+		for (int i = 0; i < 4; i++) {
+			sum += BackoffPolicy.maxDelay(i);
 		}
-		RECONNECT_WAIT_TIME = (sum + 2) * 1000;
+		RECONNECT_WAIT_TIME = (int) sum + 2000;
 	}
-	private static final int SEND_DELAY = 100;
-
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Abstand zwischen zwei gesendeten Befehlen, gelernt aus der Antwortzeit.
+ *
+ * Die festen 100ms (SEND_DELAY) sind der Wert für die alten Geräte, die
+ * sonst Befehle verlieren. Die X-Serie antwortet in einem Bruchteil davon,
+ * und bei 10 Befehlen pro Sekunde dauert die Abfrage aller Zonen nach dem
+ * Verbinden Sekunden. Gemessen wird, wie lange nach einem Befehl die erste
+ * Zeile mit denselben zwei Anfangszeichen kommt (MV? -> MV505, PWON -> PWON,
+ * Z2? -> Z250). Bleibt die Antwort auf eine Abfrage bis zum nächsten Befehl
+ * aus, geht es sofort zurück auf das Maximum - ein langsames Gerät sieht also
+ * nie einen kürzeren Abstand als bisher.
+ *
+ * Zeitpunkte kommen von außen, damit SendPacerTest ohne Uhr auskommt.
+ */
+final class SendPacer {
+
+	/**
+	 * @param initialDelay
+	 *            gespeicherter Wert aus der letzten Verbindung, &lt;= 0 für
+	 *            unbekannt - dann wird beim alten festen Wert angefangen
+	 */
+	SendPacer(int initialDelay) {
+		delay = initialDelay <= 0 ? MAX_DELAY : clamp(initialDelay);
+	}
+
+	/** Vom Sender direkt nach dem Schreiben. */
+	public synchronized void sent(String command, long now) {
+		if (pendingPrefix != null && pendingIsQuery) {
+			missed();
+		}
+		if (command.length() >= ECHO_PREFIX) {
+			pendingPrefix = command.substring(0, ECHO_PREFIX);
+			// Nur eine Abfrage bekommt sicher eine Antwort. Manche Befehle
+			// (Cursor im NET-Menü, Tasten) bleiben still, das ist kein
+			// Zeichen für ein überlastetes Gerät.
+			pendingIsQuery = command.endsWith("?");
+			sentAt = now;
+		} else {
+			pendingPrefix = null;
+		}
+	}
+
+	/** Vom Receiver für jede Zeile. */
+	public synchronized void received(InData line, long now) {
+		if (pendingPrefix == null || !line.startsWith(pendingPrefix)) {
+			return;
+		}
+		pendingPrefix = null;
+		final long echo = now - sentAt;
+		average = average < 0 ? echo : (average * 3 + echo) / 4;
+		setDelay((int) (average * 2 + MARGIN), echo);
+	}
+
+	private void missed() {
+		pendingPrefix = null;
+		// Eine Antwort weniger ist schon der Hinweis auf ein langsames Gerät.
+		// Neu lernen von der sicheren Seite aus.
+		average = MAX_DELAY / 2;
+		setDelay(MAX_DELAY, -1);
+	}
+
+	private void setDelay(int newDelay, long echo) {
+		final int old = delay;
+		delay = clamp(newDelay);
+		if (Math.abs(old - delay) >= LOG_STEP) {
+			Logger.info("SendPacer: delay " + old + " -> " + delay + " ms"
+					+ (echo >= 0 ? " (echo " + echo + " ms)" : " (no echo)"));
+		}
+	}
+
+	private static int clamp(int d) {
+		return Math.max(MIN_DELAY, Math.min(MAX_DELAY, d));
+	}
+
+	public synchronized int getDelay() {
+		return delay;
+	}
+
+	private int delay;
+	private long average = -1;
+	private String pendingPrefix;
+	private boolean pendingIsQuery;
+	private long sentAt;
+
+	// Untergrenze auch für die schnellsten Geräte, und nie über den alten
+	// festen Wert
+	static final int MIN_DELAY = 30;
+	static final int MAX_DELAY = 100;
+	private static final int MARGIN = 10;
+	private static final int ECHO_PREFIX = 2;
+	private static final int LOG_STEP = 10;
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Warteschlange des Senders, die überholte Werte zusammenfasst.
+ *
+ * Der Sender schickt einen Befehl nur alle 30-100ms (SendPacer). Zieht
+ * man einen Regler in LevelActivity, stehen sonst "CVFL 50", "CVFL 51", ... in
+ * der Schlange, und nur der letzte zählt. Befehle mit Schlüssel ersetzen
+ * deshalb einen noch wartenden mit demselben Schlüssel an dessen Platz; die
+ * Reihenfolge gegenüber allen anderen bleibt. Abfragen haben sich selbst als
+ * Schlüssel, dieselbe Abfrage steht also nie zweimal drin. Befehle ohne
+ * Schlüssel (UP/DOWN, Navigation) werden immer angehängt - da zählt jeder.
+ *
+ * Zwei Spuren: Abfragen ("...?") aus initState(), checkDefined() usw. sind
+ * direkt nach dem Verbinden 60 und mehr. Ein Tipp auf MVUP soll nicht
+ * dahinter warten, Befehle gehen deshalb immer vor; Abfragen füllen die
+ * Lücken. Die Reihenfolge innerhalb einer Spur bleibt. Vor beiden steht die
+ * Probe von LivenessMonitor: deren Frist läuft ab dem Senden, hinter einem
+ * initState() mit Pacing hieße das sonst "DEAD" für einen langsamen
+ * Receiver.
+ *
+ * Paketprivat, damit SendQueueTest ohne Socket drankommt.
+ */
+final class SendQueue {
+
+	enum Lane {
+		PROBE, COMMAND, QUERY;
+
+		static Lane of(String command) {
+			return command.endsWith("?") ? QUERY : COMMAND;
+		}
+	}
+
+	private static final class Entry {
+		Entry(String key, String command, Lane lane, long queuedAt) {
+			this.key = key;
+			this.command = command;
+			this.lane = lane;
+			this.queuedAt = queuedAt;
+		}
+
+		private final String key;
+		private String command;
+		private final Lane lane;
+		private final long queuedAt;
+	}
+
+	/** Zähler einer Spur seit dem letzten {@link SendQueue#drainStats()}. */
+	private static final class Stats {
+		private int taken;
+		private int maxDepth;
+		private long waitSum;
+		private long maxWait;
+
+		@Override
+		public String toString() {
+			return "taken:" + taken + " maxDepth:" + maxDepth + " avgWait:"
+					+ (taken == 0 ? 0 : waitSum / taken) + "ms maxWait:"
+					+ maxWait + "ms";
+		}
+	}
+
+	SendQueue(int maxSize) {
+		this.maxSize = maxSize;
+		for (Lane l : Lane.values()) {
+			lanes[l.ordinal()] = new ArrayDeque<Entry>();
+			stats[l.ordinal()] = new Stats();
+		}
+	}
+
+	/**
+	 * @param key
+	 *            null: immer anhängen
+	 * @return false, wenn die Schlange voll ist
+	 */
+	public synchronized boolean add(String key, String command) {
+		if (key != null) {
+			final Entry pending = byKey.get(key);
+			if (pending != null) {
+				pending.command = command;
+				return true;
+			}
+		}
+		if (size() >= maxSize) {
+			return false;
+		}
+		final Lane lane = Lane.of(command);
+		final ArrayDeque<Entry> queue = lanes[lane.ordinal()];
+		final Entry e = new Entry(key, command, lane,
+				System.currentTimeMillis());
+		queue.addLast(e);
+		if (key != null) {
+			byKey.put(key, e);
+		}
+		final Stats st = stats[lane.ordinal()];
+		st.maxDepth = Math.max(st.maxDepth, queue.size());
+		ConnectionMetrics.get().queued(size());
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Vor alles andere, auch über das Limit hinaus. Steht dieselbe Abfrage
+	 * schon in einer anderen Spur, rückt sie nach vorn statt doppelt zu
+	 * kommen.
+	 */
+	public synchronized void addProbe(String command) {
+		final Entry pending = byKey.remove(command);
+		if (pending != null) {
+			lanes[pending.lane.ordinal()].remove(pending);
+		}
+		final Entry e = new Entry(command, command, Lane.PROBE,
+				System.currentTimeMillis());
+		lanes[Lane.PROBE.ordinal()].addLast(e);
+		byKey.put(command, e);
+		ConnectionMetrics.get().queued(size());
+		notifyAll();
+	}
+
+	public synchronized String take() throws InterruptedException {
+		while (isEmpty()) {
+			wait();
+		}
+		final Entry e = next();
+		if (e.key != null) {
+			byKey.remove(e.key);
+		}
+		final Stats st = stats[e.lane.ordinal()];
+		final long waited = System.currentTimeMillis() - e.queuedAt;
+		st.taken++;
+		st.waitSum += waited;
+		st.maxWait = Math.max(st.maxWait, waited);
+		ConnectionMetrics.get().queueWait(waited);
+		return e.command;
+	}
+
+	private Entry next() {
+		for (ArrayDeque<Entry> queue : lanes) {
+			if (!queue.isEmpty()) {
+				return queue.removeFirst();
+			}
+		}
+		throw new IllegalStateException("empty");
+	}
+
+	/**
+	 * Zähler aller Spuren als Text für das Debug-Log, danach zurückgesetzt.
+	 * Der Sender holt sie, wenn die Schlange leer gelaufen ist.
+	 */
+	public synchronized String drainStats() {
+		final StringBuilder ret = new StringBuilder();
+		for (Lane l : Lane.values()) {
+			if (ret.length() > 0) {
+				ret.append(" | ");
+			}
+			ret.append(l).append(" ").append(stats[l.ordinal()]);
+			stats[l.ordinal()] = new Stats();
+		}
+		return ret.toString();
+	}
+
+	public synchronized void clear() {
+		for (ArrayDeque<Entry> queue : lanes) {
+			queue.clear();
+		}
+		byKey.clear();
+	}
+
+	public synchronized boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public synchronized int size() {
+		int ret = 0;
+		for (ArrayDeque<Entry> queue : lanes) {
+			ret += queue.size();
+		}
+		return ret;
+	}
+
+	public synchronized int size(Lane lane) {
+		return lanes[lane.ordinal()].size();
+	}
+
+	private final int maxSize;
+	// Index = Lane.ordinal(), in der Reihenfolge, in der take() sie leert
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Entry>[] lanes = new ArrayDeque[Lane.values().length];
+	private final Stats[] stats = new Stats[Lane.values().length];
+	private final Map<String, Entry> byKey = new HashMap<String, Entry>();
+}
@@ -26,6 +26,10 @@ public final class SenderBridge implements ISender {
 		delegate.send(command);
 	}
 
+	public void sendLatest(String key, String command) {
+		delegate.sendLatest(key, command);
+	}
+
 	public boolean isQueueEmpty() {
 		return delegate.isQueueEmpty();
 	}
@@ -0,0 +1,132 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Letzte bekannte Zeilen aller Zonen als kleine Binärdatei, eine pro
+ * Receiver-Slot. Damit zeigt die Oberfläche nach Start oder Resume sofort
+ * die alten Werte (als veraltet markiert, siehe ZoneState.isStale()), statt
+ * bis zum Ende der Abfragen "n/d".
+ *
+ * Format: Version, Anzahl Zonen, je Zone Ordinal, Anzahl Zeilen und die
+ * Zeilen als UTF. Eine unbekannte Version oder kaputte Datei ergibt einen
+ * leeren Snapshot - dann eben wie bisher.
+ */
+public final class StateSnapshot {
+
+	private StateSnapshot() {
+	}
+
+	public static File getFile(File dir, int receiverNr) {
+		return new File(dir, "state" + receiverNr + ".bin");
+	}
+
+	public static void write(Map<Zone, List<String>> snapshot, OutputStream os)
+			throws IOException {
+		final DataOutputStream out = new DataOutputStream(os);
+		out.writeByte(VERSION);
+		out.writeByte(snapshot.size());
+		for (Map.Entry<Zone, List<String>> e : snapshot.entrySet()) {
+			out.writeByte(e.getKey().ordinal());
+			out.writeShort(e.getValue().size());
+			for (String line : e.getValue()) {
+				out.writeUTF(line);
+			}
+		}
+		out.flush();
+	}
+
+	public static Map<Zone, List<String>> read(InputStream is)
+			throws IOException {
+		final DataInputStream in = new DataInputStream(is);
+		final Map<Zone, List<String>> ret = new EnumMap<Zone, List<String>>(
+				Zone.class);
+		if (in.readByte() != VERSION) {
+			return ret;
+		}
+		final int zones = in.readByte();
+		for (int z = 0; z < zones; z++) {
+			final int ordinal = in.readByte();
+			final int count = in.readShort();
+			final List<String> lines = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				lines.add(in.readUTF());
+			}
+			if (ordinal >= 0 && ordinal < Zone.values().length) {
+				ret.put(Zone.values()[ordinal], lines);
+			}
+		}
+		return ret;
+	}
+
+	/** Über eine Temp-Datei, damit ein Abbruch nie eine halbe hinterlässt. */
+	public static void save(File file, Map<Zone, List<String>> snapshot) {
+		final File tmp = new File(file.getPath() + ".tmp");
+		try {
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tmp));
+			try {
+				write(snapshot, out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				Logger.info("StateSnapshot: rename failed " + file);
+			}
+		} catch (IOException x) {
+			Logger.error("StateSnapshot: save failed " + file, x);
+		}
+	}
+
+	public static Map<Zone, List<String>> load(File file) {
+		if (!file.exists()) {
+			return Collections.emptyMap();
+		}
+		try {
+			final InputStream in = new BufferedInputStream(
+					new FileInputStream(file));
+			try {
+				return read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException x) {
+			Logger.error("StateSnapshot: load failed " + file, x);
+			return Collections.emptyMap();
+		}
+	}
+
+	private static final int VERSION = 1;
+}
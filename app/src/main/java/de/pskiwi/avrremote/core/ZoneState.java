@@ -18,11 +18,13 @@ package de.pskiwi.avrremote.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import de.pskiwi.avrremote.EnableManager;
@@ -134,10 +136,12 @@ public final class ZoneState {
 		}
 
 		public boolean update(InData v) {
-			final String old = selected;
+			// Unverändert ist der Normalfall, dann ohne neuen String
+			if (selected != null && v.contentEquals(selected)) {
+				return false;
+			}
 			selected = v.toString();
-
-			return !selected.equals(old);
+			return true;
 		}
 
 		public void select(String newSelected) {
@@ -446,9 +450,11 @@ public final class ZoneState {
 		}
 
 		public boolean update(InData v) {
-			final String old = state;
+			if (state != null && v.contentEquals(state)) {
+				return false;
+			}
 			state = v.toString();
-			return !state.equals(old);
+			return true;
 		}
 
 		public boolean isOn() {
@@ -552,7 +558,7 @@ public final class ZoneState {
 			if (v.isNumber()) {
 				final int old = vol;
 				vol = v.asNumber();
-				int length = v.toString().length();
+				int length = v.valueLength();
 				if (length < 3) {
 					vol *= 10;
 				}
@@ -836,9 +842,10 @@ public final class ZoneState {
 		public boolean setLevel(LevelType ct, int value) {
 			Logger.info("setLevel [" + getValue(ct) + "/" + value + "]");
 			if (getValue(ct) != value) {
-				sender.send(getCommandPrefix()
-						+ (singleType != null ? "" : ct.getKey()) + " "
-						+ fillZeros(value, ct.getMax()));
+				final String key = getCommandPrefix()
+						+ (singleType != null ? "" : ct.getKey());
+				// Beim Ziehen des Reglers zählt nur der letzte Wert
+				sender.sendLatest(key, key + " " + fillZeros(value, ct.getMax()));
 				return true;
 			}
 			return false;
@@ -936,11 +943,11 @@ public final class ZoneState {
 	}
 
 	public ZoneState(ISender sender, Zone zone, EnableManager enableManager,
-			IGUIExecutor guiExecutor, DisplayManager displayManager,
+			ChangeBatcher changeBatcher, DisplayManager displayManager,
 			ModelConfigurator modelConfigurator) {
 		this.sender = sender;
 		this.zone = zone;
-		this.guiExecutor = guiExecutor;
+		this.changeBatcher = changeBatcher;
 
 		if (zone == Zone.Main) {
 			addState(new PowerState(enableManager));
@@ -1057,16 +1064,47 @@ public final class ZoneState {
 	 * 
 	 * @param partialStateInit
 	 */
-	public void initState(IStateFilter stateFilter) {
+	public int initState(IStateFilter stateFilter) {
+		int queries = 0;
 		for (IAVRState s : classMap.values()) {
 			if (stateFilter.accept(s.getClass())) {
 				s.reset();
 				if (s.isAutoUpdate()) {
 					getSender().query(zone, s);
+					queries++;
 					fireListener(s);
 				}
 			}
 		}
+		restoreSnapshot();
+		return queries;
+	}
+
+	/**
+	 * Nach einem kurzen Ausfall statt initState(): nichts zurücksetzen (das
+	 * hat resetState() beim Trennen schon getan, die Werte stehen als veraltet
+	 * aus dem Snapshot da) und nur abfragen, was man sieht - den Kern (Power,
+	 * Lautstärke, Mute, Eingang) und alles, woran gerade ein Listener hängt.
+	 * Der Rest kommt, sobald sich jemand per setListener() dafür interessiert.
+	 * 
+	 * @return Anzahl Abfragen
+	 */
+	public int reconcileState(IStateFilter stateFilter) {
+		int queries = 0;
+		for (IAVRState s : classMap.values()) {
+			if (stateFilter.accept(s.getClass()) && isObserved(s)
+					&& s.isAutoUpdate()) {
+				getSender().query(zone, s);
+				queries++;
+			}
+		}
+		return queries;
+	}
+
+	private boolean isObserved(IAVRState s) {
+		return s instanceof PowerState || s instanceof ZoneMode
+				|| s instanceof Volume || s instanceof MuteState
+				|| s instanceof InputSelect || listener.containsKey(s);
 	}
 
 	/**
@@ -1074,16 +1112,23 @@ public final class ZoneState {
 	 * haben
 	 * 
 	 * @param stateFilter
+	 * @param observedOnly
+	 *            nach reconcileState(): nur die dort angefragten
+	 * @return Anzahl erneuter Abfragen
 	 */
-	public void checkDefined(IStateFilter stateFilter) {
+	public int checkDefined(IStateFilter stateFilter, boolean observedOnly) {
+		int queries = 0;
 		for (IAVRState s : classMap.values()) {
-			if (stateFilter.accept(s.getClass())) {
-				if (s.isAutoUpdate() && !s.isDefined()) {
+			if (stateFilter.accept(s.getClass())
+					&& (!observedOnly || isObserved(s))) {
+				if (s.isAutoUpdate() && (!s.isDefined() || isStale(s))) {
 					Logger.error("requery [" + s.getCommandPrefix() + "]", null);
 					getSender().query(zone, s);
+					queries++;
 				}
 			}
 		}
+		return queries;
 	}
 
 	public void updateState(Class<? extends IAVRState> stateClass) {
@@ -1097,6 +1142,7 @@ public final class ZoneState {
 				fireListener(s);
 			}
 		}
+		restoreSnapshot();
 	}
 
 	public void notifyListener() {
@@ -1159,7 +1205,7 @@ public final class ZoneState {
 			if (initialValue) {
 				l.changedState(t);
 			}
-			if (!t.isDefined()) {
+			if (!t.isDefined() || isStale(t)) {
 				getSender().query(zone, t);
 			}
 
@@ -1182,14 +1228,20 @@ public final class ZoneState {
 	}
 
 	public void update(InData data) {
-		IAVRState e = prefixResolver.find(data.toString());
+		update("", data);
+	}
+
+	/**
+	 * @param head
+	 *            gehört gedanklich vor die Zeile, siehe AVRState.received()
+	 * @param data
+	 *            steht mit seinem Versatz am Anfang der Zeile hinter head
+	 */
+	public void update(String head, InData data) {
+		IAVRState e = prefixResolver.find(head, data);
 		if (e != null) {
-			data.setOffset(e.getReceivePrefix().length());
-			boolean stateChange = e.update(data);
-			Logger.info(zone + " ->[" + e.getClass().getSimpleName()
-					+ "] state:" + (stateChange ? "change" : "no change"));
-			if (stateChange) {
-				fireListener(e);
+			synchronized (updateLock) {
+				apply(e, head, data);
 			}
 		} else {
 			Logger.info(zone + "?(" + data.toDebugString() + ")");
@@ -1197,18 +1249,121 @@ public final class ZoneState {
 
 	}
 
+	private void apply(IAVRState e, String head, InData data) {
+		final int skip = e.getReceivePrefix().length() - head.length();
+		if (skip >= 0) {
+			data.setOffset(data.getOffset() + skip);
+		} else {
+			// Wert fängt schon in head an, dann wie früher zusammensetzen
+			data = new InData(head + data);
+			data.setOffset(e.getReceivePrefix().length());
+		}
+		boolean stateChange = e.update(data);
+		Logger.info(zone + " ->[" + e.getClass().getSimpleName()
+				+ "] state:" + (stateChange ? "change" : "no change"));
+		if (stateChange && isSnapshotState(e)) {
+			remember(e, data.toString());
+		}
+		// Live-Wert: auch ein unveränderter muss das "veraltet" aufheben
+		if (stale.remove(e)) {
+			stateChange = true;
+		}
+		if (stateChange) {
+			fireListener(e);
+		}
+	}
+
+	/**
+	 * Zustände, die eine Zeile vollständig beschreibt. Nicht dabei: Power und
+	 * Zone (setzen EnableManager-Flags, daran hängt der ganze Verbindungsablauf)
+	 * und die Displays.
+	 */
+	private static boolean isSnapshotState(IAVRState s) {
+		return s instanceof AbstractSelect || s instanceof MuteState
+				|| s instanceof Volume || s instanceof AbstractLevel;
+	}
+
+	/**
+	 * Pro Zeilenart die letzte Zeile: "CVFL 50" und "CVFR 48" gehen an
+	 * denselben Zustand, ebenso "MV505" und "MVMAX 98". Bei den Auswahlen ist
+	 * alles nach dem Präfix Wert, "MSDOLBY DIGITAL" ersetzt "MSSTEREO".
+	 */
+	private void remember(IAVRState s, String value) {
+		lastLines.put(s.getReceivePrefix(), value, s instanceof AbstractLevel
+				|| s instanceof Volume);
+	}
+
+	/** Die zuletzt live empfangenen Zeilen, für StateSnapshot. */
+	public List<String> getSnapshot() {
+		return lastLines.get();
+	}
+
+	/** Zeilen aus StateSnapshot übernehmen und sofort anzeigen. */
+	public void setSnapshot(List<String> lines) {
+		synchronized (lastLines) {
+			lastLines.clear();
+			for (String l : lines) {
+				final IAVRState s = prefixResolver.find(new InData(l));
+				if (s != null && isSnapshotState(s)) {
+					remember(s, l.substring(s.getReceivePrefix().length()));
+				}
+			}
+		}
+		restoreSnapshot();
+	}
+
+	/**
+	 * Letzte bekannte Werte in alle noch undefinierten Zustände, markiert als
+	 * veraltet. Ein definierter Zustand hat einen Live-Wert, der bleibt.
+	 * <p>
+	 * Läuft auf dem UI-Thread, update() auf dem Empfangsthread. Prüfen und
+	 * Setzen unter updateLock, sonst überschreibt der alte Wert eine
+	 * Live-Zeile, die dazwischen ankommt.
+	 */
+	private void restoreSnapshot() {
+		final List<String> lines = getSnapshot();
+		synchronized (updateLock) {
+			final List<IAVRState> undefined = new ArrayList<IAVRState>();
+			for (IAVRState s : classMap.values()) {
+				if (isSnapshotState(s) && !s.isDefined()) {
+					undefined.add(s);
+					stale.remove(s);
+				}
+			}
+			for (String l : lines) {
+				final InData d = new InData(l);
+				final IAVRState s = prefixResolver.find(d);
+				if (s != null && undefined.contains(s)) {
+					d.setOffset(s.getReceivePrefix().length());
+					s.update(d);
+					stale.add(s);
+					fireListener(s);
+				}
+			}
+		}
+	}
+
+	/** Wert stammt aus dem Snapshot und ist noch nicht live bestätigt. */
+	public boolean isStale(IAVRState s) {
+		return stale.contains(s);
+	}
+
 	private void fireListener(final IAVRState state) {
-		@SuppressWarnings("rawtypes")
-		final IStateListener l = listener.get(state);
-		if (l != null) {
-			guiExecutor.execute(new Runnable() {
+		if (listener.get(state) != null) {
+			// Einmal pro Frame und Zustand, egal wie oft er sich bis dahin
+			// ändert. Den Listener erst beim Ausliefern holen: er kann
+			// inzwischen entfernt oder ersetzt sein.
+			changeBatcher.mark(state, new Runnable() {
 
 				@SuppressWarnings("unchecked")
 				public void run() {
-					l.changedState(state);
+					@SuppressWarnings("rawtypes")
+					final IStateListener l = listener.get(state);
+					if (l != null) {
+						l.changedState(state);
+					}
 				}
 			});
-
 		}
 	}
 
@@ -1226,7 +1381,12 @@ public final class ZoneState {
 	@SuppressWarnings({ "rawtypes" })
 	private final Map<IAVRState, IStateListener> listener = new HashMap<IAVRState, IStateListener>();
 	private final PrefixResolver prefixResolver;
-	private final IGUIExecutor guiExecutor;
+	private final ChangeBatcher changeBatcher;
+	private final LastLines lastLines = new LastLines();
+	// update() gegen restoreSnapshot()
+	private final Object updateLock = new Object();
+	private final Set<IAVRState> stale = Collections
+			.newSetFromMap(new ConcurrentHashMap<IAVRState, Boolean>());
 
 	private static final String N_D = "n/d";
 	private static final String dB = "db";
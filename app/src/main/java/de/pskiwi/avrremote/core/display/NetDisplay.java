@@ -25,7 +25,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +37,7 @@ import android.widget.Toast;
 import de.pskiwi.avrremote.IScreenMenu;
 import de.pskiwi.avrremote.R;
 import de.pskiwi.avrremote.ScreenMenu;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.core.DisplayMoveMode;
 import de.pskiwi.avrremote.core.GUIDisplayListener;
 import de.pskiwi.avrremote.core.IAVRState;
@@ -1146,6 +1146,8 @@ public final class NetDisplay implements IAVRState, IDisplay {
 
 	private static final int MAX_MOVE_TIME = 20000;
 
-	private final Executor moveExecutor = Executors.newSingleThreadExecutor();
+	// nacheinander, aber ohne eigenen Thread pro NetDisplay
+	private final Executor moveExecutor = BackgroundTasks
+			.serial("NetDisplay-move");
 
 }
\ No newline at end of file
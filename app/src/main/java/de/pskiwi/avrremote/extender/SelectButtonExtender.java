@@ -37,8 +37,10 @@ public class SelectButtonExtender {
 	private SelectButtonExtender() {
 	}
 
+	private static final float STALE_ALPHA = 0.5f;
+
 	public static void extend(final TextView button, final Context ctx,
-			ZoneState zone, final Class<? extends AbstractSelect> s,
+			final ZoneState zone, final Class<? extends AbstractSelect> s,
 			final Runnable onUpdate, final RenameService renameService,
 			final RenameCategory category) {
 		final AbstractSelect in = zone.getState(s);
@@ -84,6 +86,8 @@ public class SelectButtonExtender {
 				Logger.debug("updateSelect: : " + selected + "->" + toShow);
 				button.setText(ctx.getString(state.getDisplayId()) + " : "
 						+ toShow);
+				// Wert aus dem Snapshot, noch nicht vom Receiver bestätigt
+				button.setAlpha(zone.isStale(state) ? STALE_ALPHA : 1f);
 				onUpdate.run();
 			}
 		}, s);
@@ -18,9 +18,12 @@ package de.pskiwi.avrremote.http;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.core.Zone;
 import de.pskiwi.avrremote.log.Logger;
 import de.pskiwi.avrremote.models.ModelConfigurator;
@@ -32,8 +35,7 @@ public final class AVRHTTPClient {
 	}
 
 	public void doBackgroundReset(final Runnable runnable) {
-		final Thread t = new Thread("reset avr") {
-			@Override
+		BackgroundTasks.blocking("reset avr", new Runnable() {
 			public void run() {
 				Logger.info("reset AVR");
 				try {
@@ -48,8 +50,7 @@ public final class AVRHTTPClient {
 					runnable.run();
 				}
 			}
-		};
-		t.start();
+		});
 	}
 
 	public void setStandby() throws Exception {
@@ -159,18 +160,25 @@ public final class AVRHTTPClient {
 		if (configurator.getModel().useSeries08Parser()) {
 			return new Series08Reader(baseURL).readSeries08Info();
 		} else {
-			final AVRXMLInfo ret = new AVRXMLInfo();
+			final List<Zone> zones = new ArrayList<Zone>();
 			for (Zone z : Zone.values()) {
 				if (z.getZoneNumber() < configurator.getZoneCount()) {
-					final AVRXMLInfo s = readState(z);
-					if (s != null) {
-						ret.merge(z, s);
-					} else {
-						break;
-					}
+					zones.add(z);
 				}
 			}
-			Logger.info("[ALL]->" + ret.getInfo());
+			// Die beiden Requests einer Zone bleiben nacheinander, die Zonen
+			// laufen nebeneinander. Mehr als PARALLEL_ZONES gleichzeitige
+			// Verbindungen vertragen die Receiver-Webserver nicht zuverlässig.
+			final long start = System.currentTimeMillis();
+			final AVRXMLInfo ret = new ZoneFetch(zones,
+					new ZoneFetch.IZoneReader() {
+						public AVRXMLInfo read(Zone z) throws Exception {
+							return readState(z);
+						}
+					}).run(BackgroundTasks.blockingExecutor("XMLZone"), PARALLEL_ZONES);
+			Logger.info("[ALL] " + zones.size() + " zones in "
+					+ (System.currentTimeMillis() - start) + "ms " + CACHE
+					+ " ->" + ret.getInfo());
 			return ret;
 		}
 
@@ -178,9 +186,10 @@ public final class AVRHTTPClient {
 
 	// Status für Zone lesen
 	private AVRXMLInfo readState(Zone z) throws Exception {
-		final byte[] content = HTTPSupport.get(baseURL
+		final String url = baseURL
 				+ "goform/formMainZone_MainZoneXml.xml?ZoneName=ZONE"
-				+ (z.getZoneNumber() + 1));
+				+ (z.getZoneNumber() + 1);
+		final byte[] content = HTTPSupport.get(url, CACHE);
 		// Die Längenprüfung tritt an die Stelle des früheren "entity != null":
 		// AVRXMLInfoParser.parse wirft bei leerem Body. Sie ist nicht exakt
 		// gleichbedeutend - Apache lieferte auch für 200 ohne Inhalt eine
@@ -189,8 +198,7 @@ public final class AVRHTTPClient {
 		// die bereits gelesenen Zonen bleiben erhalten.
 		AVRXMLInfo info = new AVRXMLInfo();
 		if (content.length > 0) {
-			info = new AVRXMLInfoParser().parse(new ByteArrayInputStream(
-					content));
+			info = CACHE.parse(url, content, PARSER);
 		}
 
 		readQuickInfo(z, info);
@@ -202,13 +210,13 @@ public final class AVRHTTPClient {
 		}
 	}
 
-	private void readQuickInfo(Zone z, AVRXMLInfo info) throws IOException {
-		final byte[] content = HTTPSupport.get(baseURL
+	private void readQuickInfo(Zone z, AVRXMLInfo info) throws Exception {
+		final String url = baseURL
 				+ "goform/formMainZone_QuickSelectXml.xml?ZoneName=ZONE"
-				+ (z.getZoneNumber() + 1));
+				+ (z.getZoneNumber() + 1);
+		final byte[] content = HTTPSupport.get(url, CACHE);
 		if (content.length > 0) {
-			final AVRXMLInfo quickInfo = new AVRXMLInfoParser()
-					.parse(new ByteArrayInputStream(content));
+			final AVRXMLInfo quickInfo = CACHE.parse(url, content, PARSER);
 			if (quickInfo.isDefined()) {
 				info.mergeQuickSelect(z, quickInfo);
 			}
@@ -216,4 +224,13 @@ public final class AVRHTTPClient {
 	}
 
 	private final String baseURL;
+	private static final int PARALLEL_ZONES = 3;
+	// lebt über die einzelne AVRHTTPClient-Instanz hinaus, die URLs enthalten
+	// die Receiver-Adresse
+	private static final ResponseCache CACHE = new ResponseCache();
+	private static final ResponseCache.IParser PARSER = new ResponseCache.IParser() {
+		public AVRXMLInfo parse(byte[] body) throws Exception {
+			return new AVRXMLInfoParser().parse(new ByteArrayInputStream(body));
+		}
+	};
 }
@@ -188,6 +188,41 @@ public final class AVRXMLInfo {
 		return isDefined() ? "defined:" + info.size() : "not defined";
 	}
 
+	/** Tiefe Kopie - merge() und mergeQuickSelect() ändern die Listen. */
+	public AVRXMLInfo copy() {
+		final AVRXMLInfo ret = new AVRXMLInfo();
+		for (Map.Entry<String, List<String>> e : info.entrySet()) {
+			ret.info.put(e.getKey(), new ArrayList<String>(e.getValue()));
+		}
+		return ret;
+	}
+
+	/**
+	 * Nur die Namen: Eingänge samt Umbenennung und Verwendung, Zonen,
+	 * Quick-Selects. Lautstärke, Power, Eingangswahl usw. stehen im selben
+	 * XML und ändern sich ständig, daraus baut ModelConfigurator nichts.
+	 */
+	public AVRXMLInfo getNames() {
+		final AVRXMLInfo ret = new AVRXMLInfo();
+		for (Map.Entry<String, List<String>> e : info.entrySet()) {
+			if (NAME_KEYS.contains(e.getKey())
+					|| e.getKey().startsWith(QUICK_SELECT_NAME)) {
+				ret.info.put(e.getKey(), new ArrayList<String>(e.getValue()));
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof AVRXMLInfo && info.equals(((AVRXMLInfo) o).info);
+	}
+
+	@Override
+	public int hashCode() {
+		return info.hashCode();
+	}
+
 	public void mergeQuickSelect(Zone z, AVRXMLInfo s) {
 		for (String name : s.getList(QUICK_SELECT_NAME)) {
 			add(QUICK_SELECT_NAME + z.getZoneNumber(), name);
@@ -223,5 +258,7 @@ public final class AVRXMLInfo {
 	public static final String RENAME_ZONE = "RenameZone";
 	public static final String QUICK_SELECT_NAME = "QuickSelectName";
 	private static final String USE_INPUT = "USE";
+	private static final List<String> NAME_KEYS = Arrays.asList(
+			"InputFuncList", "RenameSource", "SourceDelete", RENAME_ZONE);
 
 }
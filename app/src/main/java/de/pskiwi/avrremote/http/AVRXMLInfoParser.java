@@ -18,9 +18,6 @@ package de.pskiwi.avrremote.http;
 
 import java.io.InputStream;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -35,85 +32,52 @@ public final class AVRXMLInfoParser extends DefaultHandler {
 
 	public void characters(char[] ch, int start, int length)
 			throws SAXException {
-		super.characters(ch, start, length);
-		value = (value + new String(ch, start, length)).trim();
+		// Ein Wert kommt in mehreren Stücken, sobald eine Entity darin steht
+		// ("Rock &amp; Pop"). Erst am Ende zusammensetzen und trimmen.
+		value.append(ch, start, length);
 	}
 
 	@Override
 	public void startElement(String uri, String localName, String qName,
 			Attributes attributes) throws SAXException {
+		final String name = name(localName, qName);
 		// Rahmen
-		if (ROOT_TAG.equals(localName)) {
+		if (ROOT_TAG.equals(name)) {
 			return;
 		}
-		if (VALUE_TAG.equals(localName)) {
-			value = "";
+		if (VALUE_TAG.equals(name)) {
+			value.setLength(0);
 			// currentTag beibehalten
 			return;
 		}
-		currentTag = localName;
+		currentTag = name;
 
 	}
 
-	public void endElement(String uri, String localName, String name)
+	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
-		if (localName.equals(VALUE_TAG)) {
-			info.add(currentTag, value);
+		if (VALUE_TAG.equals(name(localName, qName))) {
+			info.add(currentTag, value.toString().trim());
 		} else {
 			currentTag = null;
 		}
 	}
 
-	public AVRXMLInfo parse(InputStream in) {
-
-		// Das XML kommt unauthentifiziert per Klartext-HTTP aus dem LAN. Ohne
-		// die folgenden Sperren könnte ein vorgetäuschter Receiver über externe
-		// Entities lokale Dateien auslesen (XXE).
-		//
-		// Welche Sperre greift, hängt von der Plattform ab - auf einem Pixel 8
-		// durchprobiert: Androids SAXParserFactoryImpl unterstützt nur die
-		// beiden external-*-Features und wirft bei den anderen beiden
-		// SAXNotRecognizedException. Deshalb jede einzeln absichern: in einem
-		// gemeinsamen Block würde die erste nicht unterstützte alle folgenden
-		// überspringen.
-		final SAXParserFactory factory = SAXParserFactory.newInstance();
-
-		// Die beiden tragenden Sperren, jede für sich. Lässt sich eine nicht
-		// setzen, wird nicht geparst - ein ungeschützter Parser auf
-		// unauthentifiziertem LAN-XML ist schlimmer als eine fehlende
-		// Statusanzeige. Der Aufrufer fängt das ab (StatusAreaManager), die
-		// Abfrage entfällt dann laut statt still und unsicher.
-		// Die setFeature-Aufrufe stehen bewusst direkt hier und nicht in einer
-		// Hilfsmethode: die statische Analyse erkennt die Absicherung sonst
-		// womöglich nicht mehr.
-		try {
-			factory.setFeature(EXTERNAL_GENERAL_ENTITIES, false);
-		} catch (Exception x) {
-			throw new RuntimeException("nicht abschaltbar: "
-					+ EXTERNAL_GENERAL_ENTITIES, x);
-		}
-		try {
-			factory.setFeature(EXTERNAL_PARAMETER_ENTITIES, false);
-		} catch (Exception x) {
-			throw new RuntimeException("nicht abschaltbar: "
-					+ EXTERNAL_PARAMETER_ENTITIES, x);
-		}
+	/**
+	 * Androids Expat-SAX füllt localName auch ohne Namespace-Unterstützung,
+	 * die Desktop-JVM nur qName. Die Receiver-XMLs haben keine Namespaces,
+	 * beides ist also derselbe Name.
+	 */
+	private static String name(String localName, String qName) {
+		return localName != null && localName.length() > 0 ? localName : qName;
+	}
 
-		// Zusätzlich auf der JVM; auf Android nicht vorhanden und dort
-		// entbehrlich, weil die beiden oben bereits greifen.
-		try {
-			factory.setFeature(DISALLOW_DOCTYPE, true);
-		} catch (Exception x) {
-			Logger.debug("XML-Feature nicht unterstützt: " + DISALLOW_DOCTYPE);
-		}
-		try {
-			factory.setFeature(LOAD_EXTERNAL_DTD, false);
-		} catch (Exception x) {
-			Logger.debug("XML-Feature nicht unterstützt: " + LOAD_EXTERNAL_DTD);
-		}
+	/** Parst direkt vom Stream; zum Härten des Parsers siehe SecureXML. */
+	public AVRXMLInfo parse(InputStream in) {
 		try {
-			SAXParser parser = factory.newSAXParser();
-			parser.parse(in, this);
+			SecureXML.newParser().parse(in, this);
+		} catch (RuntimeException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -122,13 +86,9 @@ public final class AVRXMLInfoParser extends DefaultHandler {
 	}
 
 	private String currentTag;
-	private String value;
+	private final StringBuilder value = new StringBuilder();
 	private final AVRXMLInfo info = new AVRXMLInfo();
 
-	private static final String EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
-	private static final String EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
-	private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
-	private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
 	private static final String VALUE_TAG = "value";
 	private static final String ROOT_TAG = "item";
 }
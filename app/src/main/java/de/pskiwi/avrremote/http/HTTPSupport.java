@@ -16,14 +16,20 @@
  */
 package de.pskiwi.avrremote.http;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.HashMap;
 import java.util.Map;
 
 import de.pskiwi.avrremote.log.Logger;
@@ -32,32 +38,153 @@ import de.pskiwi.avrremote.log.Logger;
  * GET und POST gegen den Receiver. Ersetzt den früheren Apache-HttpClient, der
  * nur noch als optionale Plattform-Bibliothek existierte. Mehr als diese beiden
  * Operationen hat die App nie benutzt.
+ *
+ * Die Verbindung bleibt offen, wenn der Receiver es zulässt: kein
+ * disconnect() nach einem vollständig gelesenen Body, dann legt
+ * HttpURLConnection den Socket in ihren Pool (je Host und Port, also je
+ * Receiver) und der nächste Request spart sich den Verbindungsaufbau. Der
+ * GoAhead-Server der älteren Geräte antwortet mit HTTP/1.0 und schließt nach
+ * jeder Antwort - dann wird eben jedes Mal neu verbunden, wie bisher.
  */
 public final class HTTPSupport {
 
+	/** Liest einen Body direkt vom Socket, siehe {@link HTTPSupport#get(String, IBodyReader)}. */
+	public interface IBodyReader<T> {
+		T read(InputStream in) throws IOException;
+	}
+
+	/**
+	 * Zählt die gelesenen Bytes und merkt sich, ob der Leser bis zum Ende kam.
+	 * Nur dann darf die Verbindung zurück in den Pool.
+	 */
+	private static final class TrackingStream extends FilterInputStream {
+
+		TrackingStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int ret = super.read();
+			if (ret == -1) {
+				eof = true;
+			} else {
+				count++;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int ret = super.read(b, off, len);
+			if (ret == -1) {
+				eof = true;
+			} else {
+				count += ret;
+			}
+			return ret;
+		}
+
+		private boolean eof;
+		private long count;
+	}
+
 	public static byte[] get(String url) throws IOException {
-		return execute(url, null);
+		return execute(url, null, null);
+	}
+
+	/**
+	 * GET über den Cache: bedingt, wenn der Server Validatoren geschickt hat,
+	 * und mit Vermerk, ob sich der Body geändert hat.
+	 */
+	static byte[] get(String url, ResponseCache cache) throws IOException {
+		return execute(url, null, cache);
+	}
+
+	/**
+	 * GET, dessen Body der Leser direkt vom Socket liest, ohne dass er vorher
+	 * ganz im Speicher liegt. Hört der Leser vor dem Ende auf, wird die
+	 * Verbindung geschlossen statt in den Pool gelegt - der Rest der Antwort
+	 * stünde sonst noch im Socket.
+	 */
+	public static <T> T get(String url, IBodyReader<T> reader)
+			throws IOException {
+		Logger.debug("GET [" + url + "] streaming ...");
+		final HttpURLConnection connection = open(new URL(url));
+		boolean complete = false;
+		try {
+			final int code = connection.getResponseCode();
+			final InputStream raw = code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection
+					.getErrorStream() : connection.getInputStream();
+			final TrackingStream in = new TrackingStream(
+					raw != null ? raw : new ByteArrayInputStream(new byte[0]));
+			final T ret;
+			try {
+				ret = reader.read(in);
+			} finally {
+				in.close();
+			}
+			complete = in.eof;
+			Logger.debug("GET [" + url + "] code:" + code + " bytes:"
+					+ in.count + (in.eof ? "" : " (stopped early)"));
+			return ret;
+		} finally {
+			if (!complete) {
+				connection.disconnect();
+			}
+		}
 	}
 
 	/** POST mit application/x-www-form-urlencoded-Body. */
 	public static byte[] postForm(String url, Map<String, String> formParams)
 			throws IOException {
-		return execute(url, encodeForm(formParams).getBytes("US-ASCII"));
+		return execute(url, encodeForm(formParams).getBytes("US-ASCII"),
+				null);
+	}
+
+	private static byte[] execute(String url, byte[] body, ResponseCache cache)
+			throws IOException {
+		final URL target = new URL(url);
+		final String host = target.getHost() + ":" + target.getPort();
+		try {
+			return execute(target, url, body, cache);
+		} catch (IOException x) {
+			if (!isRetry(x, body != null, wasKeptAlive(host))) {
+				throw x;
+			}
+			Logger.info("HTTP [" + url + "] failed on kept-alive connection ("
+					+ x + "), retry");
+			setKeptAlive(host, false);
+			return execute(target, url, body, cache);
+		}
 	}
 
-	private static byte[] execute(String url, byte[] body) throws IOException {
+	/**
+	 * Ein Socket aus dem Pool kann inzwischen vom Receiver geschlossen sein.
+	 * Für GET wiederholt HttpURLConnection selbst, für den POST mit fester
+	 * Länge nicht - dessen Body ist schon weg. Die POSTs der App
+	 * (Standby/Ein, Suche) vertragen eine Wiederholung. Nicht bei Timeout
+	 * oder gescheitertem Connect: dann ist der Receiver nicht da, und eine
+	 * Wiederholung kostet nur einen zweiten Timeout.
+	 */
+	static boolean isRetry(IOException x, boolean post, boolean keptAlive) {
+		return post && keptAlive && !(x instanceof SocketTimeoutException)
+				&& !(x instanceof ConnectException)
+				&& !(x instanceof NoRouteToHostException);
+	}
+
+	private static byte[] execute(URL target, String url, byte[] body,
+			ResponseCache cache) throws IOException {
 		final String method = body != null ? "POST" : "GET";
 		// vor dem Request loggen: bei Timeout oder Exception taucht die URL
 		// sonst nirgends im Log auf, das FeedbackReporter verschickt
 		Logger.debug(method + " [" + url + "] ...");
-		final HttpURLConnection connection = (HttpURLConnection) new URL(url)
-				.openConnection();
+		final HttpURLConnection connection = open(target);
+		boolean complete = false;
 		try {
-			connection.setConnectTimeout(CONNECT_TIMEOUT);
-			connection.setReadTimeout(READ_TIMEOUT);
-			// HttpURLConnection fragt von sich aus gzip an, der Apache-Client
-			// tat das nie. Für die betagten Receiver-Webserver abschalten.
-			connection.setRequestProperty("Accept-Encoding", "identity");
+			if (cache != null) {
+				setConditional(connection, cache, url);
+			}
 			if (body != null) {
 				connection.setRequestMethod("POST");
 				connection.setDoOutput(true);
@@ -73,13 +200,92 @@ public final class HTTPSupport {
 				}
 			}
 			final int code = connection.getResponseCode();
-			final byte[] content = readAll(code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection
+			byte[] content = readAll(code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection
 					.getErrorStream() : connection.getInputStream());
+			final boolean keepAlive = isKeepAlive(connection);
+			setKeptAlive(target.getHost() + ":" + target.getPort(), keepAlive);
+			String cached = "";
+			if (cache != null && code == HttpURLConnection.HTTP_NOT_MODIFIED
+					&& cache.getBody(url) != null) {
+				content = cache.getBody(url);
+				cached = " not modified";
+			} else if (cache != null && code == HttpURLConnection.HTTP_OK) {
+				final long unchanged = cache.store(url, content,
+						connection.getHeaderField("ETag"),
+						connection.getHeaderField("Last-Modified"),
+						System.currentTimeMillis());
+				if (unchanged >= 0) {
+					cached = " unchanged for " + unchanged / 1000 + "s";
+				}
+			}
 			Logger.debug(method + " [" + url + "] code:" + code + " bytes:"
-					+ content.length);
+					+ content.length + (keepAlive ? " keep-alive" : "")
+					+ cached);
+			complete = true;
 			return content;
 		} finally {
-			connection.disconnect();
+			// Nur eine halb gelesene oder gescheiterte Verbindung wegwerfen.
+			// disconnect() nach vollständigem Lesen würde den Socket schließen
+			// statt ihn in den Pool zurückzugeben.
+			if (!complete) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	private static HttpURLConnection open(URL target) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) target
+				.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		// HttpURLConnection fragt von sich aus gzip an, der Apache-Client
+		// tat das nie. Für die betagten Receiver-Webserver abschalten.
+		connection.setRequestProperty("Accept-Encoding", "identity");
+		return connection;
+	}
+
+	private static void setConditional(HttpURLConnection connection,
+			ResponseCache cache, String url) {
+		final String etag = cache.getETag(url);
+		if (etag != null) {
+			connection.setRequestProperty("If-None-Match", etag);
+		}
+		final String lastModified = cache.getLastModified(url);
+		if (lastModified != null) {
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+		}
+	}
+
+	/**
+	 * Sagt die Antwort, dass der Server die Verbindung offen lässt? HTTP/1.1
+	 * ohne "Connection: close", HTTP/1.0 nur mit "Connection: keep-alive".
+	 * Dieselbe Regel wendet HttpURLConnection selbst an; hier nur, um die
+	 * Wiederholung und das Log daran zu hängen.
+	 */
+	static boolean isKeepAlive(HttpURLConnection connection) {
+		final String status = connection.getHeaderField(0);
+		final String header = connection.getHeaderField("Connection");
+		if (header != null && header.equalsIgnoreCase("close")) {
+			return false;
+		}
+		if (status != null && status.startsWith("HTTP/1.0")) {
+			return header != null && header.equalsIgnoreCase("keep-alive");
+		}
+		return status != null;
+	}
+
+	private static boolean wasKeptAlive(String host) {
+		synchronized (KEPT_ALIVE) {
+			return Boolean.TRUE.equals(KEPT_ALIVE.get(host));
+		}
+	}
+
+	private static void setKeptAlive(String host, boolean keepAlive) {
+		synchronized (KEPT_ALIVE) {
+			final Boolean old = KEPT_ALIVE.put(host, keepAlive);
+			if (old == null || old != keepAlive) {
+				Logger.info("HTTP " + host + " keep-alive:" + keepAlive);
+			}
 		}
 	}
 
@@ -115,6 +321,8 @@ public final class HTTPSupport {
 	private HTTPSupport() {
 	}
 
+	// je Host:Port, ob die letzte Antwort die Verbindung offen ließ
+	private static final Map<String, Boolean> KEPT_ALIVE = new HashMap<String, Boolean>();
 	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
 	private static final int CONNECT_TIMEOUT = 5000;
 	private static final int READ_TIMEOUT = 4000;
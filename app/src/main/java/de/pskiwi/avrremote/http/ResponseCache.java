@@ -0,0 +1,145 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Letzte Antwort je URL: Body, dessen Hash, Zeitpunkt und - einmal geparst -
+ * das Ergebnis. Die XML-Abfrage läuft damit jede Minute statt jede Stunde,
+ * geparst wird aber nur, was sich tatsächlich geändert hat.
+ *
+ * Schickt der Server ETag oder Last-Modified, fragt HTTPSupport beim nächsten
+ * Mal bedingt und bekommt bei 304 den Body von hier. Die Receiver-Webserver
+ * erzeugen ihre XML-Seiten dynamisch; ohne solche Header entscheidet allein
+ * der Vergleich des Bodys. Der enthält auch Lautstärke und Eingangswahl,
+ * nach einer Änderung daran wird also neu geparst; ob sich Namen geändert
+ * haben, entscheidet danach ModelConfigurator (AVRXMLInfo.getNames()).
+ *
+ * Die URL enthält die Adresse des Receivers, ein Cache für alle reicht also.
+ */
+final class ResponseCache {
+
+	interface IParser {
+		AVRXMLInfo parse(byte[] body) throws Exception;
+	}
+
+	private static final class Entry {
+
+		Entry(byte[] body, String etag, String lastModified) {
+			this.body = body;
+			this.hash = hash(body);
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		boolean sameBody(byte[] other) {
+			return other == body || (hash(other) == hash && Arrays.equals(
+					other, body));
+		}
+
+		private final byte[] body;
+		private final long hash;
+		private final String etag;
+		private final String lastModified;
+		private long changedAt;
+		private AVRXMLInfo parsed;
+	}
+
+	synchronized String getETag(String url) {
+		final Entry e = entries.get(url);
+		return e != null ? e.etag : null;
+	}
+
+	synchronized String getLastModified(String url) {
+		final Entry e = entries.get(url);
+		return e != null ? e.lastModified : null;
+	}
+
+	/** Für ein 304: der Body der letzten vollständigen Antwort, sonst null. */
+	synchronized byte[] getBody(String url) {
+		final Entry e = entries.get(url);
+		return e != null ? e.body : null;
+	}
+
+	/**
+	 * Nach einer vollständigen Antwort.
+	 *
+	 * @return seit wie vielen ms der Body gleich ist, -1 wenn er neu oder
+	 *         anders ist
+	 */
+	synchronized long store(String url, byte[] body, String etag,
+			String lastModified, long now) {
+		final Entry old = entries.get(url);
+		final Entry e = new Entry(body, etag, lastModified);
+		final boolean same = old != null && old.sameBody(body);
+		e.changedAt = same ? old.changedAt : now;
+		e.parsed = same ? old.parsed : null;
+		entries.put(url, e);
+		return same ? now - e.changedAt : -1;
+	}
+
+	/**
+	 * Der geparste Body, ohne neu zu parsen, solange er sich nicht geändert
+	 * hat. Immer eine Kopie: AVRXMLInfo wird beim Zusammenführen der Zonen
+	 * verändert.
+	 */
+	AVRXMLInfo parse(String url, byte[] body, IParser parser) throws Exception {
+		synchronized (this) {
+			final Entry e = entries.get(url);
+			if (e != null && e.parsed != null && e.sameBody(body)) {
+				skipped++;
+				return e.parsed.copy();
+			}
+		}
+		final AVRXMLInfo parsed = parser.parse(body);
+		synchronized (this) {
+			parsedCount++;
+			final Entry e = entries.get(url);
+			if (e != null && e.sameBody(body)) {
+				e.parsed = parsed;
+			}
+		}
+		return parsed.copy();
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ResponseCache urls:" + entries.size() + " parsed:"
+				+ parsedCount + " skipped:" + skipped;
+	}
+
+	/** FNV-1a, 64 Bit. Nur Vorfilter - gleich ist erst, was Arrays.equals sagt. */
+	static long hash(byte[] data) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : data) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private int parsedCount;
+	private int skipped;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * SAX-Parser für XML aus dem LAN: Receiver-Status (AVRXMLInfoParser) und
+ * UPnP-Gerätebeschreibung (SsdpDiscovery). Die Factory wird einmal gebaut
+ * und gehärtet; SAXParserFactory.newInstance() sucht bei jedem Aufruf erneut
+ * nach einer Implementierung, und das für jede Zone zweimal pro Abfrage.
+ */
+public final class SecureXML {
+
+	/**
+	 * Ein neuer Parser aus der gehärteten Factory. Ein SAXParser selbst ist
+	 * nicht threadsicher, die Zonen werden aber parallel gelesen - deshalb je
+	 * Aufruf ein eigener.
+	 *
+	 * @throws RuntimeException
+	 *             wenn sich eine der beiden tragenden Sperren nicht setzen
+	 *             lässt - bei jedem Aufruf wieder, nicht nur beim ersten
+	 */
+	public static SAXParser newParser() throws ParserConfigurationException,
+			SAXException {
+		synchronized (SecureXML.class) {
+			if (factory == null) {
+				factory = createFactory();
+			}
+			return factory.newSAXParser();
+		}
+	}
+
+	private static SAXParserFactory createFactory() {
+		// Das XML kommt unauthentifiziert per Klartext-HTTP aus dem LAN. Ohne
+		// die folgenden Sperren könnte ein vorgetäuschter Receiver über externe
+		// Entities lokale Dateien auslesen (XXE).
+		//
+		// Welche Sperre greift, hängt von der Plattform ab - auf einem Pixel 8
+		// durchprobiert: Androids SAXParserFactoryImpl unterstützt nur die
+		// beiden external-*-Features und wirft bei den anderen beiden
+		// SAXNotRecognizedException. Deshalb jede einzeln absichern: in einem
+		// gemeinsamen Block würde die erste nicht unterstützte alle folgenden
+		// überspringen.
+		final SAXParserFactory ret = SAXParserFactory.newInstance();
+
+		// Die beiden tragenden Sperren, jede für sich. Lässt sich eine nicht
+		// setzen, wird nicht geparst - ein ungeschützter Parser auf
+		// unauthentifiziertem LAN-XML ist schlimmer als eine fehlende
+		// Statusanzeige. Der Aufrufer fängt das ab (StatusAreaManager), die
+		// Abfrage entfällt dann laut statt still und unsicher. Die Factory wird
+		// dann nicht gemerkt, der nächste Aufruf scheitert genauso.
+		// Die setFeature-Aufrufe stehen bewusst direkt hier und nicht in einer
+		// Hilfsmethode: die statische Analyse erkennt die Absicherung sonst
+		// womöglich nicht mehr.
+		try {
+			ret.setFeature(EXTERNAL_GENERAL_ENTITIES, false);
+		} catch (Exception x) {
+			throw new RuntimeException("nicht abschaltbar: "
+					+ EXTERNAL_GENERAL_ENTITIES, x);
+		}
+		try {
+			ret.setFeature(EXTERNAL_PARAMETER_ENTITIES, false);
+		} catch (Exception x) {
+			throw new RuntimeException("nicht abschaltbar: "
+					+ EXTERNAL_PARAMETER_ENTITIES, x);
+		}
+
+		// Zusätzlich auf der JVM; auf Android nicht vorhanden und dort
+		// entbehrlich, weil die beiden oben bereits greifen.
+		try {
+			ret.setFeature(DISALLOW_DOCTYPE, true);
+		} catch (Exception x) {
+			Logger.debug("XML-Feature nicht unterstützt: " + DISALLOW_DOCTYPE);
+		}
+		try {
+			ret.setFeature(LOAD_EXTERNAL_DTD, false);
+		} catch (Exception x) {
+			Logger.debug("XML-Feature nicht unterstützt: " + LOAD_EXTERNAL_DTD);
+		}
+		return ret;
+	}
+
+	private SecureXML() {
+	}
+
+	private static SAXParserFactory factory;
+
+	private static final String EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+	private static final String EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+	private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+	private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+}
@@ -16,8 +16,8 @@
  */
 package de.pskiwi.avrremote.http;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.util.List;
@@ -25,6 +25,14 @@ import java.util.List;
 import de.pskiwi.avrremote.http.AVRXMLInfo.Input;
 import de.pskiwi.avrremote.log.Logger;
 
+/**
+ * Liest die Setup-Seiten der 2008er-Geräte. Jede Seite geht direkt vom Socket
+ * in ihren Parser ({@link HTTPSupport#get(String, HTTPSupport.IBodyReader)}),
+ * Zeile für Zeile, ohne dass der Body vorher ganz im Speicher liegt.
+ * Series08InputParser hört nach der Zeile mit den Eingängen auf zu lesen; die
+ * beiden anderen lesen bis zum Ende, weil dort eine spätere Zeile eine frühere
+ * überschreibt.
+ */
 public final class Series08Reader {
 
 	public Series08Reader(String baseURL) {
@@ -59,11 +67,13 @@ public final class Series08Reader {
 
 	private void readSeries08Renames(final AVRXMLInfo info) throws IOException {
 		Logger.debug("readSeries08Renames ...");
-		final byte[] content = HTTPSupport.get(baseURL
-				+ "SETUP/01_SOURCESELECT/d_inputsetup.asp");
-		final Series08InputParser p = new Series08InputParser(
-				new ByteArrayInputStream(content));
-		final List<Input> inputs = p.get();
+		final List<Input> inputs = HTTPSupport.get(baseURL
+				+ "SETUP/01_SOURCESELECT/d_inputsetup.asp",
+				new HTTPSupport.IBodyReader<List<Input>>() {
+					public List<Input> read(InputStream in) throws IOException {
+						return new Series08InputParser(in).get();
+					}
+				});
 		if (!inputs.isEmpty()) {
 			Logger.debug("Series08 inputs#" + inputs.size());
 			for (Input i : inputs) {
@@ -79,13 +89,17 @@ public final class Series08Reader {
 	private void readSeries08ZoneNames(final AVRXMLInfo info)
 			throws IOException {
 		Logger.debug("readSeries08ZoneNames ...");
-		final byte[] content = HTTPSupport.get(baseURL
-				+ "ZONERENAME/d_zonerename.asp");
-
-		final Series08ZoneRenameParser p = new Series08ZoneRenameParser(
-				new ByteArrayInputStream(content));
-		p.parse();
-		for (String s : p.getZoneNames()) {
+		final List<String> names = HTTPSupport.get(baseURL
+				+ "ZONERENAME/d_zonerename.asp",
+				new HTTPSupport.IBodyReader<List<String>>() {
+					public List<String> read(InputStream in) throws IOException {
+						final Series08ZoneRenameParser p = new Series08ZoneRenameParser(
+								in);
+						p.parse();
+						return p.getZoneNames();
+					}
+				});
+		for (String s : names) {
 			info.add(AVRXMLInfo.RENAME_ZONE, s);
 		}
 		Logger.debug("readSeries08ZoneNames done");
@@ -97,12 +111,17 @@ public final class Series08Reader {
 		// sonst sind nachher die Daten nicht enthalten
 		doGet("SETUP/04_MANUALSETUP/09_OPTION1/r_option1.asp");
 		Logger.debug("readSeries08QuickSelect ...");
-		final byte[] content = HTTPSupport.get(baseURL
-				+ "SETUP/04_MANUALSETUP/09_OPTION1/d_option1.asp");
-		final Series08QuickSelectParser p = new Series08QuickSelectParser(
-				new ByteArrayInputStream(content));
-		p.parse();
-		for (String s : p.get()) {
+		final List<String> names = HTTPSupport.get(baseURL
+				+ "SETUP/04_MANUALSETUP/09_OPTION1/d_option1.asp",
+				new HTTPSupport.IBodyReader<List<String>>() {
+					public List<String> read(InputStream in) throws IOException {
+						final Series08QuickSelectParser p = new Series08QuickSelectParser(
+								in);
+						p.parse();
+						return p.get();
+					}
+				});
+		for (String s : names) {
 			final String key = AVRXMLInfo.QUICK_SELECT_NAME + "0";
 			Logger.info("[" + key + "]->[" + s + "]");
 			info.add(key, s);
@@ -47,6 +47,11 @@ public final class Series08ZoneRenameParser {
 				// bei Abstürzen verschickt - eine HTML-Seite zeilenweise
 				// hineinzukippen macht ihn wertlos. Jeder Treffer wird unten
 				// ohnehin geloggt.
+				// Das Muster beginnt mit diesem Literal; die meisten Zeilen der
+				// Seite (Script, Tabellen) brauchen den Matcher gar nicht
+				if (line.indexOf(NAME_ATTRIBUTE) < 0) {
+					continue;
+				}
 				final Matcher matcher = OPTION_PATTERN.matcher(line);
 				String key = null;
 				String value = null;
@@ -105,6 +110,7 @@ public final class Series08ZoneRenameParser {
 	// name='Main' value="ThisIsZone1     "
 	private final Pattern OPTION_PATTERN = Pattern
 			.compile("name='([^']+)' value=\"([^\"]+)\"");
+	private final static String NAME_ATTRIBUTE = "name='";
 	private final static String[] ZONE_KEYS = { "Main", "Zone2", "Zone3",
 			"Zone4", "Zone5" };
 	private final static String[] DEFAULT_NAMES = { "Main", "Zone 2", "Zone 3",
@@ -0,0 +1,135 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import de.pskiwi.avrremote.core.Zone;
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Liest die Zonen-XMLs mehrerer Zonen gleichzeitig und fügt sie in
+ * Zonen-Reihenfolge zusammen, mit demselben Ergebnis wie die frühere
+ * Schleife: Zone für Zone, bei der ersten undefinierten Zone Schluss, die
+ * davor bleiben erhalten; eine Exception gilt nur, wenn die Schleife bis zu
+ * ihr gekommen wäre.
+ *
+ * Der Aufrufer arbeitet selbst mit und holt sich wie die Helfer die nächste
+ * offene Zone. Er läuft selbst im Hintergrund (LoadXMLStatus) - starten die
+ * Helfer nicht gleich, liest er eben alles allein und wartet nie auf eine
+ * Zone, die niemand angefangen hat.
+ *
+ * Paketprivat, damit ZoneFetchTest ohne Receiver drankommt.
+ */
+final class ZoneFetch {
+
+	interface IZoneReader {
+		/** @return null, wenn die Zone nichts liefert */
+		AVRXMLInfo read(Zone z) throws Exception;
+	}
+
+	ZoneFetch(List<Zone> zones, IZoneReader reader) {
+		this.zones = zones;
+		this.reader = reader;
+		final int n = zones.size();
+		results = new AVRXMLInfo[n];
+		failures = new Exception[n];
+		done = new boolean[n];
+		stopAt = n;
+	}
+
+	/**
+	 * @param parallel
+	 *            höchstens so viele Zonen gleichzeitig, der Aufrufer
+	 *            mitgezählt
+	 */
+	AVRXMLInfo run(Executor executor, int parallel) throws Exception {
+		final int helpers = Math.min(parallel, zones.size()) - 1;
+		for (int i = 0; i < helpers; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+		}
+		work();
+		final AVRXMLInfo ret = new AVRXMLInfo();
+		for (int i = 0; i < zones.size(); i++) {
+			synchronized (this) {
+				while (!done[i]) {
+					wait();
+				}
+				if (failures[i] != null) {
+					throw failures[i];
+				}
+				if (results[i] == null) {
+					break;
+				}
+			}
+			ret.merge(zones.get(i), results[i]);
+		}
+		return ret;
+	}
+
+	private void work() {
+		int i;
+		while ((i = claim()) >= 0) {
+			AVRXMLInfo result = null;
+			Exception failure = null;
+			try {
+				result = reader.read(zones.get(i));
+			} catch (Exception x) {
+				failure = x;
+			}
+			finish(i, result, failure);
+		}
+	}
+
+	/** Nächste offene Zone, -1 wenn keine mehr gebraucht wird. */
+	private synchronized int claim() {
+		// hinter einer leeren oder gescheiterten Zone liest die Schleife nicht
+		// weiter - dann auch keine Zone mehr anfangen
+		if (next >= zones.size() || next > stopAt) {
+			return -1;
+		}
+		return next++;
+	}
+
+	private synchronized void finish(int i, AVRXMLInfo result, Exception failure) {
+		results[i] = result;
+		failures[i] = failure;
+		done[i] = true;
+		if (result == null || failure != null) {
+			stopAt = Math.min(stopAt, i);
+			if (failure != null) {
+				Logger.debug("ZoneFetch: " + zones.get(i) + " failed: "
+						+ failure);
+			}
+		}
+		notifyAll();
+	}
+
+	private final List<Zone> zones;
+	private final IZoneReader reader;
+	private final AVRXMLInfo[] results;
+	private final Exception[] failures;
+	private final boolean[] done;
+	private int next;
+	// kleinster Index einer leeren oder gescheiterten Zone
+	private int stopAt;
+}
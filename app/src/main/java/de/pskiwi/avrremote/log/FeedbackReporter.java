@@ -38,6 +38,7 @@ import de.pskiwi.avrremote.AVRApplication;
 import de.pskiwi.avrremote.AVRSettings;
 import de.pskiwi.avrremote.R;
 import de.pskiwi.avrremote.ScreenInfo;
+import de.pskiwi.avrremote.core.ConnectionMetrics;
 import de.pskiwi.avrremote.core.MacroManager;
 import de.pskiwi.avrremote.core.RenameService;
 import de.pskiwi.avrremote.scan.WiFiInfo;
@@ -177,6 +178,8 @@ public final class FeedbackReporter {
 		out.println("-----------------------");
 		out.println(AVRSettings.getAll(ctx));
 		out.println("-----------------------");
+		out.print(ConnectionMetrics.get().dump());
+		out.println("-----------------------");
 		dumpMacros(out, ctx);
 
 		RenameService.dump(ctx, out);
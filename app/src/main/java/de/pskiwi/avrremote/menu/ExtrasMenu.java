@@ -37,6 +37,7 @@ import de.pskiwi.avrremote.AVRSettings;
 import de.pskiwi.avrremote.IActivityShowing;
 import de.pskiwi.avrremote.MenuBuilder;
 import de.pskiwi.avrremote.R;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.core.IAVRState;
 import de.pskiwi.avrremote.core.IStateListener;
 import de.pskiwi.avrremote.core.Zone;
@@ -286,7 +287,7 @@ public final class ExtrasMenu {
 			}
 
 		};
-		asyncTask.execute();
+		asyncTask.executeOnExecutor(BackgroundTasks.blockingExecutor("ExtrasMenu"));
 
 	}
 
@@ -135,6 +135,16 @@ public abstract class AbstractModel implements IAVRModel {
 		return DisplayMoveMode.Classic;
 	}
 
+	public int getLivenessIdle() {
+		return 30000;
+	}
+
+	// Unter Last (NET-Seiten, Zonen-Abfragen) bis in die Sekunde, siehe
+	// "false alarm" im Log
+	public int getLivenessDeadline() {
+		return 3000;
+	}
+
 	protected Set<OptionType> options;
 
 	protected final static Set<LevelType> TYPE_9CH = new HashSet<LevelType>();
@@ -111,4 +111,10 @@ public interface IAVRModel {
 
 	/** Wie wird die Zeile ausgewählt */
 	DisplayMoveMode getDisplayMoveMode();
+
+	/** ms ohne eingehende Zeile, bis PW? die Verbindung prüft */
+	int getLivenessIdle();
+
+	/** ms, die der Receiver für die Antwort auf PW? hat */
+	int getLivenessDeadline();
 }
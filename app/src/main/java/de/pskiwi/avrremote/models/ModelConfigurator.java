@@ -16,7 +16,12 @@
  */
 package de.pskiwi.avrremote.models;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import android.content.Context;
 import de.pskiwi.avrremote.AVRSettings;
@@ -67,16 +72,7 @@ public final class ModelConfigurator {
 	 * {@code @array/modelNames}.
 	 */
 	static IAVRModel createModel(String modelName) {
-		// "AVR-3310" -> "AVR3310"
-		final String am = modelName.replace("-", "").trim();
-		final String avrModel;
-		// "(experimental)" weg
-		int p = am.indexOf("(");
-		if (p != -1) {
-			avrModel = am.substring(0, p).trim();
-		} else {
-			avrModel = am;
-		}
+		final String avrModel = toClassName(modelName);
 		if (avrModel.length() == 0) {
 			return new AVRGeneric();
 		}
@@ -90,6 +86,44 @@ public final class ModelConfigurator {
 		}
 	}
 
+	private static String toClassName(String modelName) {
+		// "AVR-3310" -> "AVR3310"
+		final String am = modelName.replace("-", "").trim();
+		// "(experimental)" weg
+		int p = am.indexOf("(");
+		if (p != -1) {
+			return am.substring(0, p).trim();
+		}
+		return am;
+	}
+
+	/**
+	 * Sucht zum modelName aus der UPnP-Gerätebeschreibung ("*AVR-X2000",
+	 * "Denon AVR-3311", "SR7008") den Eintrag aus {@code @array/modelNames},
+	 * den {@link #createModel(String)} in dieselbe Klasse auflöst.
+	 * 
+	 * @return null, wenn das Modell nicht in der Liste steht - der Anwender
+	 *         wählt dann wie bisher selbst
+	 */
+	public static String findModelName(String[] modelNames, String deviceModel) {
+		String d = deviceModel.toUpperCase(Locale.US).replaceAll(
+				"[^A-Z0-9]", "");
+		for (String brand : BRANDS) {
+			if (d.startsWith(brand) && d.length() > brand.length()) {
+				d = d.substring(brand.length());
+			}
+		}
+		if (d.length() == 0) {
+			return null;
+		}
+		for (String name : modelNames) {
+			if (d.equals(toClassName(name).toUpperCase(Locale.US))) {
+				return name;
+			}
+		}
+		return null;
+	}
+
 	private void updateZoneState() {
 		Logger.info("update zone state ...");
 		if (xmlState != null && xmlState.isDefined()
@@ -122,6 +156,14 @@ public final class ModelConfigurator {
 
 		surroundSelection.update(model.getSurroundSelection(area));
 		videoSelection.update(model.getVideoSelection(area));
+		inputNames = createInputNames();
+	}
+
+	private Set<String> createInputNames() {
+		final Set<String> ret = new HashSet<String>(
+				Arrays.asList(inputSelection.getValues()));
+		ret.addAll(Arrays.asList(AVRGeneric.DEFAULT_INPUTS));
+		return Collections.unmodifiableSet(ret);
 	}
 
 	public IAVRModel getModel() {
@@ -152,8 +194,17 @@ public final class ModelConfigurator {
 	}
 
 	public void setXMLInfol(AVRXMLInfo state) {
-		Logger.info("got XML State");
+		// Die Abfrage läuft jede Minute; Eingänge, Zonen-Namen und
+		// RenameService nur anfassen, wenn der Receiver andere Namen meldet.
+		// Eine neue Lautstärke allein ist kein Grund.
+		final boolean sameNames = xmlState != null
+				&& state.getNames().equals(xmlState.getNames());
 		this.xmlState = state;
+		if (sameNames) {
+			Logger.debug("XML names unchanged");
+			return;
+		}
+		Logger.info("got XML State");
 		updateZoneState();
 	}
 
@@ -176,19 +227,12 @@ public final class ModelConfigurator {
 		return videoSelection;
 	}
 
+	/**
+	 * Wird für jede Zonen-Zeile vom Receiver-Thread gefragt, deshalb eine
+	 * fertige Menge statt der Suche durch beide Listen.
+	 */
 	public boolean isInput(String s) {
-		for (String i : inputSelection.getValues()) {
-			if (i.equals(s)) {
-				return true;
-			}
-		}
-		for (String i : AVRGeneric.DEFAULT_INPUTS) {
-			if (i.equals(s)) {
-				return true;
-			}
-		}
-
-		return false;
+		return inputNames.contains(s);
 	}
 
 	public boolean isNapsterEnabled() {
@@ -204,6 +248,15 @@ public final class ModelConfigurator {
 		return currentReceiver;
 	}
 
+	/** Zuletzt gelernter Sende-Abstand des Receivers (ms), 0 = unbekannt. */
+	public int getSendDelay(int receiverNr) {
+		return AVRSettings.getSendDelay(ctx, receiverNr);
+	}
+
+	public void setSendDelay(int receiverNr, int delay) {
+		AVRSettings.setSendDelay(ctx, receiverNr, delay);
+	}
+
 	public int getIPodDisplayRows() {
 		return model.getIPodDisplayRows();
 	}
@@ -258,11 +311,15 @@ public final class ModelConfigurator {
 			AVRGeneric.SURROUND_MODES);
 	private final Selection videoSelection = new Selection(
 			AVRGeneric.DEFAULT_VIDEO_SELECT);
+	// neu gebaut in updateZoneState(), gelesen vom Receiver-Thread
+	private volatile Set<String> inputNames = createInputNames();
 
 	private AVRXMLInfo xmlState;
 	private final Context ctx;
 	private ModelArea area = ModelArea.Other;
 	private IAVRModel model = new AVRGeneric();
 	private final RenameService renameService;
+	// Präfix im UPnP-modelName, nicht im Klassennamen
+	private static final String[] BRANDS = { "DENON", "MARANTZ" };
 
 }
@@ -16,40 +16,77 @@
  */
 package de.pskiwi.avrremote.scan;
 
-import java.net.Inet4Address;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import android.app.AlertDialog;
-import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.os.AsyncTask;
 import android.os.Build;
-import android.widget.Toast;
+import android.widget.ArrayAdapter;
 
 import de.pskiwi.avrremote.AVRApplication;
 import de.pskiwi.avrremote.AVRSettings;
 import de.pskiwi.avrremote.EmulationDetector;
 import de.pskiwi.avrremote.IActivityShowing;
 import de.pskiwi.avrremote.R;
+import de.pskiwi.avrremote.core.BackgroundTasks;
 import de.pskiwi.avrremote.log.Logger;
+import de.pskiwi.avrremote.models.ModelConfigurator;
 
-/** Lokales Netz nach möglichen AVRs durchsuchen */
+/**
+ * Lokales Netz nach möglichen AVRs durchsuchen. Zuerst per SSDP, das liefert
+ * auch Modell und Namen; erst wenn sich dort kein bekanntes Modell meldet,
+ * der Sweep über das Netz (HostRange).
+ */
 public final class AVRScanner {
 
 	public final static class ScanResult {
 
+		/**
+		 * Aus dem Sweep, erst nur mit IP: der Name braucht ein Reverse-DNS,
+		 * das Sekunden dauern kann, siehe {@link #resolveName()}.
+		 */
 		public ScanResult(InetAddress address) {
 			this.address = address;
-			this.info = address.getHostAddress() + " / "
-					+ address.getHostName();
+			this.info = address.getHostAddress();
+			this.ip = address.getHostAddress();
+			this.modelName = null;
+		}
+
+		/**
+		 * Per SSDP gefunden.
+		 * 
+		 * @param modelName
+		 *            Eintrag aus modelNames, null wenn unbekannt
+		 */
+		ScanResult(SsdpDiscovery.Device device, String modelName) {
+			this.address = device.address;
+			this.info = address.getHostAddress()
+					+ " / "
+					+ (device.friendlyName != null ? device.friendlyName + " ("
+							+ device.modelName + ")" : device.modelName);
 			this.ip = address.getHostAddress();
+			this.modelName = modelName;
+		}
+
+		/**
+		 * Blockiert, also nicht im Selector-Thread des Sweeps.
+		 * 
+		 * @return true, wenn es einen Namen gibt
+		 */
+		boolean resolveName() {
+			final String name = address.getHostName();
+			if (name.equals(ip)) {
+				return false;
+			}
+			info = ip + " / " + name;
+			return true;
 		}
 
 		@Override
@@ -58,60 +95,48 @@ public final class AVRScanner {
 		}
 
 		final InetAddress address;
-		final String info;
+		private volatile String info;
 		final String ip;
+		final String modelName;
 	}
 
-	public interface IScanResultHandler {
-		void error(String cause);
-
-		void finished(List<ScanResult> result);
-	}
+	/**
+	 * Ergebnisse, sobald sie da sind. Alle Aufrufe kommen im UI-Thread.
+	 */
+	public interface IScanListener {
+		/** Ein Kandidat, noch während der Rest des Netzes läuft. */
+		void found(ScanResult result);
 
-	private final static class ScanThread extends Thread {
+		/** Zu einem schon gemeldeten Treffer ist der Host-Name da. */
+		void updated(ScanResult result);
 
-		public ScanThread(String prefix, int from, int to) {
-			super("Scan-Thread [" + from + ":" + to + "]");
-			this.prefix = prefix;
-			this.from = from;
-			this.to = to;
-		}
+		/** done von total Hosts fertig (Treffer oder nicht). */
+		void progress(int done, int total);
 
-		@Override
-		public void run() {
-			for (int i = from; i < to; i++) {
-				try {
-					final InetAddress ia = Inet4Address.getByName(prefix + i);
-					if (AVRTargetTester.testAddress(ia, false)) {
-						result.add(new ScanResult(ia));
-					}
-				} catch (Exception e) {
-					Logger.error("scan exception", e);
-				}
-			}
-		}
-
-		public List<ScanResult> getResult() {
-			return result;
-		}
-
-		private final List<ScanResult> result = new LinkedList<ScanResult>();
-		private final int from;
-		private final int to;
-		private final String prefix;
+		/** Suchlauf gar nicht erst möglich. */
+		void error(String cause);
 
+		/**
+		 * Suchlauf durch oder nach {@link AVRScanner#cancel()} abgebrochen.
+		 * 
+		 * @param result
+		 *            alle Treffer bis dahin, in der Reihenfolge von found()
+		 */
+		void finished(List<ScanResult> result, boolean cancelled);
 	}
 
-	public AVRScanner(Context ctx, IActivityShowing showing) {
+	public AVRScanner(Context ctx, IActivityShowing showing,
+			DiscoveryCache cache) {
 		this.ctx = ctx;
 		this.showing = showing;
+		this.cache = cache;
 	}
 
 	private interface  IPProvider {
 		InetAddress getIP() throws Exception;
 	}
 
-	public void scan(final IScanResultHandler handler) throws Exception {
+	public void scan(final IScanListener handler) throws Exception {
 		Logger.info("Scan: start");
 		final WiFiInfo wiFiInfo = new WiFiInfo(ctx);
 		if (!EmulationDetector.isEmulator() && !wiFiInfo.isConnected()) {
@@ -125,7 +150,7 @@ public final class AVRScanner {
 		// emulator
 		Logger.info(Build.PRODUCT + "/" + Build.DEVICE);
 
-		String netmask="";
+		int prefix = 0;
 		if (wiFiInfo.getNetmask() == 0) {
 			if (EmulationDetector.isEmulator()) {
 				provider.set(new IPProvider() {
@@ -134,7 +159,7 @@ public final class AVRScanner {
 						return InetAddress.getByName("192.168.10.1");
 					}
 				});
-				netmask=CLASS_C_MASK;
+				prefix = 24;
 			} else {
 				// no wifi/dhcp
 				final  IFConfig ifConfig = new IFConfig(ctx);
@@ -145,7 +170,7 @@ public final class AVRScanner {
 							return ifConfig.getIP();
 						}
 					});
-					netmask=ifConfig.getMask();
+					prefix = ifConfig.getPrefixLength();
 				}
 			}
 		} else {
@@ -157,152 +182,321 @@ public final class AVRScanner {
 				}
 
 				});
-			if (wiFiInfo.getNetmask() == 0xffffff) {
-				netmask=CLASS_C_MASK;
-			}
+			// DhcpInfo: Maske als int, niederwertiges Byte zuerst
+			prefix = Integer.bitCount(wiFiInfo.getNetmask());
 
 		}
 
-		if (provider.get()==null) {
-			Logger.info("no ip found");
-			CharSequence text = "Scan not possible!";
-			int duration = Toast.LENGTH_SHORT;
-
-			Toast toast = Toast.makeText(ctx, text, duration);
-			toast.show();
-			return;
+		// Der Sweep braucht Adresse und Netz, SSDP geht auch ohne
+		final int networkPrefix = prefix;
+		final boolean sweep = provider.get() != null && prefix > 0;
+		if (!sweep) {
+			Logger.info("Scan: no sweep, ip:" + (provider.get() != null)
+					+ " prefix:" + prefix);
 		}
+		if (!EmulationDetector.isEmulator()) {
+			cache.setNetwork(wiFiInfo.getFingerprint());
+		}
+		// was hier schon als Receiver geantwortet hat, dann die eingestellten
+		final List<String> recent = new ArrayList<String>(cache.getHosts());
+		for (int nr = 0; nr < AVRSettings.MAX_RECEIVERS; nr++) {
+			final String ip = AVRSettings.getAVRIP(ctx, nr);
+			if (ip.length() > 0) {
+				recent.add(ip);
+			}
+		}
+		final String[] modelNames = ctx.getResources().getStringArray(
+				R.array.modelNames);
 
+		Logger.setLocation("scan-1");
+		final AsyncTask<Void, Object, List<ScanResult>> asyncTask = new AsyncTask<Void, Object, List<ScanResult>>() {
 
-		// 255.255.255.0 / 24
-		if (CLASS_C_MASK.equals(netmask)) {
-			Logger.setLocation("scan-1");
-			final ProgressDialog progress = ProgressDialog.show(ctx,
-					ctx.getString(R.string.PleaseWait),
-					ctx.getString(R.string.ScanningNetwork), true, false);
-			final AsyncTask<InetAddress, Integer, List<ScanResult>> asyncTask = new AsyncTask<InetAddress, Integer, List<ScanResult>>() {
+			@Override
+			protected List<ScanResult> doInBackground(Void... params) {
+				Logger.setLocation("scan-1a");
+				final List<ScanResult> result = new ArrayList<ScanResult>();
+				try {
+					discover(new SsdpDiscovery.IListener() {
+						public void found(SsdpDiscovery.Device device) {
+							final ScanResult r = new ScanResult(device,
+									ModelConfigurator.findModelName(
+											modelNames, device.modelName));
+							cache.seen(r.ip, r.modelName,
+									System.currentTimeMillis());
+							result.add(r);
+							publishProgress(r);
+						}
+					});
+				} catch (Exception e) {
+					Logger.error("SSDP failed", e);
+				}
+				// Ein unbekanntes Denon-Gerät kann auch ein HEOS-Player sein,
+				// der Sweep fällt nur für einen bestätigten Receiver weg
+				if (isConfirmed(result) || !sweep || cancelled) {
+					return result;
+				}
+				final List<ScanResult> swept = new ArrayList<ScanResult>();
+				try {
+					InetAddress toScan = provider.get().getIP();
+					Logger.info("scan: ip:" + toScan.getHostAddress() + "/"
+							+ networkPrefix);
+
+					scanNetwork(toScan, networkPrefix, recent, new NioScanner.IListener() {
+						public void found(InetAddress address) {
+							Logger.info("Scan: found " + address);
+							if (contains(result, address)) {
+								return;
+							}
+							final ScanResult r = new ScanResult(address);
+							result.add(r);
+							swept.add(r);
+							publishProgress(r);
+						}
 
-				@Override
-				protected List<ScanResult> doInBackground(InetAddress... params) {
-					IPProvider p=provider.get();
-					Logger.setLocation("scan-1a");
-
-					try {
-						Logger.info("1:"+p);
-						Logger.info("2:"+p.getIP());
-						InetAddress toScan=provider.get().getIP();
-						Logger.info("scan: ip:" + toScan.getHostAddress());
-
-						return scanNetwork(toScan);
-					} catch (Exception e) {
-						e.printStackTrace();
-						Logger.error("Scan failed", e);
+						public void progress(int done, int total) {
+							publishProgress(done, total);
+						}
+					});
+				} catch (Exception e) {
+					Logger.error("Scan failed", e);
+				}
+				// Namen erst nach dem Sweep: found() kommt aus dem
+				// Selector-Thread, ein Reverse-DNS dort hält alle Probes auf
+				for (ScanResult r : swept) {
+					if (cancelled) {
+						break;
+					}
+					if (r.resolveName()) {
+						publishProgress(r, NAME_RESOLVED);
 					}
-					return Collections.emptyList();
 				}
+				return result;
+			}
 
-				@Override
-				protected void onPostExecute(List<ScanResult> result) {
-					Logger.setLocation("scan-2");
-					if (showing.isShowing()) {
-						Logger.setLocation("scan-3");
-						progress.dismiss();
-						if (result.size() > 0) {
-							handler.finished(result);
-						} else {
-							handler.error(ctx.getString(R.string.NoIpFound));
-						}
+			@Override
+			protected void onProgressUpdate(Object... values) {
+				if (!showing.isShowing()) {
+					return;
+				}
+				if (values[0] instanceof ScanResult) {
+					if (values.length > 1) {
+						handler.updated((ScanResult) values[0]);
+					} else {
+						handler.found((ScanResult) values[0]);
 					}
+				} else {
+					handler.progress((Integer) values[0], (Integer) values[1]);
 				}
-			};
-			asyncTask.execute();
-		} else {
-			handler.error(ctx.getString(R.string.AutoScanNotSupported));
+			}
+
+			@Override
+			protected void onPostExecute(List<ScanResult> result) {
+				Logger.setLocation("scan-2");
+				if (showing.isShowing()) {
+					Logger.setLocation("scan-3");
+					if (result.isEmpty() && !sweep && !cancelled) {
+						handler.error(provider.get() == null ? "Scan not possible!"
+								: ctx.getString(R.string.AutoScanNotSupported));
+					} else {
+						handler.finished(result, cancelled);
+					}
+				}
+			}
+		};
+		asyncTask.executeOnExecutor(BackgroundTasks.blockingExecutor("AVRScanner"));
+	}
+
+	private static boolean isConfirmed(List<ScanResult> result) {
+		for (ScanResult r : result) {
+			if (r.modelName != null) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	private List<ScanResult> scanNetwork(InetAddress i4)
-			throws InterruptedException {
-		final String[] parts = i4.getHostAddress().split("\\.");
-		final String prefix = parts[0] + "." + parts[1] + "." + parts[2] + ".";
-		final ScanThread[] threads = new ScanThread[SCAN_THREADS];
-		for (int i = 0; i < SCAN_THREADS; i++) {
-			threads[i] = new ScanThread(prefix, i * SCAN_THREADS, (i + 1)
-					* SCAN_THREADS - 1);
-			threads[i].start();
+	private static boolean contains(List<ScanResult> result,
+			InetAddress address) {
+		for (ScanResult r : result) {
+			if (r.address.equals(address)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
+	/**
+	 * Bricht den laufenden Suchlauf ab. Bereits gemeldete Treffer bleiben,
+	 * finished() kommt trotzdem.
+	 */
+	public void cancel() {
+		cancelled = true;
+		final SsdpDiscovery d = discovery;
+		if (d != null) {
+			d.cancel();
 		}
-		final List<ScanResult> result = new ArrayList<ScanResult>();
-		for (int i = 0; i < SCAN_THREADS; i++) {
-			threads[i].join(JOIN_TIMEOUT);
-			result.addAll(threads[i].getResult());
+		final NioScanner s = scanner;
+		if (s != null) {
+			s.cancel();
 		}
-		return result;
 	}
 
-	public static void scanIP(final Context ctx,
-			final IActivityShowing showing, final AVRApplication app,
-			final Runnable runFinished, final int nr) {
-		try {
-			final IScanResultHandler resultHandler = new AVRScanner.IScanResultHandler() {
+	private void discover(SsdpDiscovery.IListener listener) throws IOException {
+		final SsdpDiscovery d = SsdpDiscovery.multicast();
+		discovery = d;
+		if (cancelled) {
+			d.cancel();
+		}
+		d.discover(listener);
+	}
 
-				public void finished(final List<ScanResult> result) {
-					final String[] values = new String[result.size()];
-					for (int i = 0; i < result.size(); i++) {
-						values[i] = result.get(i).info;
-					}
-					new AlertDialog.Builder(ctx)
-							.setCancelable(true)
-							.setOnCancelListener(new OnCancelListener() {
+	private void scanNetwork(InetAddress own, int prefix,
+			List<String> recent, NioScanner.IListener listener)
+			throws IOException {
+		final List<InetAddress> hosts = HostRange.order(
+				HostRange.hosts(own, prefix), own, recent);
+		final NioScanner s = new NioScanner(AVRTargetTester.SCAN_PORTS,
+				AVRTargetTester.CONNECT_TIMEOUT, MAX_IN_FLIGHT,
+				CONNECTS_PER_SECOND);
+		scanner = s;
+		// cancel() kann schon vor dem Anlegen gekommen sein
+		if (cancelled) {
+			s.cancel();
+		}
+		s.scan(hosts, listener);
+	}
 
-								public void onCancel(DialogInterface dialog) {
-									runFinished.run();
-								}
-							})
-							.setTitle(R.string.SelectAVRIP)
-							.setItems(values,
-									new DialogInterface.OnClickListener() {
-										public void onClick(
-												DialogInterface dialog,
-												int which) {
-											try {
-												if (which >= 0) {
-													String ip = result
-															.get(which).ip;
-													Logger.info("selected ["
-															+ ip + "]");
-													AVRSettings.setAVRIP(ctx,
-															ip, nr);
-													app.reconfigure();
-												}
-											} finally {
-												runFinished.run();
-											}
-										}
-									}).show();
+	/**
+	 * Auswahl-Dialog, der schon während des Suchlaufs Treffer zeigt. Wer
+	 * seinen AVR sieht, tippt ihn an; der Rest des Netzes wird dann nicht mehr
+	 * abgesucht.
+	 */
+	private static final class ScanDialog implements IScanListener {
+
+		ScanDialog(Context ctx, AVRApplication app, Runnable runFinished,
+				int nr) {
+			this.ctx = ctx;
+			this.app = app;
+			this.runFinished = runFinished;
+			this.nr = nr;
+			this.adapter = new ArrayAdapter<ScanResult>(ctx,
+					android.R.layout.simple_list_item_1);
+		}
 
-				}
+		void start(final AVRScanner scanner) throws Exception {
+			this.scanner = scanner;
+			dialog = new AlertDialog.Builder(ctx)
+					.setCancelable(true)
+					.setOnCancelListener(new OnCancelListener() {
 
-				public void error(String cause) {
-					AlertDialog.Builder builder = new AlertDialog.Builder(ctx);
-					builder.setTitle(R.string.ScanFailed);
-					builder.setMessage(cause);
-					builder.setInverseBackgroundForced(true);
-					builder.setNeutralButton(R.string.OK,
+						public void onCancel(DialogInterface d) {
+							close();
+						}
+					})
+					.setTitle(R.string.ScanningNetwork)
+					.setAdapter(adapter, new DialogInterface.OnClickListener() {
+						public void onClick(DialogInterface d, int which) {
+							if (which >= 0 && which < adapter.getCount()) {
+								final String ip = adapter.getItem(which).ip;
+								Logger.info("selected [" + ip + "]");
+								AVRSettings.setAVRIP(ctx, ip, nr);
+								final String model = adapter.getItem(which).modelName;
+								app.getDiscoveryCache().seen(ip, model,
+										System.currentTimeMillis());
+								if (model != null) {
+									Logger.info("selected model [" + model
+											+ "]");
+									AVRSettings.setAVRModel(ctx, model, nr);
+								}
+								app.reconfigure();
+							}
+							close();
+						}
+					})
+					.setNegativeButton(R.string.Cancel,
 							new DialogInterface.OnClickListener() {
-								public void onClick(DialogInterface dialog,
+								public void onClick(DialogInterface d,
 										int which) {
-									runFinished.run();
+									close();
 								}
-							});
-					AlertDialog alert = builder.create();
-					alert.show();
-				}
-			};
+							}).create();
+			dialog.show();
+			scanner.scan(this);
+		}
 
-			final AVRScanner scan = new AVRScanner(ctx, showing);
-			scan.scan(resultHandler);
+		public void found(ScanResult result) {
+			adapter.add(result);
+		}
+
+		public void updated(ScanResult result) {
+			adapter.notifyDataSetChanged();
+		}
 
+		public void progress(int done, int total) {
+			if (!closed) {
+				dialog.setTitle(ctx.getString(R.string.ScanningNetwork) + " "
+						+ done + "/" + total);
+			}
+		}
+
+		public void finished(List<ScanResult> result, boolean cancelled) {
+			if (closed) {
+				return;
+			}
+			if (result.isEmpty()) {
+				dialog.dismiss();
+				error(ctx.getString(R.string.NoIpFound));
+			} else {
+				dialog.setTitle(R.string.SelectAVRIP);
+			}
+		}
+
+		public void error(String cause) {
+			closed = true;
+			if (dialog != null) {
+				dialog.dismiss();
+			}
+			AlertDialog.Builder builder = new AlertDialog.Builder(ctx);
+			builder.setTitle(R.string.ScanFailed);
+			builder.setMessage(cause);
+			builder.setInverseBackgroundForced(true);
+			builder.setNeutralButton(R.string.OK,
+					new DialogInterface.OnClickListener() {
+						public void onClick(DialogInterface d, int which) {
+							runFinished.run();
+						}
+					});
+			AlertDialog alert = builder.create();
+			alert.show();
+		}
+
+		/** Auswahl, Abbrechen oder Zurück - in jedem Fall ist Schluss. */
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			scanner.cancel();
+			dialog.dismiss();
+			runFinished.run();
+		}
+
+		private final Context ctx;
+		private final AVRApplication app;
+		private final Runnable runFinished;
+		private final int nr;
+		private final ArrayAdapter<ScanResult> adapter;
+		private AVRScanner scanner;
+		private AlertDialog dialog;
+		private boolean closed;
+	}
+
+	public static void scanIP(final Context ctx,
+			final IActivityShowing showing, final AVRApplication app,
+			final Runnable runFinished, final int nr) {
+		try {
+			new ScanDialog(ctx, app, runFinished, nr).start(new AVRScanner(
+					ctx, showing, app.getDiscoveryCache()));
 		} catch (Exception e) {
 			Logger.error("scan failed", e);
 		}
@@ -311,8 +505,15 @@ public final class AVRScanner {
 	private final Context ctx;
 
 	private final IActivityShowing showing;
-	private static final String CLASS_C_MASK = "255.255.255.0";
-	private static final int JOIN_TIMEOUT = 10000;
-	private static final int SCAN_THREADS = 16;
+	private final DiscoveryCache cache;
+	private volatile boolean cancelled;
+	private volatile SsdpDiscovery discovery;
+	private volatile NioScanner scanner;
+	// ein /22 sind 1022 Hosts: etwa 2.5sec bei 400 Connects pro Sekunde, ein
+	// /24 ist nach gut einer Sekunde durch
+	private static final int MAX_IN_FLIGHT = 128;
+	private static final int CONNECTS_PER_SECOND = 400;
+	// zweites Argument von publishProgress(): ScanResult.resolveName() fertig
+	private static final Object NAME_RESOLVED = Boolean.TRUE;
 
 }
@@ -85,6 +85,12 @@ public final class AVRTargetTester {
 		}
 	}
 
+	/**
+	 * Vorauswahl beim Suchlauf (NioScanner): HTTP (Web-Oberfläche, XML) und
+	 * Telnet (Steuerung) hat jeder AVR offen, der Rest von testAddress()
+	 * kostet pro Host mehrere Connects nacheinander.
+	 */
+	static final int[] SCAN_PORTS = { 80, 23 };
 	private final static int PING_TIMEOUT = 250;
-	private final static int CONNECT_TIMEOUT = 500;
+	final static int CONNECT_TIMEOUT = 500;
 }
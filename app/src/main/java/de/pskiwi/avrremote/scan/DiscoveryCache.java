@@ -0,0 +1,245 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Welche IPs in welchem Netz zuletzt als Receiver geantwortet haben, mit
+ * Modell und Zeitpunkt. Zwei Nutzer:
+ * <ul>
+ * <li>AVRScanner probiert diese Hosts vor allen anderen.</li>
+ * <li>Der Reconnector in ResilentConnector spart sich den Ping und die
+ * Port-Tests (checkAddress(), rund 1sec), wenn der Receiver gerade eben noch
+ * verbunden war.</li>
+ * </ul>
+ *
+ * Das Netz erkennt WiFiInfo.getFingerprint() an SSID und Gateway; dieselbe
+ * 192.168.1.20 zu Hause und im Ferienhaus sind zwei Einträge. Gespeichert
+ * wird wie StateSnapshot als kleine Binärdatei.
+ */
+public final class DiscoveryCache {
+
+	static final class Entry {
+		Entry(String ip, String model, long lastSeen) {
+			this.ip = ip;
+			this.model = model;
+			this.lastSeen = lastSeen;
+		}
+
+		final String ip;
+		String model;
+		long lastSeen;
+	}
+
+	public DiscoveryCache(File file) {
+		this.file = file;
+	}
+
+	public static File getFile(File dir) {
+		return new File(dir, "discovery.bin");
+	}
+
+	/** Bei jedem WLAN-Wechsel, "" wenn unbekannt. */
+	public synchronized void setNetwork(String fingerprint) {
+		if (!fingerprint.equals(network)) {
+			Logger.info("DiscoveryCache: network [" + fingerprint + "]");
+			network = fingerprint;
+		}
+	}
+
+	/**
+	 * @param model
+	 *            Eintrag aus modelNames, null lässt ein bekanntes stehen
+	 */
+	public synchronized void seen(String ip, String model, long now) {
+		Map<String, Entry> hosts = networks.get(network);
+		if (hosts == null) {
+			hosts = new HashMap<String, Entry>();
+			networks.put(network, hosts);
+			trim(networks, MAX_NETWORKS);
+		}
+		final Entry e = hosts.get(ip);
+		if (e == null) {
+			hosts.put(ip, new Entry(ip, model, now));
+			trimHosts(hosts);
+		} else {
+			e.lastSeen = Math.max(e.lastSeen, now);
+			if (model != null) {
+				e.model = model;
+			}
+		}
+		// zuletzt benutztes Netz ans Ende, trim() wirft vorne raus
+		networks.put(network, networks.remove(network));
+	}
+
+	/** 0 wenn im aktuellen Netz unbekannt. */
+	public synchronized long getLastSeen(String ip) {
+		final Entry e = entry(ip);
+		return e == null ? 0 : e.lastSeen;
+	}
+
+	public synchronized String getModel(String ip) {
+		final Entry e = entry(ip);
+		return e == null ? null : e.model;
+	}
+
+	/** IPs im aktuellen Netz, zuletzt gesehene zuerst. */
+	public synchronized List<String> getHosts() {
+		final Map<String, Entry> hosts = networks.get(network);
+		if (hosts == null) {
+			return Collections.emptyList();
+		}
+		final List<Entry> entries = new ArrayList<Entry>(hosts.values());
+		Collections.sort(entries, NEWEST_FIRST);
+		final List<String> ret = new ArrayList<String>();
+		for (Entry e : entries) {
+			ret.add(e.ip);
+		}
+		return ret;
+	}
+
+	private Entry entry(String ip) {
+		final Map<String, Entry> hosts = networks.get(network);
+		return hosts == null ? null : hosts.get(ip);
+	}
+
+	private static void trimHosts(Map<String, Entry> hosts) {
+		while (hosts.size() > MAX_HOSTS) {
+			final List<Entry> entries = new ArrayList<Entry>(hosts.values());
+			Collections.sort(entries, NEWEST_FIRST);
+			hosts.remove(entries.get(entries.size() - 1).ip);
+		}
+	}
+
+	private static void trim(LinkedHashMap<String, ?> map, int max) {
+		while (map.size() > max) {
+			map.remove(map.keySet().iterator().next());
+		}
+	}
+
+	synchronized void write(OutputStream os) throws IOException {
+		final DataOutputStream out = new DataOutputStream(os);
+		out.writeByte(VERSION);
+		out.writeByte(networks.size());
+		for (Map.Entry<String, Map<String, Entry>> n : networks.entrySet()) {
+			out.writeUTF(n.getKey());
+			out.writeByte(n.getValue().size());
+			for (Entry e : n.getValue().values()) {
+				out.writeUTF(e.ip);
+				out.writeUTF(e.model != null ? e.model : "");
+				out.writeLong(e.lastSeen);
+			}
+		}
+		out.flush();
+	}
+
+	synchronized void read(InputStream is) throws IOException {
+		final DataInputStream in = new DataInputStream(is);
+		networks.clear();
+		if (in.readByte() != VERSION) {
+			return;
+		}
+		final int count = in.readByte();
+		for (int n = 0; n < count; n++) {
+			final String fingerprint = in.readUTF();
+			final int size = in.readByte();
+			final Map<String, Entry> hosts = new HashMap<String, Entry>();
+			for (int i = 0; i < size; i++) {
+				final String ip = in.readUTF();
+				final String model = in.readUTF();
+				hosts.put(ip, new Entry(ip, model.length() > 0 ? model : null,
+						in.readLong()));
+			}
+			networks.put(fingerprint, hosts);
+		}
+	}
+
+	/** Über eine Temp-Datei wie StateSnapshot.save(). */
+	public void save() {
+		final File tmp = new File(file.getPath() + ".tmp");
+		try {
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tmp));
+			try {
+				write(out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				Logger.info("DiscoveryCache: rename failed " + file);
+			}
+		} catch (IOException x) {
+			Logger.error("DiscoveryCache: save failed " + file, x);
+		}
+	}
+
+	public void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			final InputStream in = new BufferedInputStream(new FileInputStream(
+					file));
+			try {
+				read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException x) {
+			Logger.error("DiscoveryCache: load failed " + file, x);
+			synchronized (this) {
+				networks.clear();
+			}
+		}
+	}
+
+	private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return a.lastSeen > b.lastSeen ? -1 : (a.lastSeen == b.lastSeen ? 0
+					: 1);
+		}
+	};
+
+	private final File file;
+	// Reihenfolge = zuletzt benutzt am Ende
+	private final LinkedHashMap<String, Map<String, Entry>> networks = new LinkedHashMap<String, Map<String, Entry>>();
+	private String network = "";
+
+	private static final int VERSION = 1;
+	// mehr Receiver als das hat niemand, auch nicht in mehreren Netzen
+	private static final int MAX_HOSTS = 8;
+	private static final int MAX_NETWORKS = 8;
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Die Hosts eines IPv4-Netzes aus Adresse und Präfixlänge, in der Reihenfolge,
+ * in der ein AVR am ehesten zu finden ist.
+ *
+ * Früher ging nur 255.255.255.0; ein /23 im AV-VLAN oder das /22 eines
+ * Mesh-Routers blieb bei AutoScanNotSupported hängen. Größer als /22 wird
+ * nicht gesucht - über 1000 Hosts sind auch mit NioScanner mehrere Sekunden,
+ * dann nur das /22 um die eigene Adresse.
+ */
+final class HostRange {
+
+	private HostRange() {
+	}
+
+	/**
+	 * Alle Hosts ohne Netz-, Broadcast- und eigene Adresse.
+	 * 
+	 * @param prefix
+	 *            Präfixlänge, z.B. 24 für 255.255.255.0
+	 */
+	static List<InetAddress> hosts(InetAddress own, int prefix)
+			throws UnknownHostException {
+		final List<InetAddress> ret = new ArrayList<InetAddress>();
+		if (prefix >= 31) {
+			return ret;
+		}
+		if (prefix < MIN_PREFIX) {
+			Logger.info("HostRange: /" + prefix + " -> /" + MIN_PREFIX);
+			prefix = MIN_PREFIX;
+		}
+		final int self = toInt(own);
+		final int mask = -1 << (32 - prefix);
+		final int network = self & mask;
+		final int broadcast = network | ~mask;
+		for (int a = network + 1; a != broadcast; a++) {
+			if (a != self) {
+				ret.add(toAddress(a));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Sortiert um: zuerst recent in der gegebenen Folge (DiscoveryCache,
+	 * eingestellte Receiver-IPs), dann die
+	 * unteren Hälften der /24-Blöcke, in denen die DHCP-Server der Router
+	 * vergeben, dann der Rest. Innerhalb jeder Stufe der eigene /24-Block
+	 * zuerst, dann aufsteigend.
+	 */
+	static List<InetAddress> order(List<InetAddress> hosts, InetAddress own,
+			Collection<String> recent) {
+		// Position in recent, die Liste ist schon nach Wahrscheinlichkeit
+		final Map<String, Integer> seen = new HashMap<String, Integer>();
+		for (String ip : recent) {
+			if (!seen.containsKey(ip)) {
+				seen.put(ip, seen.size());
+			}
+		}
+		final int ownBlock = toInt(own) >>> 8;
+		final List<InetAddress> ret = new ArrayList<InetAddress>(hosts);
+		Collections.sort(ret, new Comparator<InetAddress>() {
+			public int compare(InetAddress a, InetAddress b) {
+				final int ra = rank(a);
+				final int rb = rank(b);
+				if (ra != rb) {
+					return ra < rb ? -1 : 1;
+				}
+				// vorzeichenlos vergleichen, 192.x ist negativ
+				final int ia = toInt(a) ^ Integer.MIN_VALUE;
+				final int ib = toInt(b) ^ Integer.MIN_VALUE;
+				return ia < ib ? -1 : (ia == ib ? 0 : 1);
+			}
+
+			private int rank(InetAddress a) {
+				final Integer pos = seen.get(a.getHostAddress());
+				if (pos != null) {
+					return pos;
+				}
+				final int i = toInt(a);
+				final int tier = seen.size() + ((i & 0xff) <= LOW_HOST ? 0 : 2);
+				return (i >>> 8) == ownBlock ? tier : tier + 1;
+			}
+		});
+		return ret;
+	}
+
+	/** "255.255.254.0" -> 23, 0 wenn keine gültige Maske. */
+	static int prefixOf(String mask) {
+		// selbst zerlegen: getByName() würde bei Unsinn DNS fragen
+		final String[] parts = mask.trim().split("\\.");
+		if (parts.length != 4) {
+			return 0;
+		}
+		try {
+			int m = 0;
+			for (String p : parts) {
+				final int b = Integer.parseInt(p);
+				if (b < 0 || b > 255) {
+					return 0;
+				}
+				m = m << 8 | b;
+			}
+			final int prefix = Integer.bitCount(m);
+			// nur zusammenhängende Einsen von links
+			return m == (prefix == 0 ? 0 : -1 << (32 - prefix)) ? prefix : 0;
+		} catch (NumberFormatException x) {
+			return 0;
+		}
+	}
+
+	/** 23 -> "255.255.254.0" */
+	static String maskOf(int prefix) {
+		final int m = prefix <= 0 ? 0 : -1 << (32 - prefix);
+		return (m >>> 24) + "." + (m >>> 16 & 0xff) + "." + (m >>> 8 & 0xff)
+				+ "." + (m & 0xff);
+	}
+
+	private static int toInt(InetAddress a) {
+		final byte[] b = a.getAddress();
+		return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8
+				| (b[3] & 0xff);
+	}
+
+	private static InetAddress toAddress(int a) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] { (byte) (a >>> 24),
+				(byte) (a >>> 16), (byte) (a >>> 8), (byte) a });
+	}
+
+	// /22 = 1022 Hosts
+	static final int MIN_PREFIX = 22;
+	// .1 bis .127 eines /24: Router, DHCP-Bereich der meisten Geräte
+	private static final int LOW_HOST = 127;
+}
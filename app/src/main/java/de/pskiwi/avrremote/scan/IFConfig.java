@@ -18,6 +18,7 @@ package de.pskiwi.avrremote.scan;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
@@ -50,10 +51,13 @@ public final class IFConfig {
 				Logger.info(ni.getName()+"/"+ni.getDisplayName());
 				for (InterfaceAddress in:ni.getInterfaceAddresses()) {
 					Logger.info("    "+in.getAddress()+"/"+in.getBroadcast()+"/"+in.getNetworkPrefixLength()+" "+in.getClass().getName());
-					if ("wlan0".equals(ni.getName()) && in.getNetworkPrefixLength()==24) {
+					// jede Präfixlänge, AVRScanner rechnet das Netz selbst aus
+					if ("wlan0".equals(ni.getName())
+							&& in.getAddress() instanceof Inet4Address) {
 						ip=in.getAddress().getHostAddress();
-						mask="255.255.255.0";
-						Logger.info("match ["+ip+"]/["+mask+"]");
+						prefix=in.getNetworkPrefixLength();
+						mask=HostRange.maskOf(prefix);
+						Logger.info("match ["+ip+"]/["+prefix+"]");
 					}
 				}
 			}
@@ -120,6 +124,14 @@ public final class IFConfig {
 		return mask;
 	}
 
+	/** Präfixlänge des Netzes, 0 wenn unbekannt. */
+	public int getPrefixLength() {
+		if (prefix > 0) {
+			return prefix;
+		}
+		return mask != null ? HostRange.prefixOf(mask) : 0;
+	}
+
 	public boolean isDefined() {
 		return ip != null && mask != null;
 	}
@@ -131,6 +143,7 @@ public final class IFConfig {
 
 	private String ip;
 	private String mask;
+	private int prefix;
 	private final static Pattern MASK_A6_PATTERN = Pattern
 			.compile(".*inet addr:([\\d\\.]+)\\s+.*Mask:([\\d\\.]+)\\s+.*");
 }
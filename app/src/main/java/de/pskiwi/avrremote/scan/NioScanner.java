@@ -0,0 +1,263 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Prüft viele Hosts gleichzeitig mit nicht-blockierenden Connects an einem
+ * einzigen Selector.
+ *
+ * Früher liefen 16 Threads je ein Stück des Netzes ab, pro Host ein Ping und
+ * bis zu vier blockierende Connects mit je 500ms - ein /24 dauerte über 10sec
+ * und wurde vom JOIN_TIMEOUT abgeschnitten. Hier gehen die Connects auf den
+ * ersten Port an alle Hosts auf einmal raus (höchstens maxInFlight offen);
+ * nur wer antwortet, bekommt den nächsten Port. Ein Host zählt, wenn alle
+ * Ports angenommen haben, und wird sofort gemeldet. Ein /24 ist damit nach
+ * gut einem Connect-Timeout durch.
+ *
+ * Für größere Netze (HostRange, bis /22) begrenzt connectsPerSecond, wie
+ * schnell neue Connects rausgehen.
+ */
+final class NioScanner {
+
+	interface IListener {
+		/** Alle Ports offen - aus dem Scan-Thread. */
+		void found(InetAddress address);
+
+		/** done von total Hosts fertig (Treffer oder nicht). */
+		void progress(int done, int total);
+	}
+
+	/** Ein offener Connect-Versuch. */
+	private static final class Probe {
+		Probe(InetAddress address, int portIndex) {
+			this.address = address;
+			this.portIndex = portIndex;
+		}
+
+		private final InetAddress address;
+		private final int portIndex;
+		private long deadline;
+	}
+
+	/**
+	 * @param ports
+	 *            der Reihe nach, der nächste nur bei Erfolg des vorigen
+	 * @param connectsPerSecond
+	 *            höchstens so viele neue Connects pro Sekunde, 0 für
+	 *            unbegrenzt
+	 */
+	NioScanner(int[] ports, int connectTimeout, int maxInFlight,
+			int connectsPerSecond) {
+		this.ports = ports;
+		this.connectTimeout = connectTimeout;
+		this.maxInFlight = maxInFlight;
+		this.startInterval = connectsPerSecond <= 0 ? 0
+				: 1000000000L / connectsPerSecond;
+	}
+
+	/** Kehrt zurück, wenn alle Hosts durch sind oder cancel() kam. */
+	void scan(List<InetAddress> hosts, IListener listener) throws IOException {
+		final long start = System.currentTimeMillis();
+		final ArrayDeque<Probe> waiting = new ArrayDeque<Probe>();
+		for (InetAddress a : hosts) {
+			waiting.addLast(new Probe(a, 0));
+		}
+		total = hosts.size();
+		done = 0;
+		found = 0;
+		selector = Selector.open();
+		try {
+			while (!cancelled && (!waiting.isEmpty() || inFlight > 0)) {
+				while (inFlight < maxInFlight && !waiting.isEmpty()
+						&& mayStart()) {
+					start(waiting.removeFirst(), waiting, listener);
+				}
+				long wait = nextDeadline() - System.currentTimeMillis();
+				if (inFlight < maxInFlight && !waiting.isEmpty()) {
+					// nur die Rate hält auf
+					wait = Math.min(wait, (nextStart - System.nanoTime())
+							/ 1000000 + 1);
+				}
+				selector.select(Math.max(1, wait));
+				final Iterator<SelectionKey> it = selector.selectedKeys()
+						.iterator();
+				while (it.hasNext()) {
+					final SelectionKey key = it.next();
+					it.remove();
+					finish(key, waiting, listener);
+				}
+				expire(waiting, listener);
+			}
+		} finally {
+			for (SelectionKey k : selector.keys()) {
+				close(k.channel());
+			}
+			selector.close();
+			inFlight = 0;
+		}
+		Logger.info("NioScanner: " + done + "/" + total + " hosts, " + found
+				+ " found in " + (System.currentTimeMillis() - start) + "ms"
+				+ (cancelled ? " (cancelled)" : ""));
+	}
+
+	/** Von jedem Thread; scan() kehrt dann bald zurück. */
+	void cancel() {
+		cancelled = true;
+		final Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+
+	/**
+	 * Gleichmäßig verteilt statt in Schüben: 1000 SYN auf einmal legen
+	 * manchen WLAN-Router kurz lahm, und die Timeouts laufen dann für alle
+	 * gleichzeitig ab.
+	 */
+	private boolean mayStart() {
+		if (startInterval == 0) {
+			return true;
+		}
+		final long now = System.nanoTime();
+		if (now - nextStart < 0) {
+			return false;
+		}
+		// kein Guthaben ansparen, wenn länger nichts zu tun war
+		nextStart = Math.max(nextStart, now - startInterval) + startInterval;
+		return true;
+	}
+
+	private void start(Probe p, ArrayDeque<Probe> waiting, IListener listener) {
+		SocketChannel ch = null;
+		try {
+			ch = SocketChannel.open();
+			ch.configureBlocking(false);
+			if (ch.connect(new InetSocketAddress(p.address,
+					ports[p.portIndex]))) {
+				// lokal kann das sofort klappen
+				close(ch);
+				succeeded(p, waiting, listener);
+				return;
+			}
+			p.deadline = System.currentTimeMillis() + connectTimeout;
+			ch.register(selector, SelectionKey.OP_CONNECT, p);
+			inFlight++;
+		} catch (IOException x) {
+			close(ch);
+			failed(listener);
+		}
+	}
+
+	private void finish(SelectionKey key, ArrayDeque<Probe> waiting,
+			IListener listener) {
+		final Probe p = (Probe) key.attachment();
+		final SocketChannel ch = (SocketChannel) key.channel();
+		boolean ok;
+		try {
+			ok = ch.finishConnect();
+		} catch (IOException x) {
+			ok = false;
+		}
+		key.cancel();
+		close(ch);
+		inFlight--;
+		if (ok) {
+			succeeded(p, waiting, listener);
+		} else {
+			failed(listener);
+		}
+	}
+
+	private void expire(ArrayDeque<Probe> waiting, IListener listener) {
+		final long now = System.currentTimeMillis();
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid() && ((Probe) key.attachment()).deadline <= now) {
+				key.cancel();
+				close(key.channel());
+				inFlight--;
+				failed(listener);
+			}
+		}
+	}
+
+	private long nextDeadline() {
+		long ret = Long.MAX_VALUE;
+		for (SelectionKey key : selector.keys()) {
+			if (key.isValid()) {
+				ret = Math.min(ret, ((Probe) key.attachment()).deadline);
+			}
+		}
+		return ret == Long.MAX_VALUE ? System.currentTimeMillis()
+				+ connectTimeout : ret;
+	}
+
+	private void succeeded(Probe p, ArrayDeque<Probe> waiting,
+			IListener listener) {
+		if (p.portIndex + 1 < ports.length) {
+			// vorne einreihen: wer einen Port offen hat, ist heißer Kandidat
+			waiting.addFirst(new Probe(p.address, p.portIndex + 1));
+			return;
+		}
+		found++;
+		listener.found(p.address);
+		hostDone(listener);
+	}
+
+	private void failed(IListener listener) {
+		hostDone(listener);
+	}
+
+	private void hostDone(IListener listener) {
+		done++;
+		listener.progress(done, total);
+	}
+
+	private static void close(Channel ch) {
+		if (ch != null) {
+			try {
+				ch.close();
+			} catch (IOException x) {
+				// egal
+			}
+		}
+	}
+
+	private final int[] ports;
+	private final int connectTimeout;
+	private final int maxInFlight;
+	private final long startInterval;
+	private long nextStart = System.nanoTime();
+	private volatile boolean cancelled;
+	private volatile Selector selector;
+	private int inFlight;
+	private int total;
+	private int done;
+	private int found;
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.pskiwi.avrremote.core.BackgroundTasks;
+import de.pskiwi.avrremote.http.SecureXML;
+import de.pskiwi.avrremote.log.Logger;
+
+/**
+ * Sucht Receiver per SSDP (UPnP): ein M-SEARCH an die Multicast-Adresse, dann
+ * ein kurzes Fenster lang Antworten sammeln. Jede Antwort nennt in LOCATION
+ * die Gerätebeschreibung; daraus kommen Hersteller, Modell und der Name, den
+ * der Anwender am Receiver vergeben hat.
+ *
+ * Anders als der Sweep (NioScanner) braucht das keine Netzmaske - es geht
+ * also auch in /16- oder /23-Netzen, wo bisher nur die Handeingabe blieb.
+ * Gemeldet werden nur Geräte von Denon und Marantz; Router, Fernseher und
+ * Medienserver antworten auch. Ihre Beschreibungen werden trotzdem gelesen -
+ * nebenher (Fetches), damit ein langsames Gerät nicht das Fenster aufbraucht.
+ */
+final class SsdpDiscovery {
+
+	/** Ein Receiver aus seiner Gerätebeschreibung. */
+	static final class Device {
+		Device(InetAddress address, String manufacturer, String modelName,
+				String friendlyName) {
+			this.address = address;
+			this.manufacturer = manufacturer;
+			this.modelName = modelName;
+			this.friendlyName = friendlyName;
+		}
+
+		@Override
+		public String toString() {
+			return address.getHostAddress() + " " + manufacturer + " "
+					+ modelName + " [" + friendlyName + "]";
+		}
+
+		final InetAddress address;
+		final String manufacturer;
+		final String modelName;
+		final String friendlyName;
+	}
+
+	interface IListener {
+		/**
+		 * Aus einem Abruf-Thread, sobald die Beschreibung gelesen ist. Die
+		 * Aufrufe kommen nacheinander und nur, bis discover() zurückkehrt.
+		 */
+		void found(Device device);
+	}
+
+	/**
+	 * Liest die Beschreibungen nebenher, höchstens FETCHES zugleich; der
+	 * Empfang der Antworten wartet so nie auf HTTP. Pro Host nacheinander:
+	 * ist eine Beschreibung ein Receiver, zählen seine übrigen Root-Devices
+	 * (AVR, HEOS/AiOS, ...) nicht mehr. Hosts, deren SERVER-Header nach
+	 * Denon/Marantz aussieht, kommen vor allen anderen dran.
+	 */
+	private final class Fetches {
+
+		Fetches(IListener listener) {
+			this.listener = listener;
+		}
+
+		synchronized void add(InetAddress host, String location, boolean likely) {
+			if (closed || known.contains(host) || !tried.add(location)) {
+				return;
+			}
+			ArrayDeque<String> l = locations.get(host);
+			if (l == null) {
+				l = new ArrayDeque<String>();
+				locations.put(host, l);
+				(likely ? likelyHosts : otherHosts).addLast(host);
+			}
+			l.addLast(location);
+			if (workers < FETCHES) {
+				workers++;
+				executor.execute(worker);
+			}
+		}
+
+		/**
+		 * Wartet bis deadline auf laufende und anstehende Abrufe. Danach kommt
+		 * kein found() mehr, auch nicht von einem Abruf, der noch läuft.
+		 *
+		 * @return Anzahl gefundener Receiver
+		 */
+		synchronized int finish(long deadline) {
+			long left;
+			while (!closed && workers > 0
+					&& (left = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					wait(left);
+				} catch (InterruptedException x) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			closed = true;
+			return known.size();
+		}
+
+		synchronized void cancel() {
+			closed = true;
+			notifyAll();
+		}
+
+		private synchronized InetAddress nextHost() {
+			InetAddress h = null;
+			if (!closed) {
+				h = likelyHosts.pollFirst();
+				if (h == null) {
+					h = otherHosts.pollFirst();
+				}
+			}
+			if (h == null) {
+				workers--;
+				notifyAll();
+			}
+			return h;
+		}
+
+		private synchronized String nextLocation(InetAddress host) {
+			final String l = closed || known.contains(host) ? null
+					: locations.get(host).pollFirst();
+			if (l == null) {
+				// kommt danach noch eine LOCATION, steht der Host neu an
+				locations.remove(host);
+			}
+			return l;
+		}
+
+		private synchronized void found(Device d) {
+			if (closed) {
+				return;
+			}
+			known.add(d.address);
+			Logger.info("SSDP: found " + d);
+			listener.found(d);
+		}
+
+		private final Runnable worker = new Runnable() {
+			public void run() {
+				InetAddress host;
+				while ((host = nextHost()) != null) {
+					String location;
+					while ((location = nextLocation(host)) != null) {
+						final Device d = readDescription(host, location);
+						if (d != null) {
+							found(d);
+						}
+					}
+				}
+			}
+		};
+
+		private final IListener listener;
+		private final Set<InetAddress> known = new HashSet<InetAddress>();
+		private final Set<String> tried = new HashSet<String>();
+		// Host -> noch nicht gelesene LOCATIONs; drin, solange er ansteht
+		// oder gerade gelesen wird
+		private final Map<InetAddress, ArrayDeque<String>> locations = new HashMap<InetAddress, ArrayDeque<String>>();
+		private final ArrayDeque<InetAddress> likelyHosts = new ArrayDeque<InetAddress>();
+		private final ArrayDeque<InetAddress> otherHosts = new ArrayDeque<InetAddress>();
+		private int workers;
+		private boolean closed;
+	}
+
+	/**
+	 * @param target
+	 *            Multicast-Adresse, im Test ein lokaler Responder
+	 * @param window
+	 *            so lange nach dem M-SEARCH auf Antworten warten
+	 * @param httpTimeout
+	 *            Connect- und Lese-Timeout für die Gerätebeschreibung
+	 * @param executor
+	 *            für die Abrufe der Beschreibungen, je höchstens FETCHES
+	 */
+	SsdpDiscovery(InetSocketAddress target, int window, int httpTimeout,
+			Executor executor) {
+		this.target = target;
+		this.window = window;
+		this.httpTimeout = httpTimeout;
+		this.executor = executor;
+	}
+
+	static SsdpDiscovery multicast() {
+		return new SsdpDiscovery(new InetSocketAddress(SSDP_ADDRESS, SSDP_PORT),
+				WINDOW, HTTP_TIMEOUT, BackgroundTasks.blockingExecutor("SSDP-Description"));
+	}
+
+	/** Kehrt nach dem Fenster oder nach cancel() zurück. */
+	void discover(IListener listener) throws IOException {
+		final long start = System.currentTimeMillis();
+		final long end = start + window;
+		final Fetches f = new Fetches(listener);
+		fetches = f;
+		if (cancelled) {
+			f.cancel();
+		}
+		int responses = 0;
+		final DatagramSocket s = new DatagramSocket();
+		socket = s;
+		try {
+			final byte[] request = M_SEARCH.getBytes("US-ASCII");
+			s.send(new DatagramPacket(request, request.length, target));
+			final byte[] buffer = new byte[2048];
+			long left;
+			while (!cancelled && (left = end - System.currentTimeMillis()) > 0) {
+				s.setSoTimeout((int) left);
+				final DatagramPacket p = new DatagramPacket(buffer,
+						buffer.length);
+				try {
+					s.receive(p);
+				} catch (SocketTimeoutException x) {
+					break;
+				}
+				responses++;
+				final String response = new String(p.getData(), 0,
+						p.getLength(), "ISO-8859-1");
+				final String location = parseLocation(response);
+				if (location != null) {
+					f.add(p.getAddress(), location, isLikelyReceiver(response));
+				}
+			}
+		} catch (IOException x) {
+			// cancel() schließt den Socket
+			if (!cancelled) {
+				f.cancel();
+				throw x;
+			}
+		} finally {
+			s.close();
+		}
+		// eine Beschreibung, die im Fenster angefangen hat, darf noch fertig
+		// werden
+		final int found = f.finish(end + httpTimeout);
+		Logger.info("SSDP: " + responses + " responses, " + found
+				+ " found in " + (System.currentTimeMillis() - start) + "ms"
+				+ (cancelled ? " (cancelled)" : ""));
+	}
+
+	/** Von jedem Thread; discover() kehrt dann sofort zurück. */
+	void cancel() {
+		cancelled = true;
+		final DatagramSocket s = socket;
+		if (s != null) {
+			s.close();
+		}
+		final Fetches f = fetches;
+		if (f != null) {
+			f.cancel();
+		}
+	}
+
+	/** LOCATION aus einer Antwort, null wenn keine 200 oder keine LOCATION. */
+	static String parseLocation(String response) {
+		return parseHeader(response, "LOCATION");
+	}
+
+	/**
+	 * Nur zum Vorziehen, nicht zum Aussortieren: was SERVER meldet, legt
+	 * jeder Hersteller selbst fest, ein Receiver mit "Linux/2.6 UPnP/1.0"
+	 * muss trotzdem gefunden werden.
+	 */
+	static boolean isLikelyReceiver(String response) {
+		final String server = parseHeader(response, "SERVER");
+		if (server == null) {
+			return false;
+		}
+		final String s = server.toUpperCase(Locale.US);
+		for (String token : LIKELY_SERVER) {
+			if (s.contains(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Header aus einer Antwort, null wenn keine 200 oder nicht vorhanden. */
+	private static String parseHeader(String response, String name) {
+		final String[] lines = response.split("\r?\n");
+		if (lines.length == 0 || !lines[0].startsWith("HTTP/1.")
+				|| !lines[0].contains(" 200")) {
+			return null;
+		}
+		for (String line : lines) {
+			final int p = line.indexOf(':');
+			if (p > 0
+					&& name.equals(line.substring(0, p).trim()
+							.toUpperCase(Locale.US))) {
+				return line.substring(p + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Nur eine Beschreibung vom antwortenden Host selbst wird gelesen. Die
+	 * Antwort kommt unauthentifiziert per UDP, LOCATION könnte sonst auf
+	 * irgendeinen Rechner zeigen.
+	 */
+	private Device readDescription(InetAddress from, String location) {
+		try {
+			final URL url = new URL(location);
+			if (!"http".equals(url.getProtocol())
+					|| !from.getHostAddress().equals(url.getHost())) {
+				Logger.debug("SSDP: ignore " + location + " from " + from);
+				return null;
+			}
+			final HttpURLConnection c = (HttpURLConnection) url
+					.openConnection();
+			try {
+				c.setConnectTimeout(httpTimeout);
+				c.setReadTimeout(httpTimeout);
+				c.setRequestProperty("Accept-Encoding", "identity");
+				final InputStream in = c.getInputStream();
+				try {
+					final DescriptionParser parser = new DescriptionParser();
+					parser.parse(in);
+					if (!parser.isReceiver()) {
+						Logger.debug("SSDP: no receiver " + location + " "
+								+ parser.manufacturer);
+						return null;
+					}
+					return new Device(from, parser.manufacturer,
+							parser.modelName, parser.friendlyName);
+				} finally {
+					in.close();
+				}
+			} finally {
+				c.disconnect();
+			}
+		} catch (Exception x) {
+			Logger.info("SSDP: " + location + " failed: " + x);
+			return null;
+		}
+	}
+
+	/**
+	 * Liest aus der Gerätebeschreibung das erste manufacturer, modelName und
+	 * friendlyName - die des Root-Devices, eingebettete Geräte stehen
+	 * dahinter in der deviceList.
+	 */
+	static final class DescriptionParser extends DefaultHandler {
+
+		void parse(InputStream in) throws Exception {
+			// Dieselben Sperren wie für den Receiver-Status, Begründung in
+			// SecureXML. Auch diese Beschreibung kommt unauthentifiziert aus
+			// dem LAN.
+			SecureXML.newParser().parse(in, this);
+		}
+
+		/**
+		 * Denon oder Marantz und kein Lautsprecher. CD- und Netzwerk-Player
+		 * kommen trotzdem durch; erst ein Treffer in modelNames
+		 * (AVRScanner) bestätigt einen Receiver.
+		 */
+		boolean isReceiver() {
+			if (manufacturer == null || modelName == null) {
+				return false;
+			}
+			final String m = manufacturer.toUpperCase(Locale.US);
+			if (!m.contains("DENON") && !m.contains("MARANTZ")) {
+				return false;
+			}
+			final String model = modelName.toUpperCase(Locale.US);
+			for (String speaker : SPEAKERS) {
+				if (model.contains(speaker)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) {
+			current = localName.length() > 0 ? localName : qName;
+			text.setLength(0);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (current != null) {
+				text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if (current == null) {
+				return;
+			}
+			final String value = text.toString().trim();
+			if ("manufacturer".equals(current) && manufacturer == null) {
+				manufacturer = value;
+			} else if ("modelName".equals(current) && modelName == null) {
+				modelName = value;
+			} else if ("friendlyName".equals(current) && friendlyName == null) {
+				friendlyName = value;
+			}
+			current = null;
+		}
+
+		private String current;
+		private final StringBuilder text = new StringBuilder();
+		String manufacturer;
+		String modelName;
+		String friendlyName;
+	}
+
+	private final InetSocketAddress target;
+	private final int window;
+	private final int httpTimeout;
+	private final Executor executor;
+	private volatile boolean cancelled;
+	private volatile DatagramSocket socket;
+	private volatile Fetches fetches;
+
+	private static final String SSDP_ADDRESS = "239.255.255.250";
+	private static final int SSDP_PORT = 1900;
+	// MX 1 ist das Minimum; die meisten Geräte antworten ohnehin sofort
+	private static final String M_SEARCH = "M-SEARCH * HTTP/1.1\r\n"
+			+ "HOST: 239.255.255.250:1900\r\n" + "MAN: \"ssdp:discover\"\r\n"
+			+ "MX: 1\r\n" + "ST: upnp:rootdevice\r\n\r\n";
+	// Fenster plus eine Beschreibung: unter einer Sekunde
+	static final int WINDOW = 700;
+	static final int HTTP_TIMEOUT = 250;
+	// gleichzeitige Abrufe von Beschreibungen
+	static final int FETCHES = 4;
+	// HEOS 1/3/5/7, HEOS Bar, Denon Home 150/250/350
+	private static final String[] SPEAKERS = { "HEOS", "HOME" };
+	// KnOS ist das Betriebssystem der HEOS-Generation
+	private static final String[] LIKELY_SERVER = { "DENON", "MARANTZ",
+			"KNOS", "HEOS" };
+
+}
@@ -24,6 +24,7 @@ import android.net.ConnectivityManager;
 import android.net.DhcpInfo;
 import android.net.Network;
 import android.net.NetworkCapabilities;
+import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import de.pskiwi.avrremote.log.Logger;
 
@@ -137,6 +138,34 @@ public class WiFiInfo {
 		return address;
 	}
 
+	/**
+	 * Erkennungszeichen des Netzes für DiscoveryCache: SSID und Gateway. Die
+	 * SSID gibt es seit Android 8.1 nur mit Standort-Berechtigung, sonst
+	 * "&lt;unknown ssid&gt;" - dann bleibt das Gateway. Die BSSID taugt nicht,
+	 * die wechselt mit jedem Access-Point eines Mesh.
+	 */
+	public String getFingerprint() {
+		final StringBuilder ret = new StringBuilder();
+		final WifiInfo info = wifi.getConnectionInfo();
+		final String ssid = info != null ? info.getSSID() : null;
+		if (ssid != null && !UNKNOWN_SSID.equals(ssid)) {
+			ret.append(ssid);
+		}
+		final DhcpInfo dhcp = wifi.getDhcpInfo();
+		if (dhcp != null && dhcp.gateway != 0) {
+			try {
+				ret.append("/").append(
+						InetAddress.getByAddress(
+								convertIntToByteArray(dhcp.gateway))
+								.getHostAddress());
+			} catch (Exception x) {
+				Logger.error("gateway", x);
+			}
+		}
+		return ret.toString();
+	}
+
 	private final WifiManager wifi;
 	private final ConnectivityManager connectivity;
+	private static final String UNKNOWN_SSID = "<unknown ssid>";
 }
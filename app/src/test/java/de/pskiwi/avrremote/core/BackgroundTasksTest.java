@@ -0,0 +1,204 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * BackgroundTasks ersetzt die eigenen Threads. Geprüft wird, was die
+ * Aufrufer vorher vom Thread hatten: Name im Log, interrupt() beim Stoppen,
+ * und dass die Verbindungs-Schleifen den begrenzten io-Pool nicht belegen.
+ */
+public final class BackgroundTasksTest {
+
+	/** Blockiert, bis release() kommt. */
+	private static final class Blocker implements Runnable {
+
+		public void run() {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException x) {
+				interrupted.countDown();
+			}
+		}
+
+		void release() {
+			release.countDown();
+		}
+
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final CountDownLatch interrupted = new CountDownLatch(1);
+	}
+
+	@Test
+	public void taskRunsUnderItsName() throws Exception {
+		final AtomicReference<String> name = new AtomicReference<String>();
+		BackgroundTasks.io("StateSnapshotWriter", new Runnable() {
+			public void run() {
+				name.set(Thread.currentThread().getName());
+			}
+		}).get(5, TimeUnit.SECONDS);
+
+		assertEquals("StateSnapshotWriter", name.get());
+	}
+
+	/** ThreadHandler.stop() und Connector.close() verlassen sich darauf. */
+	@Test
+	public void cancelInterruptsALoop() throws Exception {
+		final Blocker b = new Blocker();
+		final Future<?> f = BackgroundTasks.loop("receiver", b);
+		assertTrue(b.started.await(5, TimeUnit.SECONDS));
+
+		f.cancel(true);
+		assertTrue(b.interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	/** Mehr Verbindungs-Schleifen als io-Threads: io läuft trotzdem. */
+	@Test
+	public void loopsDoNotTakeTheIoPool() throws Exception {
+		final List<Blocker> loops = new ArrayList<Blocker>();
+		try {
+			for (int i = 0; i < BackgroundTasks.IO_THREADS + 2; i++) {
+				final Blocker b = new Blocker();
+				loops.add(b);
+				BackgroundTasks.loop("sender", b);
+				assertTrue(b.started.await(5, TimeUnit.SECONDS));
+			}
+			final CountDownLatch ran = new CountDownLatch(1);
+			BackgroundTasks.io("LoadXMLStatus", new Runnable() {
+				public void run() {
+					ran.countDown();
+				}
+			});
+			assertTrue(ran.await(5, TimeUnit.SECONDS));
+		} finally {
+			for (Blocker b : loops) {
+				b.release();
+			}
+		}
+	}
+
+	/**
+	 * Mehr wartende Aufgaben (StateCheckThread, LoadXMLStatus, Makros) als
+	 * io-Threads: die Probe beim Reconnect kommt trotzdem sofort dran.
+	 */
+	@Test
+	public void blockingTasksDoNotTakeTheIoPool() throws Exception {
+		final List<Blocker> waiting = new ArrayList<Blocker>();
+		try {
+			for (int i = 0; i < BackgroundTasks.IO_THREADS + 2; i++) {
+				final Blocker b = new Blocker();
+				waiting.add(b);
+				BackgroundTasks.blocking("StateCheckThread", b);
+				assertTrue(b.started.await(5, TimeUnit.SECONDS));
+			}
+			final CountDownLatch ran = new CountDownLatch(1);
+			BackgroundTasks.io("ReachabilityProbe-1", new Runnable() {
+				public void run() {
+					ran.countDown();
+				}
+			});
+			assertTrue(ran.await(5, TimeUnit.SECONDS));
+		} finally {
+			for (Blocker b : waiting) {
+				b.release();
+			}
+		}
+	}
+
+	/** Der io-Pool ist begrenzt, weitere Aufgaben warten in der Schlange. */
+	@Test
+	public void ioIsBounded() throws Exception {
+		final List<Blocker> busy = new ArrayList<Blocker>();
+		try {
+			for (int i = 0; i < BackgroundTasks.IO_THREADS; i++) {
+				final Blocker b = new Blocker();
+				busy.add(b);
+				BackgroundTasks.io("busy-" + i, b);
+				assertTrue(b.started.await(5, TimeUnit.SECONDS));
+			}
+			final Blocker queued = new Blocker();
+			BackgroundTasks.io("queued", queued);
+			assertFalse(queued.started.await(200, TimeUnit.MILLISECONDS));
+			assertTrue(BackgroundTasks.checkStuck(System.currentTimeMillis()
+					+ BackgroundTasks.STUCK_TIME) >= BackgroundTasks.IO_THREADS);
+
+			busy.get(0).release();
+			assertTrue(queued.started.await(5, TimeUnit.SECONDS));
+			queued.release();
+		} finally {
+			for (Blocker b : busy) {
+				b.release();
+			}
+		}
+	}
+
+	@Test
+	public void serialKeepsTheOrder() throws Exception {
+		final Executor serial = BackgroundTasks.serial("NetDisplay-move");
+		final List<Integer> order = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(5);
+		for (int i = 0; i < 5; i++) {
+			final int nr = i;
+			serial.execute(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException x) {
+						return;
+					}
+					order.add(nr);
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+	}
+
+	@Test
+	public void cancelledScheduleDoesNotRun() throws Exception {
+		final CountDownLatch ran = new CountDownLatch(1);
+		final Runnable r = new Runnable() {
+			public void run() {
+				ran.countDown();
+			}
+		};
+		BackgroundTasks.schedule("StopConnector-Timer", r, 300).cancel(false);
+		assertFalse(ran.await(500, TimeUnit.MILLISECONDS));
+
+		BackgroundTasks.schedule("StopConnector-Timer", r, 10);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+}
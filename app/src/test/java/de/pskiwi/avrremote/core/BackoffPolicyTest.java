@@ -0,0 +1,107 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * BackoffPolicy mit erfundenen Zeitpunkten und festem Seed, wie SendPacerTest.
+ */
+public final class BackoffPolicyTest {
+
+	private static void assertInStep(long delay, int attempts) {
+		final long full = BackoffPolicy.maxDelay(attempts);
+		assertTrue(delay + " nicht in [" + full / 2 + "," + full + "]",
+				delay >= full / 2 && delay <= full);
+	}
+
+	@Test
+	public void delaysDoubleUpToTheCap() {
+		final BackoffPolicy p = new BackoffPolicy(new Random(1));
+		for (int i = 0; i < 10; i++) {
+			assertInStep(p.nextDelay(i * 20000), i);
+		}
+		assertEquals(BackoffPolicy.MAX_DELAY, BackoffPolicy.maxDelay(9));
+	}
+
+	/** Derselbe Seed, dieselbe Folge - sonst wäre hier nichts zu testen. */
+	@Test
+	public void sameSeedSameSchedule() {
+		final BackoffPolicy a = new BackoffPolicy(new Random(42));
+		final BackoffPolicy b = new BackoffPolicy(new Random(42));
+		for (int i = 0; i < 8; i++) {
+			assertEquals(a.nextDelay(0), b.nextDelay(0));
+		}
+	}
+
+	/** Viele Geräte an der Obergrenze warten nicht alle gleich lang. */
+	@Test
+	public void jitterSpreadsTheDevices() {
+		final Set<Long> delays = new HashSet<Long>();
+		for (int seed = 0; seed < 20; seed++) {
+			final BackoffPolicy p = new BackoffPolicy(new Random(seed));
+			long d = 0;
+			for (int i = 0; i < 6; i++) {
+				d = p.nextDelay(0);
+			}
+			assertInStep(d, 5);
+			delays.add(d);
+		}
+		assertTrue(delays.size() > 10);
+	}
+
+	/** Netz zurück: die nächste Wartezeit ist wieder die kürzeste. */
+	@Test
+	public void resetCollapsesTheBackoff() {
+		final BackoffPolicy p = new BackoffPolicy(new Random(3));
+		for (int i = 0; i < 6; i++) {
+			p.nextDelay(0);
+		}
+		p.reset();
+		assertInStep(p.nextDelay(0), 0);
+	}
+
+	/** Belegter Telnet-Platz: Connect klappt, Verbindung fällt sofort. */
+	@Test
+	public void shortConnectionKeepsTheBackoff() {
+		final BackoffPolicy p = new BackoffPolicy(new Random(5));
+		long now = 0;
+		for (int i = 0; i < 3; i++) {
+			now += p.nextDelay(now);
+			p.connected(now);
+			now += 500;
+		}
+		assertInStep(p.nextDelay(now), 3);
+	}
+
+	@Test
+	public void stableConnectionResetsTheBackoff() {
+		final BackoffPolicy p = new BackoffPolicy(new Random(5));
+		for (int i = 0; i < 4; i++) {
+			p.nextDelay(0);
+		}
+		p.connected(1000);
+		assertInStep(p.nextDelay(1000 + BackoffPolicy.STABLE_TIME), 0);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * ChangeBatcher mit einem Frame-Executor, der die Aufträge nur sammelt - ein
+ * "Frame" ist hier ein Aufruf von {@link #frame()}.
+ */
+public final class ChangeBatcherTest {
+
+	private final List<Runnable> frames = new ArrayList<Runnable>();
+	private final List<String> delivered = new ArrayList<String>();
+	private final ChangeBatcher batcher = new ChangeBatcher(new IGUIExecutor() {
+		public void execute(Runnable r) {
+			frames.add(r);
+		}
+	});
+
+	private void frame() {
+		final List<Runnable> run = new ArrayList<Runnable>(frames);
+		frames.clear();
+		for (Runnable r : run) {
+			r.run();
+		}
+	}
+
+	private Runnable deliver(final String name) {
+		return new Runnable() {
+			public void run() {
+				delivered.add(name);
+			}
+		};
+	}
+
+	@Test
+	public void oneFramePerBurst() {
+		for (int i = 0; i < 100; i++) {
+			batcher.mark("MV", deliver("MV"));
+			batcher.mark("SI", deliver("SI"));
+		}
+		assertEquals(1, frames.size());
+
+		frame();
+		assertEquals(Arrays.asList("MV", "SI"), delivered);
+	}
+
+	/** Die Auslieferung liest den Wert erst im Frame, also den letzten. */
+	@Test
+	public void deliveryReadsTheLatestValue() {
+		final int[] value = { 0 };
+		final Runnable r = new Runnable() {
+			public void run() {
+				delivered.add("MV" + value[0]);
+			}
+		};
+		for (int i = 1; i <= 5; i++) {
+			value[0] = i;
+			batcher.mark("MV", r);
+		}
+		frame();
+
+		assertEquals(Arrays.asList("MV5"), delivered);
+	}
+
+	@Test
+	public void laterChangeGoesIntoTheNextFrame() {
+		batcher.mark("MV", deliver("MV"));
+		frame();
+		batcher.mark("MV", deliver("MV"));
+		assertEquals(1, frames.size());
+		frame();
+
+		assertEquals(Arrays.asList("MV", "MV"), delivered);
+	}
+
+	/** Wer während der Auslieferung markiert, bekommt einen neuen Frame. */
+	@Test
+	public void markDuringDrainIsNotLost() {
+		batcher.mark("PW", new Runnable() {
+			public void run() {
+				delivered.add("PW");
+				batcher.mark("ZM", deliver("ZM"));
+			}
+		});
+		frame();
+		assertEquals(Arrays.asList("PW"), delivered);
+		assertEquals(1, frames.size());
+
+		frame();
+		assertEquals(Arrays.asList("PW", "ZM"), delivered);
+	}
+
+	@Test
+	public void nothingMarkedNothingPosted() {
+		frame();
+		assertEquals(0, frames.size());
+		assertEquals(0, delivered.size());
+	}
+}
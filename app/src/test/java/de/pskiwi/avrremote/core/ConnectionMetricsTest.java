@@ -0,0 +1,148 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import de.pskiwi.avrremote.core.ConnectionMetrics.Cause;
+import de.pskiwi.avrremote.core.ConnectionMetrics.Histogram;
+import de.pskiwi.avrremote.core.ConnectionMetrics.Rate;
+import de.pskiwi.avrremote.core.ConnectionMetrics.Slot;
+
+/**
+ * ConnectionMetrics mit erfundenen Zeitpunkten, auf einer eigenen Instanz
+ * statt der globalen.
+ */
+public final class ConnectionMetricsTest {
+
+	@Test
+	public void histogramSortsIntoFixedBuckets() {
+		final Histogram h = new Histogram(new long[] { 100, 1000 });
+		h.add(0);
+		h.add(100);
+		h.add(101);
+		h.add(5000);
+
+		assertEquals(2, h.getBucket(0));
+		assertEquals(1, h.getBucket(1));
+		assertEquals(1, h.getBucket(2));
+		assertEquals("n:4 avg:1300 max:5000 | <=100:2 <=1000:1 >1000:1",
+				h.toString());
+	}
+
+	@Test
+	public void rateKeepsThePeakSecond() {
+		final Rate r = new Rate();
+		r.add(0);
+		r.add(999);
+		r.add(1000);
+		r.add(1500);
+		r.add(1600);
+		r.add(5000);
+
+		assertEquals(6, r.getTotal());
+		assertEquals(3, r.getPeak());
+		assertEquals("total:6 avg/s:1 peak/s:3", r.format(6000));
+	}
+
+	/** Jeder Receiver-Slot zählt für sich. */
+	@Test
+	public void slotsAreSeparate() {
+		final ConnectionMetrics m = new ConnectionMetrics(2);
+		m.select(1);
+		m.connected(300, 1000);
+		m.reconnect(Cause.LIVENESS, 31000);
+		m.reconnect(Cause.CONNECT_FAILED, 33000);
+
+		final Slot s = m.getSlot(1);
+		assertEquals(1, s.connect.getCount());
+		assertEquals(2, s.reconnects);
+		assertEquals(1, s.causes[Cause.LIVENESS.ordinal()]);
+		assertEquals(30000, s.getConnectedMillis(40000));
+		assertFalse(m.getSlot(0).isUsed());
+	}
+
+	@Test
+	public void linesAreCountedByTheirFirstTwoLetters() {
+		final ConnectionMetrics m = new ConnectionMetrics(1);
+		m.connected(100, 0);
+		m.lineReceived(new InData("MV505"), 10);
+		m.lineReceived(new InData("MVMAX 80"), 20);
+		m.lineReceived(new InData("PWON"), 30);
+		m.lineReceived(new InData("?"), 40);
+
+		final String dump = m.dump();
+		assertTrue(dump, dump.contains("by prefix  : MV:2 PW:1 ?:1"));
+		assertTrue(dump, dump.contains("lines      : total:4"));
+	}
+
+	@Test
+	public void dumpShowsCausesAndQueue() {
+		final ConnectionMetrics m = new ConnectionMetrics(1);
+		m.connected(120, 0);
+		m.queued(7);
+		m.queued(3);
+		m.queueWait(40);
+		m.stateComplete(1800, 2);
+		m.reconnect(Cause.CLOSED, 10000);
+
+		final String dump = m.dump();
+		assertTrue(dump, dump.contains("reconnects : 1 CLOSED:1"));
+		assertTrue(dump, dump.contains("queue      : maxDepth:7"));
+		assertTrue(dump, dump.contains("requeries  : 2 in 1 state checks"));
+		assertTrue(dump, dump.contains("-- receiver 0 (current)"));
+	}
+
+	/** Der Empfangs- und Sendeweg darf nichts allokieren. */
+	@Test
+	public void hotPathDoesNotAllocate() {
+		final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		final com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) mx;
+		final long tid = Thread.currentThread().getId();
+		final ConnectionMetrics m = new ConnectionMetrics(1);
+		final InData line = new InData("NSE1 Station");
+		for (int i = 0; i < 1000; i++) {
+			hotPath(m, line, i);
+		}
+		final long before = sun.getThreadAllocatedBytes(tid);
+		for (int i = 0; i < ROUNDS; i++) {
+			hotPath(m, line, i);
+		}
+		final long bytes = sun.getThreadAllocatedBytes(tid) - before;
+		// ein paar Bytes für den Messaufruf selbst, keine pro Runde
+		assertTrue(bytes + " bytes", bytes < ROUNDS / 10);
+	}
+
+	private static void hotPath(ConnectionMetrics m, InData line, long now) {
+		m.lineReceived(line, now);
+		m.queued(3);
+		m.queueWait(now % 200);
+		m.commandSent(now);
+	}
+
+	private static final int ROUNDS = 100000;
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Connector gegen einen lokalen Server-Socket als Stand-in für den
+ * Telnet-Port. Es geht um den Start - statt einer festen Sekunde wartet der
+ * Sender auf die erste Antwort - und um die Nachfrage bei Stille.
+ */
+public final class ConnectorTest {
+
+	private static final IEventListener IGNORE = new IEventListener() {
+		public void received(InData s) {
+		}
+	};
+
+	@Before
+	public void open() throws IOException {
+		server = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+	}
+
+	@After
+	public void close() throws IOException {
+		if (connector != null) {
+			connector.close();
+		}
+		if (client != null) {
+			client.close();
+		}
+		server.close();
+	}
+
+	private Connector connect() throws Exception {
+		return connect(new LivenessMonitor(60000, 3000));
+	}
+
+	private Connector connect(LivenessMonitor liveness) throws Exception {
+		connector = new Connector(new ConnectionConfiguration("127.0.0.1:"
+				+ server.getLocalPort()), new SendPacer(0), liveness, IGNORE);
+		client = server.accept();
+		client.setSoTimeout(3000);
+		return connector;
+	}
+
+	/** Eine Zeile bis CR. */
+	private String readLine() throws IOException {
+		final InputStream in = client.getInputStream();
+		final StringBuilder ret = new StringBuilder();
+		int ch;
+		while ((ch = in.read()) != -1 && ch != '\r') {
+			ret.append((char) ch);
+		}
+		return ret.toString();
+	}
+
+	private void answer(String line) throws IOException {
+		final OutputStream out = client.getOutputStream();
+		out.write((line + "\r").getBytes("US-ASCII"));
+		out.flush();
+	}
+
+	@Test
+	public void readyWithTheFirstAnswer() throws Exception {
+		final Connector c = connect();
+		c.send("MVUP");
+
+		assertEquals("PW?", readLine());
+		assertFalse(c.awaitReady(50));
+		final long answeredAt = System.currentTimeMillis();
+		answer("PWON");
+
+		assertTrue(c.awaitReady(1000));
+		assertEquals("MVUP", readLine());
+		assertTrue(System.currentTimeMillis() - answeredAt < 500);
+	}
+
+	/** Ein Gerät, das nicht antwortet, bekommt die Befehle wie früher nach einer Sekunde. */
+	@Test
+	public void silentReceiverStillGetsCommands() throws Exception {
+		final Connector c = connect();
+		final long start = System.currentTimeMillis();
+		c.send("MVUP");
+
+		assertEquals("PW?", readLine());
+		assertEquals("MVUP", readLine());
+		assertTrue(System.currentTimeMillis() - start >= Connector.READY_TIMEOUT - 50);
+		assertFalse(c.awaitReady(0));
+	}
+
+	/** Geht die Verbindung zu, wartet niemand mehr auf die erste Zeile. */
+	@Test
+	public void closedStreamReleasesTheWait() throws Exception {
+		final Connector c = connect();
+		client.close();
+
+		assertTrue(c.awaitReady(1000));
+	}
+
+	/**
+	 * Halb offen: der Socket steht, aber vom Receiver kommt nichts mehr. Der
+	 * Connector fragt zweimal nach und schließt dann selbst.
+	 */
+	@Test
+	public void silentConnectionIsClosedAfterTwoProbes() throws Exception {
+		final LivenessMonitor liveness = new LivenessMonitor(200, 100);
+		final Connector c = connect(liveness);
+		assertEquals("PW?", readLine());
+		answer("PWON");
+		final long answeredAt = System.currentTimeMillis();
+
+		assertEquals("PW?", readLine());
+		assertEquals("PW?", readLine());
+		final CountDownLatch closed = new CountDownLatch(1);
+		final Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					c.waitUntilClosed();
+					closed.countDown();
+				} catch (InterruptedException x) {
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+
+		assertTrue(closed.await(2, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - answeredAt >= 400 - 50);
+		assertEquals(2, liveness.getProbes());
+		assertEquals(-1, client.getInputStream().read());
+	}
+
+	/** Antwortet der Receiver auf die Nachfrage, bleibt die Verbindung. */
+	@Test
+	public void answeredProbeKeepsTheConnection() throws Exception {
+		final LivenessMonitor liveness = new LivenessMonitor(200, 500);
+		final Connector c = connect(liveness);
+		assertEquals("PW?", readLine());
+		answer("PWON");
+
+		assertEquals("PW?", readLine());
+		answer("PWON");
+		assertEquals("PW?", readLine());
+		answer("PWSTANDBY");
+
+		assertTrue(c.isConnected());
+		assertEquals(0, liveness.getFalseAlarms());
+	}
+
+	private ServerSocket server;
+	private Socket client;
+	private Connector connector;
+}
@@ -17,6 +17,8 @@
 package de.pskiwi.avrremote.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -41,12 +43,11 @@ import org.junit.Test;
  * nullterminierter Text - ist in beiden derselbe, die Bedeutung der einzelnen
  * Zeilennummern nicht (siehe NetDisplayTest).
  *
- * Alle Fälle hier benutzen den String-Konstruktor, bei dem data.length und
- * count übereinstimmen. Im Betrieb kommt der andere zum Zug: Connector reicht
- * seinen festen Puffer samt getrennter Länge herein. extractLine läuft bis
- * data.length und nicht bis count, geht also über das Ende der Nutzlast
- * hinaus - dass dabei nichts Fremdes anfällt, hängt daran, dass der Puffer je
- * Lesevorgang mit Nullen anfängt. Das ist hier nicht abgedeckt.
+ * Die meisten Fälle hier benutzen den String-Konstruktor, bei dem
+ * data.length und count übereinstimmen. Im Betrieb kommt der andere zum Zug:
+ * LineFramer reicht seinen festen Puffer samt getrennter Länge herein, und
+ * zwar für jede Zeile denselben. Dahinter steht dann noch die vorige Zeile -
+ * das decken die Fälle mit reset() ab.
  */
 public final class InDataTest {
 
@@ -96,4 +97,62 @@ public final class InDataTest {
 		assertEquals(' ', d.charAt(1));
 		assertEquals("Jazz Radio", d.extractLine(2));
 	}
+
+	/**
+	 * Der Puffer wird für die nächste Zeile wiederverwendet. extractLine darf
+	 * nur bis count lesen, sonst hängt der Rest der längeren Vorgängerzeile
+	 * hinten dran.
+	 */
+	@Test
+	public void extractLineEndsAtCountInAReusedBuffer() {
+		final char[] buffer = new char[64];
+		final InData d = new InData(buffer, 0);
+		fill(d, buffer, "1 Jazz Radio Stuttgart");
+		fill(d, buffer, "1 Jazz");
+
+		assertEquals("Jazz", d.extractLine(2));
+	}
+
+	/** reset() nimmt auch den Versatz der vorigen Zeile zurück. */
+	@Test
+	public void resetClearsTheOffset() {
+		final char[] buffer = new char[64];
+		final InData d = new InData(buffer, 0);
+		fill(d, buffer, "MV505");
+		d.setOffset(2);
+		fill(d, buffer, "PWON");
+
+		assertEquals("PWON", d.toString());
+	}
+
+	/** contentEquals vergleicht ab dem Versatz, wie toString().equals(). */
+	@Test
+	public void contentEqualsComparesFromTheOffset() {
+		final InData d = new InData("PWSTANDBY");
+		d.setOffset(2);
+
+		assertTrue(d.contentEquals("STANDBY"));
+		assertFalse(d.contentEquals("STANDB"));
+		assertFalse(d.contentEquals("ON"));
+	}
+
+	/** Ziffern direkt aus dem Puffer, Sonderfälle wie bisher. */
+	@Test
+	public void asNumberReadsTheDigits() {
+		assertEquals(505, number("MV505"));
+		assertEquals(50, number("MV 50 "));
+		assertEquals(-1, number("MVOFF"));
+		assertEquals(-5, number("MV-5"));
+	}
+
+	private static int number(String line) {
+		final InData d = new InData(line);
+		d.setOffset(2);
+		return d.asNumber();
+	}
+
+	private static void fill(InData d, char[] buffer, String line) {
+		line.getChars(0, line.length(), buffer, 0);
+		d.reset(line.length());
+	}
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public final class LastLinesTest {
+
+	/**
+	 * STEREO -> DOLBY DIGITAL -> STEREO: übrig bleibt nur die letzte
+	 * Surround-Zeile, nicht eine pro Wort vor dem Leerzeichen.
+	 */
+	@Test
+	public void selectWithSpaceKeepsOneLine() {
+		final LastLines l = new LastLines();
+		l.put("MS", "STEREO", false);
+		l.put("MS", "DOLBY DIGITAL", false);
+		l.put("MS", "STEREO", false);
+
+		assertEquals(Arrays.asList("MSSTEREO"), l.get());
+	}
+
+	/** Unterbefehle bleiben getrennt, jeder mit seinem letzten Wert. */
+	@Test
+	public void subCommandsKeyedByFirstWord() {
+		final LastLines l = new LastLines();
+		l.put("CV", "FL 50", true);
+		l.put("CV", "FR 48", true);
+		l.put("MV", "505", true);
+		l.put("MV", "MAX 98", true);
+		l.put("CV", "FL 52", true);
+
+		assertEquals(Arrays.asList("CVFR 48", "MV505", "MVMAX 98", "CVFL 52"),
+				l.get());
+	}
+
+	/** Die jüngste Zeile steht hinten und wird zuletzt angewendet. */
+	@Test
+	public void latestLineMovesToEnd() {
+		final LastLines l = new LastLines();
+		l.put("SI", "TUNER", false);
+		l.put("MU", "OFF", false);
+		l.put("SI", "NET", false);
+
+		assertEquals(Arrays.asList("MUOFF", "SINET"), l.get());
+	}
+}
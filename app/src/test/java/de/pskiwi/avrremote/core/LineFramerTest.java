@@ -0,0 +1,170 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * LineFramer zerlegt den Telnet-Strom an CR. Die Ausnahme steht im DENON AVR
+ * control protocol Ver. 5.2 beim Ereignis NSA: hinter der Zeilenziffer 1 bis
+ * 8 folgt ein Flag-Byte (Cursor, Playable), und das darf jeden Wert haben -
+ * auch 0x0D. Zeile 0 hat kein Flag-Byte, dort ist ein CR ein CR.
+ *
+ * Der Socket liefert die Bytes in Blöcken, deren Grenzen nichts mit den
+ * Zeilen zu tun haben. Deshalb läuft jeder Fall auch Byte für Byte.
+ */
+public final class LineFramerTest {
+
+	private static final char FLAG_CR = '\r';
+
+	/** Sammelt die Zeilen als String - die InData selbst wird wiederverwendet. */
+	private static final class Collector implements IEventListener {
+
+		public void received(InData s) {
+			lines.add(s.toString());
+		}
+
+		private final List<String> lines = new ArrayList<String>();
+	}
+
+	private static byte[] bytes(String s) {
+		final byte[] ret = new byte[s.length()];
+		for (int i = 0; i < s.length(); i++) {
+			ret[i] = (byte) s.charAt(i);
+		}
+		return ret;
+	}
+
+	/** Alles in einem Block. */
+	private static List<String> frame(String stream) {
+		final Collector c = new Collector();
+		final byte[] b = bytes(stream);
+		new LineFramer(c).feed(b, 0, b.length);
+		return c.lines;
+	}
+
+	/** Derselbe Strom, ein Byte pro Block. */
+	private static List<String> frameBytewise(String stream) {
+		final Collector c = new Collector();
+		final LineFramer f = new LineFramer(c);
+		final byte[] b = bytes(stream);
+		for (int i = 0; i < b.length; i++) {
+			f.feed(b, i, 1);
+		}
+		return c.lines;
+	}
+
+	private static void assertFrames(String stream, String... expected) {
+		assertEquals(Arrays.asList(expected), frame(stream));
+		assertEquals(Arrays.asList(expected), frameBytewise(stream));
+	}
+
+	@Test
+	public void splitsAtCR() {
+		assertFrames("PWON\rMV505\r", "PWON", "MV505");
+	}
+
+	/** Was nach dem letzten CR kommt, wartet auf den nächsten Block. */
+	@Test
+	public void incompleteLineWaitsForTheNextChunk() {
+		final Collector c = new Collector();
+		final LineFramer f = new LineFramer(c);
+		final byte[] first = bytes("PWON\rMV5");
+		final byte[] second = bytes("05\r");
+		f.feed(first, 0, first.length);
+
+		assertEquals(Arrays.asList("PWON"), c.lines);
+		assertEquals(3, f.getPending());
+
+		f.feed(second, 0, second.length);
+		assertEquals(Arrays.asList("PWON", "MV505"), c.lines);
+		assertEquals(0, f.getPending());
+	}
+
+	/** Offset und Länge des Blocks gelten, nicht das ganze Array. */
+	@Test
+	public void onlyTheGivenRangeIsRead() {
+		final Collector c = new Collector();
+		final byte[] b = bytes("xxMUON\ryy");
+		new LineFramer(c).feed(b, 2, 5);
+
+		assertEquals(Arrays.asList("MUON"), c.lines);
+	}
+
+	/** Flag-Byte 0x0D hinter NSE1 gehört zur Zeile. */
+	@Test
+	public void crAsFlagByteIsNoLineEnd() {
+		assertFrames("NSE1" + FLAG_CR + "Jazz\r", "NSE1" + FLAG_CR + "Jazz");
+		assertFrames("IPE3" + FLAG_CR + "Track\r", "IPE3" + FLAG_CR + "Track");
+	}
+
+	/** Zeile 0 hat kein Flag-Byte. */
+	@Test
+	public void lineZeroHasNoFlagByte() {
+		assertFrames("NSE0\rPWON\r", "NSE0", "PWON");
+	}
+
+	/** Nur an der Flag-Position, danach ist ein CR wieder ein Zeilenende. */
+	@Test
+	public void onlyTheFlagPositionIsExempt() {
+		assertFrames("NSE2 A\rNSE3" + FLAG_CR + "\r", "NSE2 A", "NSE3"
+				+ FLAG_CR);
+	}
+
+	/** Andere Kommandos mit vier Zeichen vor dem CR sind normal. */
+	@Test
+	public void otherCommandsAreNotExempt() {
+		assertFrames("MV50\rPWON\r", "MV50", "PWON");
+	}
+
+	/** Bytes über 127 landen unverändert in je einem char. */
+	@Test
+	public void highBytesStayUnsigned() {
+		assertFrames("NSE1 CafÃ©\r", "NSE1 CafÃ©");
+	}
+
+	@Test
+	public void emptyLinesAreReported() {
+		assertFrames("\r\rPWON\r", "", "", "PWON");
+	}
+
+	/** Eine überlange Zeile wird bis zum nächsten CR verworfen. */
+	@Test
+	public void overlongLineIsDropped() {
+		final StringBuilder garbage = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			garbage.append('x');
+		}
+		assertFrames(garbage + "\rPWON\r", "PWON");
+	}
+
+	/** Genau 256 Zeichen sind schon zu viel, wie beim alten read(). */
+	@Test
+	public void fullBufferIsAnOverflowEvenWithCR() {
+		final StringBuilder full = new StringBuilder();
+		for (int i = 0; i < 256; i++) {
+			full.append('x');
+		}
+		assertFrames(full + "\rMUOFF\r", "MUOFF");
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.pskiwi.avrremote.core.LivenessMonitor.Action;
+
+/**
+ * LivenessMonitor mit erfundenen Zeitpunkten: 30s Ruhe, 3s Frist.
+ */
+public final class LivenessMonitorTest {
+
+	private static LivenessMonitor started() {
+		final LivenessMonitor m = new LivenessMonitor(IDLE, DEADLINE);
+		m.start(0);
+		return m;
+	}
+
+	@Test
+	public void quietUntilTheIdleTime() {
+		final LivenessMonitor m = started();
+		assertEquals(Action.NONE, m.check(IDLE - 1));
+		assertEquals(Action.PROBE, m.check(IDLE));
+		assertEquals(Action.NONE, m.check(IDLE + 1));
+	}
+
+	/** Jede Zeile schiebt die Nachfrage hinaus. */
+	@Test
+	public void everyLineCountsAsLife() {
+		final LivenessMonitor m = started();
+		m.received(20000);
+		assertEquals(Action.NONE, m.check(IDLE));
+		assertEquals(Action.PROBE, m.check(20000 + IDLE));
+	}
+
+	@Test
+	public void answerWithinTheDeadline() {
+		final LivenessMonitor m = started();
+		assertEquals(Action.PROBE, m.check(IDLE));
+		m.received(IDLE + 200);
+
+		assertEquals(Action.NONE, m.check(IDLE + DEADLINE));
+		assertEquals(0, m.getFalseAlarms());
+	}
+
+	/** Tot erst nach zwei unbeantworteten Nachfragen. */
+	@Test
+	public void deadAfterTheSecondDeadline() {
+		final LivenessMonitor m = started();
+		assertEquals(Action.PROBE, m.check(IDLE));
+		assertEquals(Action.NONE, m.check(IDLE + DEADLINE - 1));
+		assertEquals(Action.PROBE, m.check(IDLE + DEADLINE));
+		assertEquals(Action.NONE, m.check(IDLE + 2 * DEADLINE - 1));
+		assertEquals(Action.DEAD, m.check(IDLE + 2 * DEADLINE));
+		assertEquals(2, m.getProbes());
+	}
+
+	/** Antwort nach der ersten Frist: hätte die Verbindung gekostet. */
+	@Test
+	public void lateAnswerIsAFalseAlarm() {
+		final LivenessMonitor m = started();
+		m.check(IDLE);
+		m.check(IDLE + DEADLINE);
+		m.received(IDLE + DEADLINE + 500);
+
+		assertEquals(1, m.getFalseAlarms());
+		assertEquals(Action.NONE, m.check(IDLE + 2 * DEADLINE));
+		assertEquals(Action.PROBE, m.check(IDLE + DEADLINE + 500 + IDLE));
+	}
+
+	@Test
+	public void checkIntervalFollowsTheDeadline() {
+		assertEquals(1000, started().getCheckInterval());
+		assertEquals(50, new LivenessMonitor(200, 100).getCheckInterval());
+	}
+
+	private static final long IDLE = 30000;
+	private static final long DEADLINE = 3000;
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Nur die Präfix-Suche, HashMap gegen Zeichen-Baum, über eine Mischung wie
+ * sie der Receiver liefert: überwiegend NSE-Zeilen beim Blättern im
+ * NET-Menü, dazu Lautstärke, Status und Zeilen anderer Zonen, die in der
+ * Hauptzone nichts finden. Wie ReceivePathBenchmark ein main() und kein
+ * Test, aus denselben Gründen.
+ */
+public final class PrefixResolverBenchmark {
+
+	static final String[] LINES = { "NSE0Now Playing Internet Radio",
+			"NSE1\u0009Station 12/1 Jazz & Blues", "NSE2\u0001Station 12/2",
+			"NSE3\u0001Station 12/3", "NSE8 [  3/ 120]", "MV505", "MV50",
+			"MVMAX 98", "PWON", "PWSTANDBY", "SINET", "SITUNER", "MUOFF",
+			"MSSTEREO", "ZMON", "CVFL 50", "CVC 48", "PSMODE:MUSIC",
+			"PSBAS 50", "PSTRE 50", "PSDRC AUTO", "PSMULTEQ:AUDYSSEY",
+			"VSSCHAUTO", "VSSC48P", "VSASPNRM", "TFAN00105000", "TPAN01",
+			"TMANFM", "Z250", "Z2ON", "Z3SITUNER", "SSINFAISFSV 441", "R1" };
+
+	private interface Run {
+		int run();
+	}
+
+	private static void measure(String name, Run run) {
+		final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long tid = Thread.currentThread().getId();
+		for (int i = 0; i < 20000; i++) {
+			run.run();
+		}
+		final long bytesBefore = mx.getThreadAllocatedBytes(tid);
+		final long t0 = System.nanoTime();
+		int hits = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			hits += run.run();
+		}
+		final long nanos = System.nanoTime() - t0;
+		final long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+		final long lines = (long) ROUNDS * LINES.length;
+		System.out.printf("%-8s %8d hits  %7.1f ns/line  %7.1f bytes/line%n",
+				name, hits, (double) nanos / lines, (double) bytes / lines);
+	}
+
+	public static void main(String[] args) {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		final LegacyPrefixResolver legacy = new LegacyPrefixResolver(states);
+		// Beide bekommen die Zeile so, wie sie sie im Betrieb sahen: die alte
+		// Suche als String aus InData.prefix(), die neue direkt als InData.
+		final InData[] data = new InData[LINES.length];
+		for (int i = 0; i < LINES.length; i++) {
+			data[i] = new InData(LINES[i]);
+		}
+		measure("legacy", new Run() {
+			public int run() {
+				int hits = 0;
+				for (InData d : data) {
+					if (legacy.find(d.prefix(MAX_PREFIX)) != null) {
+						hits++;
+					}
+				}
+				return hits;
+			}
+		});
+		final PrefixResolver trie = new PrefixResolver(states);
+		measure("trie", new Run() {
+			public int run() {
+				int hits = 0;
+				for (InData d : data) {
+					if (trie.find(d) != null) {
+						hits++;
+					}
+				}
+				return hits;
+			}
+		});
+	}
+
+	// längster Präfix in ReceivePathBenchmark.PREFIXES ("PSMULTEQ:")
+	private static final int MAX_PREFIX = 9;
+	private static final int ROUNDS = 200000;
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Der Zeichen-Baum muss genau das finden, was die alte HashMap-Suche fand
+ * (LegacyPrefixResolver).
+ */
+public final class PrefixResolverTest {
+
+	private static IAVRState find(List<IAVRState> states, String line) {
+		return new PrefixResolver(states).find(new InData(line));
+	}
+
+	@Test
+	public void longestPrefixWins() {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		assertEquals("VSSCH", find(states, "VSSCHAUTO").getCommandPrefix());
+		assertEquals("VSSC", find(states, "VSSC48P").getCommandPrefix());
+		assertEquals("PSMODE:", find(states, "PSMODE:MUSIC")
+				.getCommandPrefix());
+	}
+
+	@Test
+	public void unknownLineFindsNothing() {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		assertNull(find(states, "SSINFAISFSV 441"));
+		assertNull(find(states, "Z250"));
+		assertNull(find(states, "M"));
+		assertNull(find(states, ""));
+	}
+
+	/** Ein Präfix länger als die Zeile passt nicht, auch nicht teilweise. */
+	@Test
+	public void lineShorterThanPrefix() {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		assertNull(find(states, "PSMO"));
+		assertEquals("SV", find(states, "SV").getCommandPrefix());
+	}
+
+	/** Gesucht wird ab dem Versatz, wie bei den Zonen-Zeilen in AVRState. */
+	@Test
+	public void searchStartsAtOffset() {
+		final InData d = new InData("Z2MUON");
+		d.setOffset(2);
+		assertEquals("MU", new PrefixResolver(ReceivePathBenchmark.states())
+				.find(d).getCommandPrefix());
+	}
+
+	/** Ein Zeichen war nie genug, der Baum nimmt es gar nicht erst auf. */
+	@Test
+	public void singleCharPrefixIsNeverFound() {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		states.add(new ReceivePathBenchmark.SelectState("X"));
+		assertNull(find(states, "XYZ"));
+	}
+
+	/** Bei gleichem Präfix gewinnt wie bei HashMap.put() der spätere. */
+	@Test
+	public void laterStateWinsOnEqualPrefix() {
+		final IAVRState first = new ReceivePathBenchmark.SelectState("MU");
+		final IAVRState second = new ReceivePathBenchmark.SelectState("MU");
+		assertSame(second, find(Arrays.asList(first, second), "MUON"));
+	}
+
+	@Test
+	public void sameResultAsTheHashMapSearch() {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		final PrefixResolver trie = new PrefixResolver(states);
+		final LegacyPrefixResolver legacy = new LegacyPrefixResolver(states);
+		for (String line : PrefixResolverBenchmark.LINES) {
+			assertSame(line, legacy.find(line), trie.find(new InData(line)));
+		}
+	}
+
+	/** Zonen-Zeilen: head steht gedanklich vor der Zeile hinter "Zn". */
+	@Test
+	public void headIsSearchedBeforeTheLine() {
+		final List<IAVRState> states = ReceivePathBenchmark.states();
+		final PrefixResolver trie = new PrefixResolver(states);
+		final LegacyPrefixResolver legacy = new LegacyPrefixResolver(states);
+		final String[][] routed = { { "MV", "Z250" }, { "ZM", "Z3ON" },
+				{ "SI", "Z2TUNER" }, { "", "Z2MUON" }, { "", "Z4CVFL 50" },
+				{ "", "Z2" } };
+		for (String[] r : routed) {
+			final InData d = new InData(r[1]);
+			d.setOffset(2);
+			assertSame(r[1], legacy.find(r[0] + r[1].substring(2)),
+					trie.find(r[0], d));
+		}
+	}
+
+	/** Auch head allein kann schon der ganze Präfix sein. */
+	@Test
+	public void headAloneCanMatch() {
+		final InData d = new InData("Z2");
+		d.setOffset(2);
+		assertEquals("SV", new PrefixResolver(ReceivePathBenchmark.states())
+				.find("SV", d).getCommandPrefix());
+	}
+}
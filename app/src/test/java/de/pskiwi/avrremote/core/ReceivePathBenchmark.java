@@ -0,0 +1,258 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spielt einen NSE-Schwall durch den Empfangsweg - Zeilen zerlegen, Präfix
+ * suchen, Zustand aktualisieren - und misst Zeit und Allokation pro Zeile.
+ * Kein Test, sondern ein main(): Zahlen aus einem Unit-Test-Lauf wären vom
+ * Rest des Laufs verrauscht, und eine Schwelle darauf wäre auf jeder
+ * Maschine eine andere.
+ *
+ * <p>
+ * "legacy" ist der alte Receiver.read(): pro Zeile ein neues char[256], eine neue
+ * InData und die ganze Zeile als String für die Präfix-Suche mit
+ * LegacyPrefixResolver, dazu ein ungepuffertes read() pro Byte. Er steht hier nachgebaut, damit vorher und
+ * nachher im selben Lauf nebeneinander stehen.
+ *
+ * <p>
+ * Die Allokation liest com.sun.management.ThreadMXBean, das gibt es nur auf
+ * HotSpot/OpenJDK. Start aus der IDE oder von Hand über den Test-Classpath.
+ */
+public final class ReceivePathBenchmark {
+
+	/** Zustand wie AbstractSelect, ohne ZoneState drumherum. */
+	static final class SelectState implements IAVRState {
+
+		SelectState(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public String getReceivePrefix() {
+			return prefix;
+		}
+
+		public String getCommandPrefix() {
+			return prefix;
+		}
+
+		public boolean update(InData v) {
+			if (value != null && v.contentEquals(value)) {
+				return false;
+			}
+			value = v.toString();
+			return true;
+		}
+
+		public boolean isDefined() {
+			return value != null;
+		}
+
+		public int getDisplayId() {
+			return 0;
+		}
+
+		public boolean isCommandSecondaryZoneEncoded() {
+			return false;
+		}
+
+		public void reset() {
+			value = null;
+		}
+
+		public boolean isAutoUpdate() {
+			return true;
+		}
+
+		private String value;
+		private final String prefix;
+	}
+
+	/** Der alte Receiver.read(), Zeichen für Zeichen. */
+	private static final class LegacyReader {
+
+		LegacyReader(InputStream in) {
+			this.in = in;
+		}
+
+		private boolean detectCR(char[] data, int count, int ch) {
+			if (count != 4) {
+				return ch == '\r';
+			}
+			if ((data[0] == 'N' && data[1] == 'S')
+					|| (data[0] == 'I' && data[1] == 'P')) {
+				return data[3] - '0' == 0 ? ch == '\r' : false;
+			}
+			return ch == '\r';
+		}
+
+		InData read() throws IOException {
+			final char[] line = new char[256];
+			int ch = in.read();
+			int count = 0;
+			while (ch != -1 && !detectCR(line, count, ch) && count < 256) {
+				line[count++] = (char) ch;
+				ch = in.read();
+			}
+			return ch == -1 ? null : new InData(line, count);
+		}
+
+		private final InputStream in;
+	}
+
+	/**
+	 * Eine Seite des NET-Bildschirms, wie sie beim Scrollen kommt: neun
+	 * NSE-Zeilen, Zeile 1 bis 7 mit Flag-Byte (darunter ein CR, das kein
+	 * Zeilenende ist), Nullbyte und Auffüllung, dazu die Statuszeilen, die
+	 * zwischendurch eintreffen.
+	 */
+	private static byte[] burst(int pages) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int p = 0; p < pages; p++) {
+			line(out, "NSE0Now Playing Internet Radio");
+			for (int i = 1; i <= 7; i++) {
+				final int flags = i == 3 ? '\r' : (i == 1 ? 9 : 1);
+				line(out, "NSE" + i + (char) flags + "Station " + (p % 40)
+						+ "/" + i + " Jazz & Blues\0" + pad(40));
+			}
+			line(out, "NSE8 [  " + (p % 99) + "/ 120]");
+			line(out, "MV505");
+			line(out, "PWON");
+			line(out, "SINET");
+		}
+		return out.toByteArray();
+	}
+
+	private static String pad(int n) {
+		final StringBuilder s = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			s.append(' ');
+		}
+		return s.toString();
+	}
+
+	private static void line(ByteArrayOutputStream out, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			out.write(s.charAt(i));
+		}
+		out.write('\r');
+	}
+
+	static List<IAVRState> states() {
+		final List<IAVRState> states = new ArrayList<IAVRState>();
+		for (String p : PREFIXES) {
+			states.add(new SelectState(p));
+		}
+		return states;
+	}
+
+	private static int runCurrent(byte[] data, final PrefixResolver r)
+			throws IOException {
+		final int[] lines = new int[1];
+		final LineFramer framer = new LineFramer(new IEventListener() {
+			public void received(InData d) {
+				dispatch(d, r.find(d));
+				lines[0]++;
+			}
+		});
+		// Wie der Receiver: Blöcke aus dem Strom, nicht Byte für Byte
+		final InputStream in = new ByteArrayInputStream(data);
+		final byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			framer.feed(chunk, 0, read);
+		}
+		return lines[0];
+	}
+
+	private static int runLegacy(byte[] data, LegacyPrefixResolver r)
+			throws IOException {
+		final LegacyReader reader = new LegacyReader(new ByteArrayInputStream(
+				data));
+		int lines = 0;
+		InData d;
+		while ((d = reader.read()) != null) {
+			dispatch(d, r.find(d.toString()));
+			lines++;
+		}
+		return lines;
+	}
+
+	private static void dispatch(InData d, IAVRState s) {
+		if (s != null) {
+			d.setOffset(s.getReceivePrefix().length());
+			s.update(d);
+		}
+	}
+
+	private interface Run {
+		int run(byte[] data) throws IOException;
+	}
+
+	private static void measure(String name, Run run, byte[] data)
+			throws IOException {
+		final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long tid = Thread.currentThread().getId();
+		// Aufwärmen, damit der JIT nicht mitgemessen wird
+		for (int i = 0; i < 20; i++) {
+			run.run(data);
+		}
+		final long bytesBefore = mx.getThreadAllocatedBytes(tid);
+		final long t0 = System.nanoTime();
+		int lines = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			lines += run.run(data);
+		}
+		final long nanos = System.nanoTime() - t0;
+		final long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+		System.out.printf("%-8s %8d lines  %7.1f ns/line  %7.1f bytes/line%n",
+				name, lines, (double) nanos / lines, (double) bytes / lines);
+	}
+
+	public static void main(String[] args) throws IOException {
+		final byte[] data = burst(PAGES);
+		final LegacyPrefixResolver legacy = new LegacyPrefixResolver(states());
+		measure("legacy", new Run() {
+			public int run(byte[] d) throws IOException {
+				return runLegacy(d, legacy);
+			}
+		}, data);
+		final PrefixResolver current = new PrefixResolver(states());
+		measure("current", new Run() {
+			public int run(byte[] d) throws IOException {
+				return runCurrent(d, current);
+			}
+		}, data);
+	}
+
+	/** Die Präfixe der Hauptzone, die im Schwall vorkommen, und ein paar mehr. */
+	static final String[] PREFIXES = { "PW", "MV", "MU", "SI", "MS", "ZM",
+			"SV", "SLP", "CV", "PSBAS", "PSTRE", "PSLFE", "PSMODE:", "PSSDI ",
+			"PSDRC ", "PSMULTEQ:", "VSASP", "VSSC", "VSSCH", "VSMONI", "TFAN",
+			"TPAN", "NSE", "IPE", "NSH", "TMAN" };
+	private static final int PAGES = 200;
+	private static final int ROUNDS = 50;
+}
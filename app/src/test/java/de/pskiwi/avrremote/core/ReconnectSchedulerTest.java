@@ -0,0 +1,118 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Das Warten des Reconnectors muss ein Netz-Ereignis sofort beenden. Die
+ * Policy liefert hier feste Werte, damit nur das Warten geprüft wird.
+ */
+public final class ReconnectSchedulerTest {
+
+	/** Wartet immer gleich lang und zählt die Resets. */
+	private static final class FixedPolicy implements IReconnectPolicy {
+
+		FixedPolicy(long delay) {
+			this.delay = delay;
+		}
+
+		public synchronized long nextDelay(long now) {
+			return delay;
+		}
+
+		public void connected(long now) {
+		}
+
+		public synchronized void reset() {
+			resets++;
+		}
+
+		private final long delay;
+		private int resets;
+	}
+
+	@Test
+	public void waitsTheDelayWithoutEvents() throws InterruptedException {
+		final ReconnectScheduler s = new ReconnectScheduler(new FixedPolicy(50));
+		final long start = System.currentTimeMillis();
+		assertFalse(s.await(s.getLinkEvents(), 0));
+		assertTrue(System.currentTimeMillis() - start >= 45);
+	}
+
+	@Test
+	public void linkEventCutsTheWaitShort() throws Exception {
+		final FixedPolicy policy = new FixedPolicy(WAIT);
+		final ReconnectScheduler s = new ReconnectScheduler(policy);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean cut = new AtomicBoolean();
+		final int seen = s.getLinkEvents();
+		final Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					cut.set(s.await(seen, 0));
+				} catch (InterruptedException x) {
+					return;
+				}
+				done.countDown();
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		Thread.sleep(100);
+
+		final long start = System.currentTimeMillis();
+		s.linkChanged();
+		assertTrue("Warten nicht beendet", done.await(1, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < WAIT);
+		assertTrue(cut.get());
+		assertEquals(1, policy.resets);
+	}
+
+	/** Das Ereignis kam, während der Versuch noch lief. */
+	@Test
+	public void eventDuringTheAttemptSkipsTheWait()
+			throws InterruptedException {
+		final ReconnectScheduler s = new ReconnectScheduler(new FixedPolicy(
+				WAIT));
+		final int seen = s.getLinkEvents();
+		s.linkChanged();
+
+		final long start = System.currentTimeMillis();
+		assertTrue(s.await(seen, 0));
+		assertTrue(System.currentTimeMillis() - start < WAIT);
+	}
+
+	/** stopConnector() beendet den Reconnector weiterhin per interrupt(). */
+	@Test(expected = InterruptedException.class)
+	public void interruptEndsTheWait() throws InterruptedException {
+		final ReconnectScheduler s = new ReconnectScheduler(new FixedPolicy(
+				WAIT));
+		Thread.currentThread().interrupt();
+		s.await(s.getLinkEvents(), 0);
+	}
+
+	private static final long WAIT = 5000;
+}
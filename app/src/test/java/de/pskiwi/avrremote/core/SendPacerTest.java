@@ -0,0 +1,111 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * SendPacer mit erfundenen Zeitpunkten: ein schnelles Gerät (Antwort nach
+ * 10ms) und ein altes, das eine Abfrage unter Last verschluckt.
+ */
+public final class SendPacerTest {
+
+	/** Schickt eine Abfrage und lässt die Antwort nach echo ms kommen. */
+	private static long roundTrip(SendPacer p, long now, String cmd,
+			String reply, long echo) {
+		p.sent(cmd, now);
+		p.received(new InData(reply), now + echo);
+		return now + p.getDelay();
+	}
+
+	@Test
+	public void unknownReceiverStartsAtTheOldFixedValue() {
+		assertEquals(SendPacer.MAX_DELAY, new SendPacer(0).getDelay());
+	}
+
+	@Test
+	public void storedValueIsClamped() {
+		assertEquals(SendPacer.MIN_DELAY, new SendPacer(5).getDelay());
+		assertEquals(SendPacer.MAX_DELAY, new SendPacer(500).getDelay());
+		assertEquals(60, new SendPacer(60).getDelay());
+	}
+
+	@Test
+	public void fastReceiverTightensDownToTheLowerBound() {
+		final SendPacer p = new SendPacer(0);
+		long now = 0;
+		for (int i = 0; i < 10; i++) {
+			now = roundTrip(p, now, "MV?", "MV505", 5);
+		}
+		assertEquals(SendPacer.MIN_DELAY, p.getDelay());
+	}
+
+	@Test
+	public void delayFollowsTheEchoLatency() {
+		final SendPacer p = new SendPacer(0);
+		long now = 0;
+		for (int i = 0; i < 20; i++) {
+			now = roundTrip(p, now, "PW?", "PWON", 30);
+		}
+		// 2 * 30 + 10
+		assertEquals(70, p.getDelay());
+	}
+
+	/** Eine Zeile mit anderem Anfang ist keine Antwort. */
+	@Test
+	public void unrelatedLinesAreIgnored() {
+		final SendPacer p = new SendPacer(0);
+		p.sent("MV?", 0);
+		p.received(new InData("NSE1 Jazz"), 2);
+		p.received(new InData("MV505"), 40);
+
+		// 2 * 40 + 10
+		assertEquals(90, p.getDelay());
+	}
+
+	@Test
+	public void unansweredQueryFallsBackToTheMaximum() {
+		final SendPacer p = new SendPacer(SendPacer.MIN_DELAY);
+		p.sent("SI?", 0);
+		p.sent("MU?", 30);
+
+		assertEquals(SendPacer.MAX_DELAY, p.getDelay());
+	}
+
+	/** Cursor-Befehle im NET-Menü bekommen keine Antwort, das ist normal. */
+	@Test
+	public void silentCommandIsNoMiss() {
+		final SendPacer p = new SendPacer(SendPacer.MIN_DELAY);
+		p.sent("NS90", 0);
+		p.sent("NS90", 30);
+
+		assertEquals(SendPacer.MIN_DELAY, p.getDelay());
+	}
+
+	/** Das alte Gerät bleibt bei 100ms, auch wenn es ab und zu schnell ist. */
+	@Test
+	public void slowReceiverNeverGoesBelowTheOldValue() {
+		final SendPacer p = new SendPacer(0);
+		long now = 0;
+		for (int i = 0; i < 10; i++) {
+			now = roundTrip(p, now, "MV?", "MV505", 60);
+			assertEquals(SendPacer.MAX_DELAY, p.getDelay());
+		}
+	}
+}
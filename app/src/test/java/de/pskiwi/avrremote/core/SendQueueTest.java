@@ -0,0 +1,171 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * SendQueue fasst überholte Werte zusammen. Der Fall, um den es geht: ein
+ * Regler in LevelActivity schickt bei jedem Schritt "CVFL nn", der Sender
+ * schafft aber nur einen Befehl pro Sende-Abstand (SendPacer).
+ */
+public final class SendQueueTest {
+
+	private static List<String> drain(SendQueue q) throws InterruptedException {
+		final List<String> ret = new ArrayList<String>();
+		while (!q.isEmpty()) {
+			ret.add(q.take());
+		}
+		return ret;
+	}
+
+	@Test
+	public void laterValueReplacesTheWaitingOne() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add("CVFL", "CVFL 50");
+		q.add("CVFL", "CVFL 51");
+		q.add("CVFL", "CVFL 52");
+
+		assertEquals(Arrays.asList("CVFL 52"), drain(q));
+	}
+
+	/** Ersetzt wird am alten Platz, die anderen bleiben in ihrer Folge. */
+	@Test
+	public void replacementKeepsItsPlace() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add("CVFL", "CVFL 50");
+		q.add("CVFR", "CVFR 50");
+		q.add(null, "MVUP");
+		q.add("CVFL", "CVFL 55");
+
+		assertEquals(Arrays.asList("CVFL 55", "CVFR 50", "MVUP"), drain(q));
+	}
+
+	/** Ohne Schlüssel zählt jeder Befehl, z.B. jeder Lautstärke-Schritt. */
+	@Test
+	public void commandsWithoutKeyAreNeverMerged() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add(null, "MVUP");
+		q.add(null, "MVUP");
+
+		assertEquals(Arrays.asList("MVUP", "MVUP"), drain(q));
+	}
+
+	@Test
+	public void sameQueryIsQueuedOnce() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add("PW?", "PW?");
+		q.add("MV?", "MV?");
+		q.add("PW?", "PW?");
+
+		assertEquals(Arrays.asList("PW?", "MV?"), drain(q));
+	}
+
+	/** Ist der Befehl schon raus, wird der neue Wert wieder angehängt. */
+	@Test
+	public void sentCommandIsNotReplacedAnyMore() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add("CVFL", "CVFL 50");
+		assertEquals("CVFL 50", q.take());
+		q.add("CVFL", "CVFL 51");
+
+		assertEquals(Arrays.asList("CVFL 51"), drain(q));
+	}
+
+	/** Voll ist voll - ein Ersetzen geht aber weiterhin. */
+	@Test
+	public void fullQueueRefusesButStillReplaces() {
+		final SendQueue q = new SendQueue(2);
+		assertTrue(q.add("A", "A1"));
+		assertTrue(q.add("B", "B1"));
+
+		assertFalse(q.add("C", "C1"));
+		assertTrue(q.add("A", "A2"));
+		assertEquals(2, q.size());
+	}
+
+	/** Ein Tipp direkt nach dem Verbinden überholt die Abfragen. */
+	@Test
+	public void commandsGoBeforeQueries() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add("PW?", "PW?");
+		q.add("MV?", "MV?");
+		q.add("SI?", "SI?");
+		q.add(null, "MVUP");
+		q.add("Main/SI", "SITUNER");
+
+		assertEquals(Arrays.asList("MVUP", "SITUNER", "PW?", "MV?", "SI?"),
+				drain(q));
+	}
+
+	/**
+	 * Die Liveness-Probe wartet nicht hinter einem initState(); ein dort schon
+	 * wartendes PW? rückt mit nach vorn statt zweimal zu kommen.
+	 */
+	@Test
+	public void probeGoesFirst() throws InterruptedException {
+		final SendQueue q = new SendQueue(3);
+		q.add("MV?", "MV?");
+		q.add("PW?", "PW?");
+		q.add(null, "MVUP");
+		q.addProbe("PW?");
+		q.addProbe("PW?");
+
+		assertEquals(Arrays.asList("PW?", "MVUP", "MV?"), drain(q));
+	}
+
+	@Test
+	public void lanesAreCountedSeparately() {
+		final SendQueue q = new SendQueue(100);
+		q.add("PW?", "PW?");
+		q.add("MV?", "MV?");
+		q.add(null, "MVUP");
+
+		assertEquals(1, q.size(SendQueue.Lane.COMMAND));
+		assertEquals(2, q.size(SendQueue.Lane.QUERY));
+		assertEquals(3, q.size());
+	}
+
+	/** Die Grenze gilt für beide Spuren zusammen. */
+	@Test
+	public void limitCoversBothLanes() {
+		final SendQueue q = new SendQueue(2);
+		assertTrue(q.add("PW?", "PW?"));
+		assertTrue(q.add(null, "MVUP"));
+
+		assertFalse(q.add(null, "MVDOWN"));
+	}
+
+	@Test
+	public void statsAreResetAfterDrain() throws InterruptedException {
+		final SendQueue q = new SendQueue(100);
+		q.add("PW?", "PW?");
+		q.add("MV?", "MV?");
+		drain(q);
+
+		assertTrue(q.drainStats().contains("QUERY taken:2 maxDepth:2"));
+		assertTrue(q.drainStats().contains("QUERY taken:0 maxDepth:0"));
+	}
+}
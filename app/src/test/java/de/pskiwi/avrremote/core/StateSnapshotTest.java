@@ -0,0 +1,96 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class StateSnapshotTest {
+
+	private static Map<Zone, List<String>> sample() {
+		final Map<Zone, List<String>> ret = new EnumMap<Zone, List<String>>(
+				Zone.class);
+		ret.put(Zone.Main, Arrays.asList("MV505", "MVMAX 98", "SINET",
+				"CVFL 50", "MUOFF"));
+		ret.put(Zone.Z2, Arrays.asList("MV30", "SITUNER"));
+		ret.put(Zone.Z3, Collections.<String> emptyList());
+		return ret;
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StateSnapshot.write(sample(), out);
+
+		assertEquals(sample(), StateSnapshot.read(new ByteArrayInputStream(out
+				.toByteArray())));
+	}
+
+	/** Eine Datei aus einer anderen Version wird ignoriert. */
+	@Test
+	public void unknownVersionIsEmpty() throws IOException {
+		final Map<Zone, List<String>> ret = StateSnapshot
+				.read(new ByteArrayInputStream(new byte[] { 99, 1, 0 }));
+		assertTrue(ret.isEmpty());
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		final File dir = File.createTempFile("snapshot", "");
+		dir.delete();
+		dir.mkdir();
+		final File f = StateSnapshot.getFile(dir, 1);
+		try {
+			assertTrue(StateSnapshot.load(f).isEmpty());
+			StateSnapshot.save(f, sample());
+			assertEquals(sample(), StateSnapshot.load(f));
+		} finally {
+			f.delete();
+			dir.delete();
+		}
+	}
+
+	/** Abgeschnittene Datei: lieber nichts als halbe Werte. */
+	@Test
+	public void truncatedFileLoadsEmpty() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StateSnapshot.write(sample(), out);
+		final byte[] full = out.toByteArray();
+		final File f = File.createTempFile("state", ".bin");
+		try {
+			final FileOutputStream fo = new FileOutputStream(f);
+			fo.write(full, 0, full.length / 2);
+			fo.close();
+			assertTrue(StateSnapshot.load(f).isEmpty());
+		} finally {
+			f.delete();
+		}
+	}
+}
@@ -16,18 +16,32 @@
  */
 package de.pskiwi.avrremote.http;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.junit.Test;
 
+import de.pskiwi.avrremote.core.Zone;
+
 /**
  * Hält fest, warum {@code AVRHTTPClient.readState} und
  * {@code readQuickInfo} den Body auf Länge prüfen, bevor sie parsen: bei leerer
  * Antwort wirft der Parser. Vor dem Wegfall des Apache-Clients übernahm diese
  * Rolle die Prüfung {@code entity != null}.
+ *
+ * Dazu die beiden nachgebauten Antworten unter src/test/resources
+ * (MainZoneXml.xml, QuickSelectXml.xml) und die XXE-Sperren aus SecureXML.
+ * Dieselben Dateien liest XMLParseBenchmark.
  */
 public final class AVRXMLInfoParserTest {
 
@@ -42,12 +56,89 @@ public final class AVRXMLInfoParserTest {
 		}
 	}
 
-	// Eine Gegenprobe mit echtem Receiver-XML ist hier bewusst nicht möglich:
-	// AVRXMLInfoParser wertet in startElement/endElement nur localName aus. Auf
-	// einer normalen JVM ist SAXParserFactory nicht namespace-aware, localName
-	// bleibt leer und der Parser sammelt nichts ein. Auf Android füllt der
-	// Expat-basierte SAX localName trotzdem, deshalb funktioniert der Pfad im
-	// Betrieb. Der Parser lässt sich damit nur auf dem Gerät prüfen.
+	// Auf der JVM bleibt localName leer (nicht namespace-aware), der Parser
+	// fällt dann auf qName zurück. Vorher sammelte er hier gar nichts ein und
+	// ließ sich nur auf dem Gerät prüfen.
+	@Test
+	public void parsesMainZoneStatus() {
+		final AVRXMLInfo info = new AVRXMLInfoParser()
+				.parse(fixture("MainZoneXml.xml"));
+
+		assertTrue(info.hasPower());
+		assertEquals("TUNER", info.getInputSelect());
+		assertEquals("-40.0", info.getMasterVolume());
+		assertFalse(info.isMute());
+		assertEquals(Arrays.asList("LIVING ROOM"), info.getZoneRenames());
+		assertEquals(21, info.getInputFunctionList().size());
+		// DVR, GAME und DOCK sind am Receiver abgewählt
+		assertEquals(18, info.getInputSelection().getValues().length);
+	}
+
+	/** Rund um eine Entity kommt der Text in Stücken - die Leerzeichen bleiben. */
+	@Test
+	public void valueWithEntityKeepsItsSpaces() {
+		final AVRXMLInfo info = new AVRXMLInfoParser()
+				.parse(fixture("MainZoneXml.xml"));
+
+		assertEquals("Rock & Pop", info.getInputFunctionList().get(5)
+				.getRename());
+		assertEquals("Player", info.getInputFunctionList().get(2)
+				.getRename());
+	}
+
+	@Test
+	public void parsesQuickSelectNames() {
+		final AVRXMLInfo main = new AVRXMLInfoParser()
+				.parse(fixture("MainZoneXml.xml"));
+		main.mergeQuickSelect(Zone.Main, new AVRXMLInfoParser()
+				.parse(fixture("QuickSelectXml.xml")));
+
+		assertEquals(Arrays.asList("Radio", "Film", "Musik & Co", "Spiele",
+				"Nacht"), main.getQuickNames(Zone.Main));
+	}
+
+	/**
+	 * Ein vorgetäuschter Receiver darf keine lokale Datei in den Status
+	 * bringen. Auf der JVM verbietet SecureXML den DOCTYPE ganz (Exception),
+	 * auf Android greifen die external-*-Sperren (leerer Wert) - beides ist
+	 * recht, nur der Dateiinhalt darf nicht auftauchen.
+	 */
+	@Test
+	public void externalEntityIsNotResolved() throws Exception {
+		final File secret = File.createTempFile("xxe", ".txt");
+		try {
+			try (OutputStream out = new FileOutputStream(secret)) {
+				out.write("geheim".getBytes("UTF-8"));
+			}
+			final String xml = "<?xml version=\"1.0\"?>\n"
+					+ "<!DOCTYPE item [<!ENTITY x SYSTEM \""
+					+ secret.toURI() + "\">]>"
+					+ "<item><RenameZone><value>&x;</value></RenameZone></item>";
+			try {
+				final AVRXMLInfo info = new AVRXMLInfoParser()
+						.parse(stream(xml));
+				assertFalse(info.getInfo(), info.getInfo().contains("geheim"));
+			} catch (RuntimeException expected) {
+				// DOCTYPE abgelehnt
+			}
+		} finally {
+			secret.delete();
+		}
+	}
+
+	/** Die gemerkte Factory bleibt gehärtet - auch beim zweiten Parser. */
+	@Test
+	public void secondParserIsHardenedToo() throws Exception {
+		SecureXML.newParser();
+		externalEntityIsNotResolved();
+	}
+
+	static InputStream fixture(String name) {
+		final InputStream in = AVRXMLInfoParserTest.class
+				.getResourceAsStream(name);
+		assertNotNull("Datei fehlt: " + name, in);
+		return in;
+	}
 
 	private static InputStream stream(String xml) {
 		try {
@@ -0,0 +1,167 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Verbindungswiederverwendung in HTTPSupport gegen StandInReceiver. Wie in
+ * HTTPSupportTest gilt: das ist die HttpURLConnection der Desktop-JVM, deren
+ * Pool nach denselben Regeln arbeitet wie der von Android, aber nicht
+ * derselbe Code ist.
+ */
+public final class HTTPKeepAliveTest {
+
+	@After
+	public void stopServer() throws Exception {
+		CookieHandler.setDefault(previousCookies);
+		if (receiver != null) {
+			receiver.close();
+		}
+	}
+
+	/** Die Abfrage aller Zonen: zwei GETs je Zone über eine Verbindung. */
+	@Test
+	public void zoneRefreshUsesOneConnection() throws Exception {
+		receiver = new StandInReceiver(true, 0);
+		for (int zone = 1; zone <= 4; zone++) {
+			get("goform/formMainZone_MainZoneXml.xml?ZoneName=ZONE" + zone);
+			get("goform/formMainZone_QuickSelectXml.xml?ZoneName=ZONE" + zone);
+		}
+
+		assertEquals(1, receiver.getConnections());
+		assertEquals(8, receiver.getRequests().size());
+	}
+
+	/** GoAhead mit HTTP/1.0: jede Antwort endet mit dem Verbindungsschluss. */
+	@Test
+	public void http10ReceiverGetsANewConnectionPerRequest() throws Exception {
+		receiver = new StandInReceiver(false, 0);
+		for (int i = 0; i < 3; i++) {
+			assertEquals("<item><Path>/a" + i + ".asp</Path></item>",
+					get("a" + i + ".asp"));
+		}
+
+		assertEquals(3, receiver.getConnections());
+	}
+
+	/** Identity-Kodierung und feste Länge gelten auch auf der offenen Verbindung. */
+	@Test
+	public void quirksHoldOnReusedConnection() throws Exception {
+		receiver = new StandInReceiver(true, 0);
+		get("first.asp");
+		final Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("cmd0", "PutSystem_OnStandby/ON");
+		HTTPSupport.postForm(receiver.getBaseURL() + "MainZone/index.put.asp",
+				params);
+
+		assertEquals(1, receiver.getConnections());
+		final List<String> requests = receiver.getRequests();
+		for (String r : requests) {
+			assertTrue(r, r.contains("\r\nAccept-Encoding: identity\r\n"));
+		}
+		final String post = requests.get(1);
+		assertTrue(post, post.contains("\r\nContent-Length: 29\r\n"));
+		assertTrue(post, post.endsWith("\r\n\r\ncmd0=PutSystem_OnStandby%2FON"));
+	}
+
+	/**
+	 * Series08Reader holt r_option1.asp nur für den Sitzungszustand, den
+	 * d_option1.asp zurückliest. Der Cookie muss weiter mitgehen.
+	 */
+	@Test
+	public void cookieStoreStillSharedAcrossRequests() throws Exception {
+		CookieHandler.setDefault(new CookieManager());
+		receiver = new StandInReceiver(true, 0);
+		receiver.setExtraHeader("Set-Cookie: session=4711; Path=/");
+		get("SETUP/04_MANUALSETUP/09_OPTION1/r_option1.asp");
+		get("SETUP/04_MANUALSETUP/09_OPTION1/d_option1.asp");
+
+		final String second = receiver.getRequests().get(1);
+		assertTrue(second, second.contains("\r\nCookie: session=4711\r\n"));
+	}
+
+	/**
+	 * Hat der Receiver die offene Verbindung aufgegeben, geht der POST über
+	 * eine neue raus. Einen schon geschlossenen Socket erkennt der Pool selbst
+	 * vor der Wiederverwendung; die Wiederholung in HTTPSupport deckt nur den
+	 * Fall ab, dass der Receiver genau während des Requests zumacht - der ist
+	 * hier nicht zuverlässig herzustellen.
+	 */
+	@Test
+	public void postIsRetriedWhenKeptAliveConnectionWasDropped()
+			throws Exception {
+		receiver = new StandInReceiver(true, 0);
+		receiver.dropAfterNextResponse();
+		get("first.asp");
+		// dem Schließen des Servers Zeit geben, bevor der Client schreibt
+		Thread.sleep(100);
+		final Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("cmd0", "PutSystem_OnStandby/STANDBY");
+
+		HTTPSupport.postForm(receiver.getBaseURL() + "MainZone/index.put.asp",
+				params);
+
+		assertEquals(2, receiver.getConnections());
+		assertTrue(receiver.getRequests().get(1).startsWith(
+				"POST /MainZone/index.put.asp "));
+	}
+
+	/**
+	 * Wiederholt wird nur der POST auf einer gepoolten Verbindung. Ist der
+	 * Receiver gar nicht erreichbar, käme sonst ein zweiter Connect-Timeout
+	 * dazu; ein GET wiederholt HttpURLConnection schon selbst.
+	 */
+	@Test
+	public void onlyPostOnKeptAliveConnectionIsRetried() {
+		final IOException reset = new SocketException("Connection reset");
+
+		assertTrue(HTTPSupport.isRetry(reset, true, true));
+		assertFalse(HTTPSupport.isRetry(reset, false, true));
+		assertFalse(HTTPSupport.isRetry(reset, true, false));
+		assertFalse(HTTPSupport.isRetry(new ConnectException(
+				"Connection refused"), true, true));
+		assertFalse(HTTPSupport.isRetry(new NoRouteToHostException(), true,
+				true));
+		assertFalse(HTTPSupport.isRetry(new SocketTimeoutException(), true,
+				true));
+	}
+
+	private String get(String path) throws Exception {
+		return new String(HTTPSupport.get(receiver.getBaseURL() + path),
+				"UTF-8");
+	}
+
+	private StandInReceiver receiver;
+	private final CookieHandler previousCookies = CookieHandler.getDefault();
+}
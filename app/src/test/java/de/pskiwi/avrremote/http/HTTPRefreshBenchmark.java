@@ -0,0 +1,75 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import java.io.IOException;
+
+/**
+ * Die XML-Abfrage aller Zonen (zwei GETs je Zone, wie
+ * AVRHTTPClient.readState) gegen StandInReceiver, einmal mit Schließen nach
+ * jeder Antwort wie bisher, einmal mit offener Verbindung. Kein Test, sondern
+ * ein main() - siehe ReceivePathBenchmark.
+ *
+ * <p>
+ * Der Verbindungsaufbau des Receivers ist mit ACCEPT_DELAY nachgebildet; über
+ * Loopback kostet ein Handshake sonst fast nichts. Der Wert ist geschätzt,
+ * nicht am Gerät gemessen - aussagekräftig ist die Zahl der Verbindungen und
+ * die Differenz, nicht die absolute Zeit. Schreibt ein Server Kopf und Body
+ * getrennt, kostet die offene Verbindung dagegen je Antwort das verzögerte ACK
+ * (Nagle) - StandInReceiver schreibt deshalb in einem Stück.
+ */
+public final class HTTPRefreshBenchmark {
+
+	private static long refresh(StandInReceiver r) throws IOException {
+		final long t0 = System.nanoTime();
+		for (int zone = 1; zone <= ZONES; zone++) {
+			HTTPSupport.get(r.getBaseURL()
+					+ "goform/formMainZone_MainZoneXml.xml?ZoneName=ZONE" + zone);
+			HTTPSupport.get(r.getBaseURL()
+					+ "goform/formMainZone_QuickSelectXml.xml?ZoneName=ZONE"
+					+ zone);
+		}
+		return System.nanoTime() - t0;
+	}
+
+	private static void measure(String name, boolean keepAlive)
+			throws IOException {
+		final StandInReceiver r = new StandInReceiver(keepAlive, ACCEPT_DELAY);
+		try {
+			refresh(r);
+			final int before = r.getConnections();
+			long nanos = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				nanos += refresh(r);
+			}
+			System.out.printf("%-11s %6.1f ms/refresh  %5.1f connections/refresh%n",
+					name, nanos / 1e6 / ROUNDS,
+					(double) (r.getConnections() - before) / ROUNDS);
+		} finally {
+			r.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		measure("close", false);
+		measure("keep-alive", true);
+	}
+
+	private static final int ZONES = 4;
+	private static final int ROUNDS = 20;
+	private static final int ACCEPT_DELAY = 15;
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.pskiwi.avrremote.core.Zone;
+
+/**
+ * ResponseCache: geparst wird nur ein geänderter Body, herausgegeben immer
+ * eine Kopie. Die bedingten Requests laufen gegen StandInReceiver.
+ */
+public final class ResponseCacheTest {
+
+	/** Zählt die Aufrufe und liefert den Body als RenameZone-Wert. */
+	private static final class CountingParser implements ResponseCache.IParser {
+		public AVRXMLInfo parse(byte[] body) throws Exception {
+			calls++;
+			final AVRXMLInfo ret = new AVRXMLInfo();
+			ret.add(AVRXMLInfo.RENAME_ZONE, new String(body, "UTF-8"));
+			return ret;
+		}
+
+		private int calls;
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		if (receiver != null) {
+			receiver.close();
+		}
+	}
+
+	@Test
+	public void storeReportsHowLongTheBodyIsUnchanged() throws Exception {
+		final ResponseCache cache = new ResponseCache();
+
+		assertEquals(-1, cache.store(URL, bytes("a"), null, null, 1000));
+		assertEquals(0, cache.store(URL, bytes("a"), null, null, 1000));
+		assertEquals(60000, cache.store(URL, bytes("a"), null, null, 61000));
+		assertEquals(-1, cache.store(URL, bytes("b"), null, null, 62000));
+	}
+
+	@Test
+	public void unchangedBodyIsNotParsedAgain() throws Exception {
+		final ResponseCache cache = new ResponseCache();
+		final CountingParser parser = new CountingParser();
+
+		cache.store(URL, bytes("MAIN"), null, null, 0);
+		cache.parse(URL, bytes("MAIN"), parser);
+		cache.store(URL, bytes("MAIN"), null, null, 60000);
+		final AVRXMLInfo second = cache.parse(URL, bytes("MAIN"), parser);
+
+		assertEquals(1, parser.calls);
+		assertEquals(Arrays.asList("MAIN"), second.getZoneRenames());
+
+		cache.store(URL, bytes("LIVING"), null, null, 120000);
+		assertEquals(Arrays.asList("LIVING"),
+				cache.parse(URL, bytes("LIVING"), parser).getZoneRenames());
+		assertEquals(2, parser.calls);
+	}
+
+	/** merge() hängt an die Listen an - der Cache darf davon nichts abbekommen. */
+	@Test
+	public void parsedResultIsHandedOutAsCopy() throws Exception {
+		final ResponseCache cache = new ResponseCache();
+		final CountingParser parser = new CountingParser();
+		cache.store(URL, bytes("MAIN"), null, null, 0);
+
+		final AVRXMLInfo first = cache.parse(URL, bytes("MAIN"), parser);
+		final AVRXMLInfo zone2 = new AVRXMLInfo();
+		zone2.add(AVRXMLInfo.RENAME_ZONE, "ZONE2");
+		first.merge(Zone.Z2, zone2);
+
+		assertEquals(Arrays.asList("MAIN"),
+				cache.parse(URL, bytes("MAIN"), parser).getZoneRenames());
+	}
+
+	@Test
+	public void equalContentMeansEqualInfo() {
+		final AVRXMLInfo a = new AVRXMLInfo();
+		a.add("InputFuncList", "TUNER");
+		a.add(AVRXMLInfo.RENAME_ZONE, "MAIN");
+		final AVRXMLInfo b = a.copy();
+
+		assertEquals(a, b);
+		b.add("InputFuncList", "DVD");
+		assertFalse(a.equals(b));
+	}
+
+	/** Lautstärke oder Eingangswahl ändern die Namen nicht. */
+	@Test
+	public void namesIgnoreLiveState() {
+		final AVRXMLInfo a = new AVRXMLInfo();
+		a.add("InputFuncList", "TUNER");
+		a.add("RenameSource", "Radio");
+		a.add(AVRXMLInfo.RENAME_ZONE, "MAIN");
+		a.add(AVRXMLInfo.QUICK_SELECT_NAME + "1", "Kino");
+		final AVRXMLInfo b = a.copy();
+		a.add("MasterVolume", "-40.0");
+		b.add("MasterVolume", "-35.5");
+		b.add("InputFuncSelect", "DVD");
+
+		assertFalse(a.equals(b));
+		assertEquals(a.getNames(), b.getNames());
+		assertEquals(a.getNames().hashCode(), b.getNames().hashCode());
+		b.add(AVRXMLInfo.QUICK_SELECT_NAME + "1", "Musik");
+		assertFalse(a.getNames().equals(b.getNames()));
+	}
+
+	@Test
+	public void etagMakesTheNextRequestConditional() throws Exception {
+		receiver = new StandInReceiver(true, 0);
+		receiver.setExtraHeader("ETag: \"42\"");
+		receiver.setAnswerNotModified(true);
+		final ResponseCache cache = new ResponseCache();
+		final String url = receiver.getBaseURL() + "status.xml";
+
+		final byte[] first = HTTPSupport.get(url, cache);
+		final byte[] second = HTTPSupport.get(url, cache);
+
+		assertTrue(receiver.getRequests().get(1).contains(
+				"\r\nIf-None-Match: \"42\"\r\n"));
+		assertEquals("<item><Path>/status.xml</Path></item>", new String(
+				second, "UTF-8"));
+		assertTrue(Arrays.equals(first, second));
+	}
+
+	@Test
+	public void withoutValidatorsNothingIsConditional() throws Exception {
+		receiver = new StandInReceiver(false, 0);
+		final ResponseCache cache = new ResponseCache();
+		final String url = receiver.getBaseURL() + "status.xml";
+
+		HTTPSupport.get(url, cache);
+		HTTPSupport.get(url, cache);
+
+		final String second = receiver.getRequests().get(1);
+		assertFalse(second, second.contains("If-None-Match"));
+		assertFalse(second, second.contains("If-Modified-Since"));
+	}
+
+	private static byte[] bytes(String s) throws Exception {
+		return s.getBytes("UTF-8");
+	}
+
+	private StandInReceiver receiver;
+	private static final String URL = "http://receiver/goform/formMainZone_MainZoneXml.xml?ZoneName=ZONE1";
+}
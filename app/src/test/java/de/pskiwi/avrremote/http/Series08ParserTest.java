@@ -51,7 +51,7 @@ import de.pskiwi.avrremote.http.AVRXMLInfo.Input;
  * die Input-Seite noch zwei weitere &lt;select&gt; enthält, die nicht
  * mitgelesen werden dürfen. Für Series08QuickSelectParser gibt es keinen
  * Mitschnitt von d_option1.asp; der bleibt bei den synthetischen Fällen.
- * Series08Reader ist gar nicht abgedeckt, der braucht HTTP.
+ * Series08Reader liest dieselben Mitschnitte über HTTP in Series08ReaderTest.
  */
 public final class Series08ParserTest {
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.pskiwi.avrremote.core.Zone;
+
+/**
+ * Series08Reader gegen StandInReceiver, mit den beiden Mitschnitten aus
+ * Series08ParserTest. d_option1.asp gibt es nicht als Mitschnitt, die Seite
+ * hier ist aus dem Muster des Parsers abgeleitet.
+ *
+ * Nicht abgedeckt bleibt, ob ein echter Receiver den Zustand von
+ * r_option1.asp wirklich über ein Cookie an d_option1.asp weitergibt.
+ */
+public final class Series08ReaderTest {
+
+	@After
+	public void stopServer() throws Exception {
+		if (receiver != null) {
+			receiver.close();
+		}
+	}
+
+	@Test
+	public void readsAllThreePagesOffTheStream() throws Exception {
+		receiver = new StandInReceiver(false, 0);
+		receiver.putPage("/SETUP/01_SOURCESELECT/d_inputsetup.asp",
+				capture("Series08Input.html"));
+		receiver.putPage("/ZONERENAME/d_zonerename.asp",
+				capture("Series08Zones.html"));
+		receiver.putPage("/SETUP/04_MANUALSETUP/09_OPTION1/d_option1.asp",
+				("<input name='textQuickSelectNameSelect1' value=\"Radio\">\n"
+						+ "<input name='textQuickSelectNameSelect2' value=\"Film\">\n")
+						.getBytes("UTF-8"));
+
+		final AVRXMLInfo info = new Series08Reader(receiver.getBaseURL())
+				.readSeries08Info();
+
+		assertEquals(5, info.getInputFunctionList().size());
+		assertEquals("Mediacen", info.getInputFunctionList().get(1)
+				.getRename());
+		assertEquals("[ThisIsZone1, ThisIsZone2, ThisIsZone3, Zone 4, Zone 5]",
+				info.getZoneRenames().toString());
+		assertEquals("[Radio, Film]", info.getQuickNames(Zone.Main)
+				.toString());
+		// r_option1.asp vor d_option1.asp, sonst fehlen die Namen
+		assertTrue(receiver.getRequests().get(2).startsWith(
+				"GET /SETUP/04_MANUALSETUP/09_OPTION1/r_option1.asp "));
+	}
+
+	/** Hört der Leser früh auf, darf die halb gelesene Verbindung nicht zurück in den Pool. */
+	@Test
+	public void connectionLeftEarlyIsNotReused() throws Exception {
+		receiver = new StandInReceiver(true, 0);
+		final StringBuilder page = new StringBuilder("<select name='x'>\n");
+		for (int i = 0; i < 20000; i++) {
+			page.append("<!-- Auffüllung wie auf den Setup-Seiten -->\n");
+		}
+		receiver.putPage("/big.asp", page.toString().getBytes("UTF-8"));
+
+		final String first = HTTPSupport.get(receiver.getBaseURL() + "big.asp",
+				new HTTPSupport.IBodyReader<String>() {
+					public String read(InputStream in) throws IOException {
+						return new BufferedReader(new InputStreamReader(in,
+								"UTF-8")).readLine();
+					}
+				});
+		final byte[] second = HTTPSupport.get(receiver.getBaseURL()
+				+ "small.asp");
+
+		assertEquals("<select name='x'>", first);
+		assertEquals("<item><Path>/small.asp</Path></item>", new String(
+				second, "UTF-8"));
+		assertEquals(2, receiver.getConnections());
+	}
+
+	/** Zu Ende gelesen geht die Verbindung wie beim gepufferten GET in den Pool. */
+	@Test
+	public void connectionReadToTheEndIsReused() throws Exception {
+		receiver = new StandInReceiver(true, 0);
+
+		HTTPSupport.get(receiver.getBaseURL() + "a.asp",
+				new HTTPSupport.IBodyReader<Void>() {
+					public Void read(InputStream in) throws IOException {
+						while (in.read() != -1) {
+							// alles lesen
+						}
+						return null;
+					}
+				});
+		HTTPSupport.get(receiver.getBaseURL() + "b.asp");
+
+		assertEquals(1, receiver.getConnections());
+	}
+
+	private static byte[] capture(String name) throws IOException {
+		try (InputStream in = AVRXMLInfoParserTest.fixture(name)) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private StandInReceiver receiver;
+}
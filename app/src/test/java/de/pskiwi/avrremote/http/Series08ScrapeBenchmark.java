@@ -0,0 +1,111 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Die Eingangsseite der 2008er-Geräte über StandInReceiver, einmal wie
+ * früher erst ganz gepuffert und dann geparst, einmal direkt vom Socket in
+ * Series08InputParser. Kein Test, sondern ein main() - siehe
+ * ReceivePathBenchmark.
+ *
+ * <p>
+ * Der Mitschnitt eines AVR-3808 hat 7 KB. Für die größeren Setup-Seiten wird
+ * er nach der Zeile mit den Eingängen auf PAGE_SIZE aufgefüllt; das ist eine
+ * Annahme, keine gemessene Seite.
+ */
+public final class Series08ScrapeBenchmark {
+
+	private interface Run {
+		int run(String url) throws IOException;
+	}
+
+	private static void measure(String name, Run run, String url)
+			throws IOException {
+		final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long tid = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP; i++) {
+			run.run(url);
+		}
+		final long bytesBefore = mx.getThreadAllocatedBytes(tid);
+		final long t0 = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			run.run(url);
+		}
+		final long nanos = System.nanoTime() - t0;
+		final long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+		System.out.printf("%-9s %7.2f ms/page  %8.0f KB allocated/page%n", name,
+				nanos / 1e6 / ROUNDS, bytes / 1024.0 / ROUNDS);
+	}
+
+	private static byte[] page() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = AVRXMLInfoParserTest
+				.fixture("Series08Input.html")) {
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		final byte[] filler = "<TR><TD>&nbsp;</TD><TD>&nbsp;</TD></TR>\n"
+				.getBytes("UTF-8");
+		while (out.size() < PAGE_SIZE) {
+			out.write(filler);
+		}
+		return out.toByteArray();
+	}
+
+	public static void main(String[] args) throws IOException {
+		java.util.logging.LogManager.getLogManager().reset();
+		final StandInReceiver r = new StandInReceiver(false, 0);
+		try {
+			r.putPage("/d_inputsetup.asp", page());
+			final String url = r.getBaseURL() + "d_inputsetup.asp";
+			measure("buffered", new Run() {
+				public int run(String u) throws IOException {
+					return new Series08InputParser(new ByteArrayInputStream(
+							HTTPSupport.get(u))).get().size();
+				}
+			}, url);
+			measure("streamed", new Run() {
+				public int run(String u) throws IOException {
+					return HTTPSupport.get(u,
+							new HTTPSupport.IBodyReader<Integer>() {
+								public Integer read(InputStream in)
+										throws IOException {
+									return new Series08InputParser(in).get()
+											.size();
+								}
+							});
+				}
+			}, url);
+		} finally {
+			r.close();
+		}
+	}
+
+	private static final int PAGE_SIZE = 80 * 1024;
+	private static final int WARMUP = 200;
+	private static final int ROUNDS = 500;
+}
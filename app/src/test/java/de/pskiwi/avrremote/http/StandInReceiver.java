@@ -0,0 +1,228 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Webserver-Attrappe für mehrere Requests und Verbindungen. Zählt die
+ * angenommenen Verbindungen - daran hängen die Keep-Alive-Zusicherungen.
+ *
+ * Zwei Arten zu antworten: wie der GoAhead der älteren Receiver (HTTP/1.0,
+ * danach zu), oder HTTP/1.1 mit Content-Length und offener Verbindung.
+ * acceptDelay bildet den langsamen Verbindungsaufbau des Receivers nach.
+ */
+final class StandInReceiver {
+
+	StandInReceiver(boolean keepAlive, int acceptDelay) throws IOException {
+		this.keepAlive = keepAlive;
+		this.acceptDelay = acceptDelay;
+		server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		baseURL = "http://127.0.0.1:" + server.getLocalPort() + "/";
+		acceptor = new Thread("stand-in-receiver") {
+			@Override
+			public void run() {
+				acceptLoop();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	String getBaseURL() {
+		return baseURL;
+	}
+
+	int getConnections() {
+		return connections.get();
+	}
+
+	/** Alle Requests als roher Text, in Eingangsreihenfolge. */
+	List<String> getRequests() {
+		synchronized (requests) {
+			return new ArrayList<String>(requests);
+		}
+	}
+
+	/** Zusätzlicher Antwort-Header, z.B. Set-Cookie. */
+	void setExtraHeader(String header) {
+		extraHeader = header;
+	}
+
+	/** Feste Antwort für einen Pfad statt der erzeugten. */
+	void putPage(String path, byte[] body) {
+		pages.put(path, body);
+	}
+
+	/** Auf einen Request mit If-None-Match mit 304 ohne Body antworten. */
+	void setAnswerNotModified(boolean notModified) {
+		answerNotModified = notModified;
+	}
+
+	/**
+	 * Nach der nächsten Antwort die Verbindung schließen, obwohl sie als
+	 * offen angekündigt war - so sieht ein Socket aus, den der Receiver nach
+	 * einer Weile Leerlauf still aufgegeben hat.
+	 */
+	void dropAfterNextResponse() {
+		dropNext = true;
+	}
+
+	void close() throws IOException {
+		stopping = true;
+		server.close();
+		for (Socket s : open) {
+			s.close();
+		}
+	}
+
+	private void acceptLoop() {
+		while (!stopping) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException x) {
+				return;
+			}
+			connections.incrementAndGet();
+			open.add(socket);
+			final Thread t = new Thread("stand-in-connection") {
+				@Override
+				public void run() {
+					serve(socket);
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			socket.setSoTimeout(SO_TIMEOUT);
+			Thread.sleep(acceptDelay);
+			final InputStream in = new BufferedInputStream(
+					socket.getInputStream());
+			final OutputStream out = socket.getOutputStream();
+			String request;
+			while ((request = readRequest(in)) != null) {
+				synchronized (requests) {
+					requests.add(request);
+				}
+				final String path = request.substring(
+						request.indexOf(' ') + 1, request.indexOf(" HTTP/"));
+				final boolean notModified = answerNotModified
+						&& request.contains("\r\nIf-None-Match: ");
+				final byte[] page = pages.get(path);
+				final byte[] body = notModified ? new byte[0]
+						: page != null ? page : ("<item><Path>" + path
+								+ "</Path></item>").getBytes("UTF-8");
+				final StringBuilder head = new StringBuilder(
+						keepAlive ? "HTTP/1.1 " : "HTTP/1.0 ");
+				head.append(notModified ? "304 Not Modified\r\n" : "200 OK\r\n");
+				head.append("Content-Type: text/xml; charset=utf-8\r\n");
+				if (keepAlive) {
+					head.append("Content-Length: ").append(body.length)
+							.append("\r\n");
+				}
+				if (extraHeader != null) {
+					head.append(extraHeader).append("\r\n");
+				}
+				head.append("\r\n");
+				// Kopf und Body in einem Stück: zwei Schreibvorgänge auf
+				// einer offenen Verbindung warten per Nagle auf das verzögerte
+				// ACK des Clients, 40ms je Antwort
+				final ByteArrayOutputStream response = new ByteArrayOutputStream();
+				response.write(head.toString().getBytes("US-ASCII"));
+				response.write(body);
+				response.writeTo(out);
+				out.flush();
+				if (!keepAlive || dropNext) {
+					dropNext = false;
+					break;
+				}
+			}
+		} catch (IOException x) {
+			// Client hat zugemacht oder der Test ist vorbei
+		} catch (InterruptedException x) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ignore) {
+				// beim Schließen nicht mehr interessant
+			}
+		}
+	}
+
+	/** Header und Body eines Requests, null bei Verbindungsende. */
+	private static String readRequest(InputStream in) throws IOException {
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		int read;
+		int match = 0;
+		while (match < 4 && (read = in.read()) != -1) {
+			raw.write(read);
+			match = (read == (match % 2 == 0 ? '\r' : '\n')) ? match + 1
+					: (read == '\r' ? 1 : 0);
+		}
+		if (match < 4) {
+			return null;
+		}
+		final String head = raw.toString("US-ASCII");
+		int length = 0;
+		for (String line : head.split("\r\n")) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+				length = Integer.parseInt(line.substring(
+						line.indexOf(':') + 1).trim());
+			}
+		}
+		for (int i = 0; i < length && (read = in.read()) != -1; i++) {
+			raw.write(read);
+		}
+		return raw.toString("UTF-8");
+	}
+
+	private final boolean keepAlive;
+	private final int acceptDelay;
+	private final ServerSocket server;
+	private final String baseURL;
+	private final Thread acceptor;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final List<String> requests = new ArrayList<String>();
+	private final Map<String, byte[]> pages = new ConcurrentHashMap<String, byte[]>();
+	private final List<Socket> open = Collections
+			.synchronizedList(new ArrayList<Socket>());
+	private volatile String extraHeader;
+	private volatile boolean dropNext;
+	private volatile boolean answerNotModified;
+	private volatile boolean stopping;
+
+	private static final int SO_TIMEOUT = 4000;
+}
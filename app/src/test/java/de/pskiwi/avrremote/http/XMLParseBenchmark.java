@@ -0,0 +1,156 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parst die Dateien aus AVRXMLInfoParserTest (MainZoneXml.xml,
+ * QuickSelectXml.xml) wiederholt und misst Zeit und Allokation pro Durchgang.
+ * Kein Test, sondern ein main() - siehe ReceivePathBenchmark.
+ *
+ * <p>
+ * "legacy" ist der alte AVRXMLInfoParser nachgebaut: je Aufruf eine neue,
+ * gehärtete SAXParserFactory und der Wert per String-Verkettung mit trim()
+ * nach jedem Stück. "current" ist AVRXMLInfoParser über SecureXML.
+ */
+public final class XMLParseBenchmark {
+
+	/** Der frühere Handler, Namen wie der jetzige über qName. */
+	private static final class LegacyHandler extends DefaultHandler {
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			value = (value + new String(ch, start, length)).trim();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) {
+			if ("item".equals(qName)) {
+				return;
+			}
+			if ("value".equals(qName)) {
+				value = "";
+				return;
+			}
+			currentTag = qName;
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if ("value".equals(qName)) {
+				info.add(currentTag, value);
+			} else {
+				currentTag = null;
+			}
+		}
+
+		private String currentTag;
+		private String value;
+		private final AVRXMLInfo info = new AVRXMLInfo();
+	}
+
+	private static void legacy(byte[] body) throws Exception {
+		final SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setFeature(
+				"http://xml.org/sax/features/external-general-entities", false);
+		factory.setFeature(
+				"http://xml.org/sax/features/external-parameter-entities", false);
+		factory.setFeature(
+				"http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setFeature(
+				"http://apache.org/xml/features/nonvalidating/load-external-dtd",
+				false);
+		factory.newSAXParser().parse(new ByteArrayInputStream(body),
+				new LegacyHandler());
+	}
+
+	private static void current(byte[] body) {
+		new AVRXMLInfoParser().parse(new ByteArrayInputStream(body));
+	}
+
+	private interface Run {
+		void run(byte[] body) throws Exception;
+	}
+
+	private static void measure(String name, Run run, byte[][] corpus)
+			throws Exception {
+		final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long tid = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP; i++) {
+			for (byte[] body : corpus) {
+				run.run(body);
+			}
+		}
+		final long bytesBefore = mx.getThreadAllocatedBytes(tid);
+		final long t0 = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			for (byte[] body : corpus) {
+				run.run(body);
+			}
+		}
+		final long nanos = System.nanoTime() - t0;
+		final long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+		final int parses = ROUNDS * corpus.length;
+		System.out.printf("%-8s %6d parses  %8.1f us/parse  %8.0f bytes/parse%n",
+				name, parses, nanos / 1e3 / parses, (double) bytes / parses);
+	}
+
+	private static byte[] read(String name) throws IOException {
+		try (InputStream in = AVRXMLInfoParserTest.fixture(name)) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// AVRXMLInfoParser loggt jedes Ergebnis; das soll nicht mitgemessen
+		// werden
+		java.util.logging.LogManager.getLogManager().reset();
+		final byte[][] corpus = { read("MainZoneXml.xml"),
+				read("QuickSelectXml.xml") };
+		measure("legacy", new Run() {
+			public void run(byte[] body) throws Exception {
+				legacy(body);
+			}
+		}, corpus);
+		measure("current", new Run() {
+			public void run(byte[] body) {
+				current(body);
+			}
+		}, corpus);
+	}
+
+	private static final int WARMUP = 2000;
+	private static final int ROUNDS = 5000;
+}
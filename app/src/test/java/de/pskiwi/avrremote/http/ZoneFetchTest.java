@@ -0,0 +1,172 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.pskiwi.avrremote.core.Zone;
+
+/**
+ * ZoneFetch muss dasselbe liefern wie die frühere Schleife über die Zonen,
+ * nur schneller. Die Zonen-Inhalte sind erfunden: je Zone ein RenameZone-Wert,
+ * an dessen Reihenfolge sich die Zusammenführung ablesen lässt.
+ */
+public final class ZoneFetchTest {
+
+	/** Jede Zone in einem eigenen Thread, wie ein nicht ausgelasteter io-Pool. */
+	private static final Executor THREADS = new Executor() {
+		public void execute(Runnable r) {
+			new Thread(r, "zone-helper").start();
+		}
+	};
+
+	private static final List<Zone> ALL = Arrays.asList(Zone.values());
+
+	private static AVRXMLInfo zone(Zone z) {
+		final AVRXMLInfo ret = new AVRXMLInfo();
+		ret.add(AVRXMLInfo.RENAME_ZONE, z.name());
+		return ret;
+	}
+
+	/** Liefert nach einer Wartezeit je Zone und zählt, wie viele gleichzeitig laufen. */
+	private static class SlowReader implements ZoneFetch.IZoneReader {
+
+		SlowReader(long... delays) {
+			this.delays = delays;
+		}
+
+		public AVRXMLInfo read(Zone z) throws Exception {
+			final int now = running.incrementAndGet();
+			synchronized (this) {
+				maxRunning = Math.max(maxRunning, now);
+			}
+			try {
+				Thread.sleep(delays[z.ordinal()]);
+				return result(z);
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+
+		AVRXMLInfo result(Zone z) throws Exception {
+			return zone(z);
+		}
+
+		private final long[] delays;
+		private final AtomicInteger running = new AtomicInteger();
+		private int maxRunning;
+	}
+
+	@Test
+	public void mergesInZoneOrderWhenLaterZonesFinishFirst() throws Exception {
+		final AVRXMLInfo info = new ZoneFetch(ALL, new SlowReader(150, 50, 10,
+				0)).run(THREADS, 3);
+
+		assertEquals(Arrays.asList("Main", "Z2", "Z3", "Z4"),
+				info.getZoneRenames());
+	}
+
+	@Test
+	public void emptyZoneKeepsEarlierZonesAndDropsLaterOnes() throws Exception {
+		final AVRXMLInfo info = new ZoneFetch(ALL, new SlowReader(0, 0, 50, 0) {
+			@Override
+			AVRXMLInfo result(Zone z) {
+				return z == Zone.Z3 ? null : zone(z);
+			}
+		}).run(THREADS, 3);
+
+		assertEquals(Arrays.asList("Main", "Z2"), info.getZoneRenames());
+	}
+
+	/** Die Schleife wäre bis zur Exception hinter der leeren Zone nie gekommen. */
+	@Test
+	public void failureBehindAnEmptyZoneIsIgnored() throws Exception {
+		final AVRXMLInfo info = new ZoneFetch(ALL, new SlowReader(0, 50, 0, 0) {
+			@Override
+			AVRXMLInfo result(Zone z) throws Exception {
+				if (z == Zone.Z3) {
+					throw new IOException("Z3");
+				}
+				return z == Zone.Z2 ? null : zone(z);
+			}
+		}).run(THREADS, 3);
+
+		assertEquals(Arrays.asList("Main"), info.getZoneRenames());
+	}
+
+	@Test
+	public void failureBeforeAnEmptyZoneIsThrown() throws Exception {
+		final IOException failure = new IOException("Z2");
+		try {
+			new ZoneFetch(ALL, new SlowReader(0, 50, 0, 0) {
+				@Override
+				AVRXMLInfo result(Zone z) throws Exception {
+					if (z == Zone.Z2) {
+						throw failure;
+					}
+					return z == Zone.Z3 ? null : zone(z);
+				}
+			}).run(THREADS, 3);
+			fail();
+		} catch (IOException x) {
+			assertSame(failure, x);
+		}
+	}
+
+	/** Drei Zonen zu je 200ms brauchen zusammen etwa so lange wie eine. */
+	@Test
+	public void zonesAreReadSideBySideButBounded() throws Exception {
+		final SlowReader reader = new SlowReader(200, 200, 200, 200);
+		final long start = System.currentTimeMillis();
+		new ZoneFetch(ALL.subList(0, 3), reader).run(THREADS, 3);
+		final long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue(elapsed + "ms", elapsed < 400);
+		assertEquals(3, reader.maxRunning);
+
+		final SlowReader four = new SlowReader(50, 50, 50, 50);
+		new ZoneFetch(ALL, four).run(THREADS, 3);
+		assertEquals(3, four.maxRunning);
+	}
+
+	/** Kommen die Helfer nie dran, liest der Aufrufer alles allein. */
+	@Test
+	public void callerReadsAloneWhenHelpersNeverStart() throws Exception {
+		final Executor saturated = new Executor() {
+			public void execute(Runnable r) {
+				// voller Pool: die Aufgabe bleibt liegen
+			}
+		};
+
+		final AVRXMLInfo info = new ZoneFetch(ALL, new SlowReader(0, 0, 0, 0))
+				.run(saturated, 3);
+
+		assertEquals(Arrays.asList("Main", "Z2", "Z3", "Z4"),
+				info.getZoneRenames());
+	}
+}
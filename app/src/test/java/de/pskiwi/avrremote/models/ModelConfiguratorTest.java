@@ -17,6 +17,7 @@
 package de.pskiwi.avrremote.models;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -94,6 +95,20 @@ public final class ModelConfiguratorTest {
 				ModelConfigurator.createModel("Kein-Solches-Modell").getClass());
 	}
 
+	/** modelName aus der UPnP-Beschreibung, wie ihn die Geräte melden. */
+	@Test
+	public void upnpModelNameFindsTheListEntry() throws Exception {
+		final String[] names = readModelNames().toArray(new String[0]);
+		assertEquals("AVR-X2000",
+				ModelConfigurator.findModelName(names, "*AVR-X2000"));
+		assertEquals("AVR-3311",
+				ModelConfigurator.findModelName(names, "Denon AVR-3311"));
+		assertEquals("SR-7008",
+				ModelConfigurator.findModelName(names, "SR7008"));
+		assertNull(ModelConfigurator.findModelName(names, "AVR-X9999H"));
+		assertNull(ModelConfigurator.findModelName(names, "Denon"));
+	}
+
 	/** "ASD-51 (experimental)" -> "ASD51" */
 	private static String expectedClassName(String modelName) {
 		final int p = modelName.indexOf('(');
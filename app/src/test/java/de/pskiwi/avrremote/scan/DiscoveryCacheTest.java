@@ -0,0 +1,115 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public final class DiscoveryCacheTest {
+
+	private static DiscoveryCache cache() {
+		return new DiscoveryCache(new File("unused"));
+	}
+
+	@Test
+	public void newestFirst() {
+		final DiscoveryCache c = cache();
+		c.setNetwork("Heim/192.168.1.1");
+		c.seen("192.168.1.20", "AVR-X2000", 1000);
+		c.seen("192.168.1.30", null, 3000);
+		c.seen("192.168.1.40", null, 2000);
+
+		assertEquals(Arrays.asList("192.168.1.30", "192.168.1.40",
+				"192.168.1.20"), c.getHosts());
+		assertEquals(3000, c.getLastSeen("192.168.1.30"));
+		assertEquals(0, c.getLastSeen("192.168.1.99"));
+	}
+
+	/** Dieselbe IP in einem anderen Netz ist ein anderes Gerät. */
+	@Test
+	public void networksAreSeparate() {
+		final DiscoveryCache c = cache();
+		c.setNetwork("Heim/192.168.1.1");
+		c.seen("192.168.1.20", "AVR-X2000", 1000);
+		c.setNetwork("Ferienhaus/192.168.1.1");
+
+		assertEquals(Collections.emptyList(), c.getHosts());
+		assertEquals(0, c.getLastSeen("192.168.1.20"));
+
+		c.setNetwork("Heim/192.168.1.1");
+		assertEquals("AVR-X2000", c.getModel("192.168.1.20"));
+	}
+
+	/** Der Reconnector kennt das Modell nicht und überschreibt es nicht. */
+	@Test
+	public void unknownModelKeepsTheKnownOne() {
+		final DiscoveryCache c = cache();
+		c.seen("10.0.0.5", "SR-7008", 1000);
+		c.seen("10.0.0.5", null, 5000);
+
+		assertEquals("SR-7008", c.getModel("10.0.0.5"));
+		assertEquals(5000, c.getLastSeen("10.0.0.5"));
+	}
+
+	@Test
+	public void oldestHostIsDropped() {
+		final DiscoveryCache c = cache();
+		for (int i = 1; i <= 9; i++) {
+			c.seen("10.0.0." + i, null, i * 1000);
+		}
+
+		assertEquals(8, c.getHosts().size());
+		assertEquals(0, c.getLastSeen("10.0.0.1"));
+	}
+
+	@Test
+	public void writeAndRead() throws IOException {
+		final DiscoveryCache c = cache();
+		c.setNetwork("Heim/192.168.1.1");
+		c.seen("192.168.1.20", "AVR-X2000", 1000);
+		c.setNetwork("/10.0.0.1");
+		c.seen("10.0.0.5", null, 2000);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		c.write(out);
+
+		final DiscoveryCache read = cache();
+		read.read(new ByteArrayInputStream(out.toByteArray()));
+		read.setNetwork("Heim/192.168.1.1");
+		assertEquals("AVR-X2000", read.getModel("192.168.1.20"));
+		assertEquals(1000, read.getLastSeen("192.168.1.20"));
+		read.setNetwork("/10.0.0.1");
+		assertNull(read.getModel("10.0.0.5"));
+		assertEquals(2000, read.getLastSeen("10.0.0.5"));
+	}
+
+	@Test
+	public void unknownVersionIsEmpty() throws IOException {
+		final DiscoveryCache c = cache();
+		c.read(new ByteArrayInputStream(new byte[] { 99, 1 }));
+
+		assertEquals(Collections.emptyList(), c.getHosts());
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class HostRangeTest {
+
+	private static InetAddress ip(String s) throws UnknownHostException {
+		return InetAddress.getByName(s);
+	}
+
+	private static List<String> strings(List<InetAddress> l) {
+		final List<String> ret = new ArrayList<String>();
+		for (InetAddress a : l) {
+			ret.add(a.getHostAddress());
+		}
+		return ret;
+	}
+
+	@Test
+	public void classCWithoutOwnAddress() throws UnknownHostException {
+		final List<InetAddress> hosts = HostRange.hosts(ip("192.168.1.34"), 24);
+
+		assertEquals(253, hosts.size());
+		assertEquals("192.168.1.1", hosts.get(0).getHostAddress());
+		assertEquals("192.168.1.254", hosts.get(252).getHostAddress());
+		assertEquals(false, strings(hosts).contains("192.168.1.34"));
+	}
+
+	/** Das AV-VLAN: 10.0.4.0 bis 10.0.5.255. */
+	@Test
+	public void slash23SpansTwoBlocks() throws UnknownHostException {
+		final List<InetAddress> hosts = HostRange.hosts(ip("10.0.5.17"), 23);
+
+		assertEquals(509, hosts.size());
+		assertEquals("10.0.4.1", hosts.get(0).getHostAddress());
+		assertEquals("10.0.5.254", hosts.get(508).getHostAddress());
+	}
+
+	/** Größer als /22 wird auf das /22 um die eigene Adresse gekürzt. */
+	@Test
+	public void largeNetworksAreCutToSlash22() throws UnknownHostException {
+		final List<InetAddress> hosts = HostRange.hosts(ip("172.16.9.200"), 16);
+
+		assertEquals(1021, hosts.size());
+		assertEquals("172.16.8.1", hosts.get(0).getHostAddress());
+		assertEquals("172.16.11.254", hosts.get(1020).getHostAddress());
+	}
+
+	@Test
+	public void pointToPointHasNoHosts() throws UnknownHostException {
+		assertEquals(0, HostRange.hosts(ip("192.168.1.1"), 31).size());
+		assertEquals(0, HostRange.hosts(ip("192.168.1.1"), 32).size());
+	}
+
+	@Test
+	public void recentFirstThenLowHostsThenTheRest()
+			throws UnknownHostException {
+		final InetAddress own = ip("10.0.5.17");
+		final List<InetAddress> hosts = Arrays.asList(ip("10.0.4.200"),
+				ip("10.0.5.200"), ip("10.0.4.20"), ip("10.0.5.30"),
+				ip("10.0.5.3"), ip("10.0.4.150"));
+
+		assertEquals(Arrays.asList("10.0.4.150", "10.0.5.3", "10.0.5.30",
+				"10.0.4.20", "10.0.5.200", "10.0.4.200"),
+				strings(HostRange.order(hosts, own,
+						Collections.singletonList("10.0.4.150"))));
+	}
+
+	/** Zuletzt gesehen zuerst, nicht aufsteigend. */
+	@Test
+	public void recentKeepsItsOrder() throws UnknownHostException {
+		final List<InetAddress> hosts = Arrays.asList(ip("192.168.1.20"),
+				ip("192.168.1.30"), ip("192.168.1.2"));
+
+		assertEquals(Arrays.asList("192.168.1.30", "192.168.1.20",
+				"192.168.1.2"), strings(HostRange.order(hosts,
+				ip("192.168.1.5"), Arrays.asList("192.168.1.30",
+						"192.168.1.20", "192.168.1.30"))));
+	}
+
+	/** 192.x ist als int negativ - die Folge muss trotzdem aufsteigen. */
+	@Test
+	public void orderIsUnsigned() throws UnknownHostException {
+		final List<InetAddress> hosts = Arrays.asList(ip("192.168.1.9"),
+				ip("192.168.1.2"));
+
+		assertEquals(Arrays.asList("192.168.1.2", "192.168.1.9"),
+				strings(HostRange.order(hosts, ip("192.168.1.5"),
+						Collections.<String> emptyList())));
+	}
+
+	@Test
+	public void prefixFromMask() {
+		assertEquals(24, HostRange.prefixOf("255.255.255.0"));
+		assertEquals(22, HostRange.prefixOf("255.255.252.0"));
+		assertEquals(0, HostRange.prefixOf("255.0.255.0"));
+		assertEquals(0, HostRange.prefixOf("kaputt"));
+		assertEquals("255.255.254.0", HostRange.maskOf(23));
+	}
+}
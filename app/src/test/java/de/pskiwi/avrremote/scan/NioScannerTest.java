@@ -0,0 +1,166 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * NioScanner gegen zwei lokale Server-Sockets als Stand-in für HTTP und
+ * Telnet. 127.0.0.1 hat beide offen, die übrigen Loopback-Adressen weisen
+ * jeden Connect sofort ab.
+ */
+public final class NioScannerTest {
+
+	private static class Collector implements NioScanner.IListener {
+
+		public void found(InetAddress address) {
+			found.add(address.getHostAddress());
+		}
+
+		public void progress(int done, int total) {
+			lastDone = done;
+			lastTotal = total;
+		}
+
+		private final List<String> found = new ArrayList<String>();
+		private int lastDone;
+		private int lastTotal;
+	}
+
+	@Before
+	public void open() throws IOException {
+		http = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		telnet = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	}
+
+	@After
+	public void close() throws IOException {
+		http.close();
+		telnet.close();
+	}
+
+	private static List<InetAddress> hosts(String... ips) throws IOException {
+		final List<InetAddress> ret = new ArrayList<InetAddress>();
+		for (String ip : ips) {
+			ret.add(InetAddress.getByName(ip));
+		}
+		return ret;
+	}
+
+	@Test
+	public void hostWithAllPortsIsFound() throws IOException {
+		final Collector c = new Collector();
+		new NioScanner(new int[] { http.getLocalPort(), telnet.getLocalPort() },
+				500, 16, 0).scan(hosts("127.0.0.2", "127.0.0.1", "127.0.0.3"), c);
+
+		assertEquals(Arrays.asList("127.0.0.1"), c.found);
+		assertEquals(3, c.lastDone);
+		assertEquals(3, c.lastTotal);
+	}
+
+	/** Ein offener Port allein reicht nicht. */
+	@Test
+	public void secondPortMustAnswerToo() throws IOException {
+		final int closedPort = telnet.getLocalPort();
+		telnet.close();
+		final Collector c = new Collector();
+		new NioScanner(new int[] { http.getLocalPort(), closedPort }, 500, 16, 0)
+				.scan(hosts("127.0.0.1"), c);
+
+		assertEquals(0, c.found.size());
+		assertEquals(1, c.lastDone);
+	}
+
+	/** Weniger Plätze als Hosts: alle kommen trotzdem dran. */
+	@Test
+	public void boundedInFlight() throws IOException {
+		final Collector c = new Collector();
+		final List<InetAddress> hosts = new ArrayList<InetAddress>();
+		for (int i = 2; i < 40; i++) {
+			hosts.add(InetAddress.getByName("127.0.0." + i));
+		}
+		hosts.add(InetAddress.getByName("127.0.0.1"));
+		new NioScanner(new int[] { http.getLocalPort(), telnet.getLocalPort() },
+				500, 2, 0).scan(hosts, c);
+
+		assertEquals(Arrays.asList("127.0.0.1"), c.found);
+		assertEquals(hosts.size(), c.lastDone);
+	}
+
+	@Test
+	public void cancelledScanStopsEarly() throws IOException {
+		final NioScanner scanner = new NioScanner(new int[] {
+				http.getLocalPort(), telnet.getLocalPort() }, 500, 1, 0);
+		final Collector c = new Collector() {
+			@Override
+			public void progress(int done, int total) {
+				super.progress(done, total);
+				scanner.cancel();
+			}
+		};
+		scanner.scan(hosts("127.0.0.2", "127.0.0.3", "127.0.0.4"), c);
+
+		assertEquals(1, c.lastDone);
+	}
+
+	/**
+	 * AVRScanner.cancel() kann kommen, bevor der Scanner läuft - etwa wenn
+	 * der Dialog sofort geschlossen wird.
+	 */
+	@Test
+	public void cancelBeforeScanProbesNothing() throws IOException {
+		final NioScanner scanner = new NioScanner(new int[] {
+				http.getLocalPort(), telnet.getLocalPort() }, 500, 16, 0);
+		final Collector c = new Collector();
+		scanner.cancel();
+		scanner.scan(hosts("127.0.0.1", "127.0.0.2"), c);
+
+		assertEquals(0, c.found.size());
+		assertEquals(0, c.lastDone);
+	}
+
+	/** 20 Connects bei 100 pro Sekunde brauchen knapp 200ms. */
+	@Test
+	public void connectsAreRateLimited() throws IOException {
+		final List<InetAddress> hosts = new ArrayList<InetAddress>();
+		for (int i = 2; i < 22; i++) {
+			hosts.add(InetAddress.getByName("127.0.0." + i));
+		}
+		final Collector c = new Collector();
+		final long start = System.currentTimeMillis();
+		new NioScanner(new int[] { http.getLocalPort() }, 500, 16, 100).scan(
+				hosts, c);
+
+		assertEquals(20, c.lastDone);
+		assertTrue(System.currentTimeMillis() - start >= 170);
+	}
+
+	private ServerSocket http;
+	private ServerSocket telnet;
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package de.pskiwi.avrremote.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SsdpDiscovery gegen einen lokalen UDP-Responder statt der Multicast-Gruppe
+ * und einen Mini-HTTP-Server für die Gerätebeschreibungen. Der Responder
+ * beantwortet das erste M-SEARCH mit den vorher hinterlegten Antworten.
+ */
+public final class SsdpDiscoveryTest {
+
+	/**
+	 * Antwortet auf ein M-SEARCH, merkt sich die Anfrage. Jede Antwort kommt
+	 * von dem Host aus ihrer LOCATION (127.0.0.x), wie von einem echten
+	 * Gerät.
+	 */
+	private static final class Responder extends Thread {
+
+		Responder(List<String> responses, boolean fromLocation)
+				throws IOException {
+			this.responses = responses;
+			this.fromLocation = fromLocation;
+			socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				final byte[] buffer = new byte[2048];
+				final DatagramPacket p = new DatagramPacket(buffer,
+						buffer.length);
+				socket.receive(p);
+				request = new String(p.getData(), 0, p.getLength(), "US-ASCII");
+				for (String r : responses) {
+					final byte[] b = r.getBytes("US-ASCII");
+					final String host = new URL(SsdpDiscovery.parseLocation(r))
+							.getHost();
+					if (!fromLocation || host.equals("127.0.0.1")) {
+						socket.send(new DatagramPacket(b, b.length, p
+								.getSocketAddress()));
+					} else {
+						final DatagramSocket from = new DatagramSocket(0,
+								InetAddress.getByName(host));
+						from.send(new DatagramPacket(b, b.length, p
+								.getSocketAddress()));
+						from.close();
+					}
+				}
+			} catch (IOException x) {
+				// geschlossen
+			}
+		}
+
+		private final List<String> responses;
+		// false: alles von 127.0.0.1, egal was in LOCATION steht
+		private final boolean fromLocation;
+		private final DatagramSocket socket;
+		private volatile String request;
+	}
+
+	/**
+	 * Liefert je Pfad einen festen Body, zählt die Anfragen. Jede Verbindung
+	 * in einem eigenen Thread; ein Pfad aus slow antwortet erst nach
+	 * SLOW_DELAY.
+	 */
+	private static final class DescriptionServer extends Thread {
+
+		DescriptionServer() throws IOException {
+			// alle Adressen, die Geräte im Test sitzen auf 127.0.0.x
+			server = new ServerSocket(0, 50);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					final Socket s = server.accept();
+					final Thread t = new Thread() {
+						@Override
+						public void run() {
+							answer(s);
+						}
+					};
+					t.setDaemon(true);
+					t.start();
+				} catch (IOException x) {
+					return;
+				}
+			}
+		}
+
+		private void answer(Socket socket) {
+			try (Socket s = socket) {
+				final BufferedReader in = new BufferedReader(
+						new InputStreamReader(s.getInputStream(), "US-ASCII"));
+				final String path = in.readLine().split(" ")[1];
+				String line;
+				while ((line = in.readLine()) != null && line.length() > 0) {
+					// Header
+				}
+				requests.incrementAndGet();
+				if (slow.contains(path)) {
+					Thread.sleep(SLOW_DELAY);
+				}
+				final String body = bodies.get(path);
+				final byte[] b = body == null ? new byte[0] : body
+						.getBytes("UTF-8");
+				final OutputStream out = s.getOutputStream();
+				out.write(((body == null ? "HTTP/1.0 404 Not Found"
+						: "HTTP/1.0 200 OK")
+						+ "\r\nContent-Type: text/xml\r\nContent-Length: "
+						+ b.length + "\r\n\r\n").getBytes("US-ASCII"));
+				out.write(b);
+				out.flush();
+			} catch (IOException x) {
+				// Client hat aufgegeben
+			} catch (InterruptedException x) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		String url(String path) {
+			return url(1, path);
+		}
+
+		/** Auf dem Host 127.0.0.host. */
+		String url(int host, String path) {
+			return "http://127.0.0." + host + ":" + server.getLocalPort()
+					+ path;
+		}
+
+		private final ServerSocket server;
+		private final Map<String, String> bodies = new HashMap<String, String>();
+		private final Set<String> slow = new HashSet<String>();
+		private final AtomicInteger requests = new AtomicInteger();
+	}
+
+	private static String response(String location) {
+		return response(location, "Linux/2.6 UPnP/1.0 Portable SDK/1.6");
+	}
+
+	private static String response(String location, String server) {
+		return "HTTP/1.1 200 OK\r\nCACHE-CONTROL: max-age=180\r\nEXT:\r\n"
+				+ "Location: " + location + "\r\nSERVER: " + server
+				+ "\r\nST: upnp:rootdevice\r\n"
+				+ "USN: uuid:5f9ec1b3::upnp:rootdevice\r\n\r\n";
+	}
+
+	private static String description(String manufacturer, String modelName,
+			String friendlyName) {
+		return "<?xml version=\"1.0\"?>\n"
+				+ "<root xmlns=\"urn:schemas-upnp-org:device-1-0\">"
+				+ "<device><friendlyName>" + friendlyName + "</friendlyName>"
+				+ "<manufacturer>" + manufacturer + "</manufacturer>"
+				+ "<modelName>" + modelName + "</modelName>"
+				+ "<deviceList><device><friendlyName>embedded</friendlyName>"
+				+ "<manufacturer>Other</manufacturer>"
+				+ "<modelName>Other</modelName></device></deviceList>"
+				+ "</device></root>";
+	}
+
+	@Before
+	public void open() throws IOException {
+		http = new DescriptionServer();
+		http.start();
+	}
+
+	@After
+	public void close() throws IOException {
+		http.server.close();
+		if (responder != null) {
+			responder.socket.close();
+		}
+	}
+
+	private List<SsdpDiscovery.Device> discover(String... responses)
+			throws IOException {
+		final List<String> r = new ArrayList<String>();
+		for (String s : responses) {
+			r.add(s);
+		}
+		responder = new Responder(r, fromLocation);
+		responder.start();
+		final List<SsdpDiscovery.Device> found = new ArrayList<SsdpDiscovery.Device>();
+		new SsdpDiscovery(new InetSocketAddress("127.0.0.1",
+				responder.socket.getLocalPort()), WINDOW, 250, new Executor() {
+			public void execute(Runnable r) {
+				new Thread(r).start();
+			}
+		}).discover(new SsdpDiscovery.IListener() {
+					public void found(SsdpDiscovery.Device device) {
+						found.add(device);
+					}
+				});
+		return found;
+	}
+
+	@Test
+	public void receiverIsFoundWithModelAndName() throws IOException {
+		http.bodies.put("/desc.xml",
+				description("Denon", "*AVR-X2000", "Wohnzimmer"));
+		final long start = System.currentTimeMillis();
+		final List<SsdpDiscovery.Device> found = discover(response(http
+				.url("/desc.xml")));
+
+		assertTrue(responder.request.startsWith("M-SEARCH * HTTP/1.1\r\n"));
+		assertTrue(responder.request.contains("MAN: \"ssdp:discover\""));
+		assertEquals(1, found.size());
+		assertEquals("127.0.0.1", found.get(0).address.getHostAddress());
+		assertEquals("Denon", found.get(0).manufacturer);
+		assertEquals("*AVR-X2000", found.get(0).modelName);
+		assertEquals("Wohnzimmer", found.get(0).friendlyName);
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	/** Router und Medienserver antworten auch. */
+	@Test
+	public void otherDevicesAreIgnored() throws IOException {
+		http.bodies.put("/igd.xml",
+				description("AVM Berlin", "FRITZ!Box 7590", "fritz.box"));
+
+		assertEquals(0, discover(response(http.url("/igd.xml"))).size());
+		assertEquals(1, http.requests.get());
+	}
+
+	/** Mehrere Root-Devices desselben Geräts ergeben einen Treffer. */
+	@Test
+	public void sameHostIsReportedOnce() throws IOException {
+		http.bodies.put("/a.xml", description("Marantz", "SR7008", "Kino"));
+		http.bodies.put("/b.xml", description("Marantz", "SR7008", "Kino"));
+
+		assertEquals(1, discover(response(http.url("/a.xml")),
+				response(http.url("/a.xml")), response(http.url("/b.xml")))
+				.size());
+		assertEquals(1, http.requests.get());
+	}
+
+	/** Lautsprecher derselben Hersteller sind keine Receiver. */
+	@Test
+	public void speakersAreIgnored() throws IOException {
+		http.bodies.put("/heos.xml", description("Denon", "HEOS 1", "Bad"));
+		http.bodies.put("/home.xml",
+				description("Denon", "Denon Home 150", "Küche"));
+
+		assertEquals(0, discover(response(http.url("/heos.xml")),
+				response(http.url("/home.xml"))).size());
+		assertEquals(2, http.requests.get());
+	}
+
+	/**
+	 * Langsame Beschreibungen halten den Empfang nicht auf: der Receiver
+	 * dahinter kommt trotzdem innerhalb von Fenster plus Timeout.
+	 */
+	@Test
+	public void slowDescriptionsDoNotBlockOthers() throws IOException {
+		final List<String> responses = new ArrayList<String>();
+		for (int i = 0; i < 6; i++) {
+			http.bodies.put("/tv.xml", description("TV Inc", "TV", "TV"));
+			http.slow.add("/tv.xml");
+			responses.add(response(http.url(2 + i, "/tv.xml")));
+		}
+		http.bodies.put("/avr.xml", description("Denon", "AVR-X2000", "AVR"));
+		responses.add(response(http.url(9, "/avr.xml")));
+		final long start = System.currentTimeMillis();
+
+		final List<SsdpDiscovery.Device> found = discover(responses
+				.toArray(new String[0]));
+
+		assertEquals(1, found.size());
+		assertEquals("AVR-X2000", found.get(0).modelName);
+		assertTrue(System.currentTimeMillis() - start < WINDOW + 250 + 200);
+	}
+
+	@Test
+	public void serverHeaderOnlyRanks() {
+		assertTrue(SsdpDiscovery.isLikelyReceiver(response("http://x/",
+				"KnOS/3.2 UPnP/1.0 DMP/3.5")));
+		assertFalse(SsdpDiscovery.isLikelyReceiver(response("http://x/")));
+	}
+
+	/** LOCATION auf einen anderen Host als den Absender wird nicht gelesen. */
+	@Test
+	public void locationOnOtherHostIsNotFetched() throws IOException {
+		http.bodies.put("/desc.xml", description("Denon", "AVR-3311", "x"));
+		final String foreign = http.url(2, "/desc.xml");
+		fromLocation = false;
+
+		assertEquals(0, discover(response(foreign)).size());
+		assertEquals(0, http.requests.get());
+	}
+
+	/** Die Beschreibung ist so wenig vertrauenswürdig wie AppCommand.xml. */
+	@Test
+	public void externalEntityIsNotResolved() throws IOException {
+		http.bodies.put("/desc.xml", "<?xml version=\"1.0\"?>\n"
+				+ "<!DOCTYPE root [<!ENTITY x SYSTEM \"file:///etc/hostname\">]>"
+				+ "<root><device><friendlyName>&x;</friendlyName>"
+				+ "<manufacturer>Denon</manufacturer>"
+				+ "<modelName>AVR-3311</modelName></device></root>");
+
+		for (SsdpDiscovery.Device d : discover(response(http.url("/desc.xml")))) {
+			assertEquals("", d.friendlyName);
+		}
+	}
+
+	@Test
+	public void locationHeaderIsCaseInsensitive() {
+		assertEquals("http://10.0.0.5:8080/description.xml",
+				SsdpDiscovery.parseLocation("HTTP/1.1 200 OK\r\n"
+						+ "location:  http://10.0.0.5:8080/description.xml\r\n"
+						+ "\r\n"));
+		assertNull(SsdpDiscovery.parseLocation("NOTIFY * HTTP/1.1\r\n"
+				+ "LOCATION: http://10.0.0.5/\r\n\r\n"));
+		assertNull(SsdpDiscovery.parseLocation("HTTP/1.1 200 OK\r\n\r\n"));
+	}
+
+	private DescriptionServer http;
+	private Responder responder;
+	private boolean fromLocation = true;
+	private static final int WINDOW = 300;
+	private static final long SLOW_DELAY = 2000;
+}